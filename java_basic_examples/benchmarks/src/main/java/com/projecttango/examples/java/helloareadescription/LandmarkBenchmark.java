@@ -0,0 +1,240 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.helloareadescription;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the landmark lookups done from the pose callback of
+ * {@link HelloAreaDescriptionActivity}, and of saving and loading the landmarks of an ADF.
+ * <p/>
+ * The {@code legacy} benchmarks measure the JSON landmark files first used by the example, read
+ * back and parsed on every pose, as baselines of the binary {@link LandmarkFile} and of the
+ * {@link LandmarkIndex} queries that replaced them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LandmarkBenchmark {
+    private static final float STEP_M = 2.0f;
+
+    @Param({"20", "500"})
+    public int landmarkCount;
+
+    private File mDirectory;
+    private File mLegacyFile;
+    private File mLandmarkFile;
+
+    private final List<String> mNames = new ArrayList<String>();
+    private float[] mTranslations;
+    private float[] mRotations;
+    private double[] mTimestamps;
+
+    private LandmarkFile mLandmarks;
+    private LandmarkIndex mIndex;
+    private RouteNavigator mNavigator;
+    private final float[] mTranslation = new float[3];
+    private final int[] mIds = new int[4];
+    private final float[] mDistancesSq = new float[4];
+    private String mChosenLandmark;
+    // Position along the walked path, in landmarks.
+    private float mProgress;
+
+    @Setup
+    public void setUp() throws IOException, JSONException {
+        // Landmarks saved every few steps of a random walk.
+        Random random = new Random(1);
+        mTranslations = new float[3 * landmarkCount];
+        mRotations = new float[4 * landmarkCount];
+        mTimestamps = new double[landmarkCount];
+        float heading = 0;
+        for (int i = 0; i < landmarkCount; i++) {
+            mNames.add("landmark" + i);
+            if (i > 0) {
+                heading += (float) random.nextGaussian() * 0.5f;
+                mTranslations[3 * i] =
+                        mTranslations[3 * i - 3] + STEP_M * (float) Math.cos(heading);
+                mTranslations[3 * i + 1] =
+                        mTranslations[3 * i - 2] + STEP_M * (float) Math.sin(heading);
+            }
+            mTranslations[3 * i + 2] = 1.2f;
+            mRotations[4 * i + 3] = 1;
+            mTimestamps[i] = i;
+        }
+        mChosenLandmark = mNames.get(landmarkCount / 2);
+
+        mDirectory = File.createTempFile("landmarks", "");
+        if (!mDirectory.delete() || !mDirectory.mkdir()) {
+            throw new IOException("Unable to create " + mDirectory);
+        }
+        mLegacyFile = new File(mDirectory, "legacy");
+        mLandmarkFile = new File(mDirectory, "adf" + LandmarkFile.EXTENSION);
+        legacySaveLandmarks();
+        LandmarkFile.write(mLandmarkFile, mNames, mTranslations, mRotations, mTimestamps);
+        mLandmarks = LandmarkFile.open(mLandmarkFile);
+        mIndex = new LandmarkIndex(mLandmarks);
+        mNavigator = new RouteNavigator(new WaypointGraph(mIndex));
+        mNavigator.setDestination(landmarkCount - 1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    /**
+     * The lookup of the chosen landmark as first done on every relocalized pose: read the
+     * landmark file, parse it and look the coordinates up by name.
+     */
+    @Benchmark
+    public float legacyLookup() throws JSONException {
+        JSONObject landmarks = new JSONObject(legacyReadFile());
+        float x = Float.valueOf(landmarks.getString(mChosenLandmark + "_x"));
+        float y = Float.valueOf(landmarks.getString(mChosenLandmark + "_y"));
+        float z = Float.valueOf(landmarks.getString(mChosenLandmark + "_z"));
+        return x + y + z;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public float lookup() {
+        mLandmarks.getTranslation(mLandmarks.indexOf(mChosenLandmark), mTranslation);
+        return mTranslation[0] + mTranslation[1] + mTranslation[2];
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int nearest() {
+        return mIndex.nearest(mTranslations[0] + 0.5f, mTranslations[1], mTranslations[2],
+                5.0f, mIds, mDistancesSq);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int nearestAlong() {
+        return mIndex.nearestAlong(mTranslations[0], mTranslations[1], mTranslations[2],
+                1, 0, 0, 0.7f, 10.0f, mIds, mDistancesSq);
+    }
+
+    /**
+     * Route guidance while walking the path the landmarks were saved along, planning again when
+     * the walk starts over.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int navigation() {
+        mProgress += 0.01f;
+        if (mProgress >= landmarkCount - 1) {
+            mProgress = 0;
+        }
+        int i = (int) mProgress;
+        float t = mProgress - i;
+        float dx = mTranslations[3 * i + 3] - mTranslations[3 * i];
+        float dy = mTranslations[3 * i + 4] - mTranslations[3 * i + 1];
+        return mNavigator.update(mTranslations[3 * i] + t * dx, mTranslations[3 * i + 1] + t * dy,
+                mTranslations[3 * i + 2], dx / STEP_M, dy / STEP_M);
+    }
+
+    /**
+     * Saving the landmarks of an ADF as first done by the example, as a JSON object of their
+     * coordinates.
+     */
+    @Benchmark
+    public void legacySaveLandmarks() throws IOException, JSONException {
+        JSONObject jsonObj = new JSONObject();
+        for (int i = 0; i < mNames.size(); i++) {
+            jsonObj.put(mNames.get(i) + "_x", Float.toString(mTranslations[3 * i]));
+            jsonObj.put(mNames.get(i) + "_y", Float.toString(mTranslations[3 * i + 1]));
+            jsonObj.put(mNames.get(i) + "_z", Float.toString(mTranslations[3 * i + 2]));
+        }
+        FileOutputStream outputStream = new FileOutputStream(mLegacyFile);
+        try {
+            outputStream.write(jsonObj.toString().getBytes());
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    @Benchmark
+    public void saveLandmarks() throws IOException {
+        LandmarkFile.write(mLandmarkFile, mNames, mTranslations, mRotations, mTimestamps);
+    }
+
+    /**
+     * Reading a JSON landmark file as first done by the example, line by line.
+     */
+    @Benchmark
+    public String legacyReadFile() {
+        StringBuilder finalString = new StringBuilder();
+        try {
+            BufferedReader bufferedReader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(mLegacyFile)));
+            try {
+                String oneLine;
+                while ((oneLine = bufferedReader.readLine()) != null) {
+                    finalString.append(oneLine);
+                }
+            } finally {
+                bufferedReader.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return finalString.toString();
+    }
+
+    /**
+     * Loading the landmarks of an ADF: mapping the landmark file and indexing it.
+     */
+    @Benchmark
+    public LandmarkIndex loadLandmarks() throws IOException {
+        return new LandmarkIndex(LandmarkFile.open(mLandmarkFile));
+    }
+}
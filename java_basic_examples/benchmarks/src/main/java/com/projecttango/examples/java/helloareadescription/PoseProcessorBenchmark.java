@@ -0,0 +1,224 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.helloareadescription;
+
+import com.google.atap.tangoservice.Tango.OnTangoUpdateListener;
+import com.google.atap.tangoservice.TangoCoordinateFramePair;
+import com.google.atap.tangoservice.TangoEvent;
+import com.google.atap.tangoservice.TangoPointCloudData;
+import com.google.atap.tangoservice.TangoPoseData;
+import com.google.atap.tangoservice.TangoXyzIjData;
+import com.projecttango.examples.java.utils.AsyncLogger;
+import com.projecttango.examples.java.utils.FakeTangoBackend;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the pose callback of {@link HelloAreaDescriptionActivity}, handled by
+ * {@link PoseProcessor}, on the poses of a lap of the circle walked by {@link FakeTangoBackend}
+ * with landmarks saved all along it and navigation to the opposite side.
+ * <p/>
+ * The pose callback must not allocate in steady state. Besides the allocation rate reported by
+ * the GC profiler, setup fails unless handling a whole lap of poses, after a first lap to learn
+ * the edges of the route, leaves the allocation counter of the thread unchanged.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoseProcessorBenchmark {
+    // The circle walked by FakeTangoBackend: 5 m radius at 1 m/s, 1.2 m above the floor.
+    private static final double CIRCLE_RADIUS_M = 5.0;
+    static final double LAP_S = 2 * Math.PI * CIRCLE_RADIUS_M;
+    private static final float DEVICE_HEIGHT_M = 1.2f;
+    static final double POSE_RATE_HZ = 100.0;
+    private static final int LANDMARK_COUNT = 40;
+    private static final int CHECKED_LAPS = 5;
+
+    private File mLandmarkFile;
+    private AsyncLogger mLogger;
+    private PoseProcessor mProcessor;
+    private TangoPoseData[] mPoses;
+    private double[] mTimestamps;
+    // Poses are handed out again lap after lap, with timestamps moving forward.
+    private double mTimeOffset;
+    private int mNext;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        mLandmarkFile = File.createTempFile("poses", LandmarkFile.EXTENSION);
+        List<String> names = writeLandmarks(mLandmarkFile);
+
+        mLogger = new AsyncLogger(64, new AsyncLogger.TextSink() {
+            @Override
+            public void write(String tag, String message) {
+            }
+        });
+        mProcessor = new PoseProcessor(mLogger, mLogger.event("benchmark", "Relocalized"),
+                mLogger.event("benchmark", "Relocalization lost"), new float[] {2, 0, 0});
+        mProcessor.start(new LandmarkIndex(LandmarkFile.open(mLandmarkFile)), "");
+        mProcessor.setChosenLandmark(names.get(LANDMARK_COUNT / 2));
+
+        mPoses = recordLap();
+        mTimestamps = new double[mPoses.length];
+        for (int i = 0; i < mPoses.length; i++) {
+            mTimestamps[i] = mPoses[i].timestamp;
+        }
+        checkNoAllocation();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mLogger.close();
+        mLandmarkFile.delete();
+    }
+
+    @Benchmark
+    public boolean onPoseAvailable() {
+        TangoPoseData pose = mPoses[mNext];
+        pose.timestamp = mTimestamps[mNext] + mTimeOffset;
+        if (++mNext == mPoses.length) {
+            mNext = 0;
+            mTimeOffset += mPoses.length / 3 / POSE_RATE_HZ;
+        }
+        return mProcessor.onPoseAvailable(pose);
+    }
+
+    /**
+     * Writes a landmark file with landmarks all along the circle walked by
+     * {@link FakeTangoBackend}, and returns their names in the order they are walked by.
+     */
+    static List<String> writeLandmarks(File file) throws IOException {
+        List<String> names = new ArrayList<String>();
+        float[] translations = new float[3 * LANDMARK_COUNT];
+        float[] rotations = new float[4 * LANDMARK_COUNT];
+        double[] timestamps = new double[LANDMARK_COUNT];
+        for (int i = 0; i < LANDMARK_COUNT; i++) {
+            double angle = 2 * Math.PI * i / LANDMARK_COUNT;
+            names.add("landmark" + i);
+            translations[3 * i] = (float) (CIRCLE_RADIUS_M * Math.cos(angle));
+            translations[3 * i + 1] = (float) (CIRCLE_RADIUS_M * Math.sin(angle));
+            translations[3 * i + 2] = DEVICE_HEIGHT_M;
+            rotations[4 * i + 3] = 1;
+            timestamps[i] = LAP_S * i / LANDMARK_COUNT;
+        }
+        LandmarkFile.write(file, names, translations, rotations, timestamps);
+        return names;
+    }
+
+    /**
+     * Returns the three frame pairs the activity listens to.
+     */
+    static List<TangoCoordinateFramePair> framePairs() {
+        List<TangoCoordinateFramePair> framePairs = new ArrayList<TangoCoordinateFramePair>();
+        framePairs.add(new TangoCoordinateFramePair(
+                TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE,
+                TangoPoseData.COORDINATE_FRAME_DEVICE));
+        framePairs.add(new TangoCoordinateFramePair(
+                TangoPoseData.COORDINATE_FRAME_AREA_DESCRIPTION,
+                TangoPoseData.COORDINATE_FRAME_DEVICE));
+        framePairs.add(new TangoCoordinateFramePair(
+                TangoPoseData.COORDINATE_FRAME_AREA_DESCRIPTION,
+                TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE));
+        return framePairs;
+    }
+
+    /**
+     * Returns the poses of the three frame pairs of the activity over a lap.
+     */
+    private static TangoPoseData[] recordLap() throws InterruptedException {
+        final List<TangoPoseData> poses = new ArrayList<TangoPoseData>();
+        FakeTangoBackend backend = new FakeTangoBackend();
+        backend.setPoseRate(POSE_RATE_HZ);
+        backend.setPointCloudRate(0);
+        backend.setFrameRate(0);
+        backend.setRealTime(false);
+        backend.setDuration(LAP_S);
+        backend.connect(null);
+        backend.connectListener(framePairs(), new OnTangoUpdateListener() {
+            @Override
+            public void onPoseAvailable(TangoPoseData pose) {
+                poses.add(pose);
+            }
+
+            @Override
+            public void onXyzIjAvailable(TangoXyzIjData xyzIj) {
+            }
+
+            @Override
+            public void onFrameAvailable(int cameraId) {
+            }
+
+            @Override
+            public void onTangoEvent(TangoEvent event) {
+            }
+
+            @Override
+            public void onPointCloudAvailable(TangoPointCloudData pointCloud) {
+            }
+        });
+        backend.awaitCompletion();
+        backend.disconnect();
+        return poses.toArray(new TangoPoseData[poses.size()]);
+    }
+
+    /**
+     * Handles a lap of poses, then checks that handling another lap doesn't allocate. The JIT
+     * compiler can allocate a few hundred bytes on the thread when it swaps code in, so a few
+     * laps are tried: code that allocates for every pose, or even once a lap, fails them all.
+     */
+    private void checkNoAllocation() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < mPoses.length; i++) {
+            onPoseAvailable();
+        }
+        long minAllocated = Long.MAX_VALUE;
+        for (int lap = 0; lap < CHECKED_LAPS && minAllocated > 0; lap++) {
+            long start = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < mPoses.length; i++) {
+                onPoseAvailable();
+            }
+            minAllocated = Math.min(minAllocated,
+                    threads.getThreadAllocatedBytes(threadId) - start);
+        }
+        if (minAllocated > 0) {
+            throw new IllegalStateException(
+                    minAllocated + " bytes allocated by a lap of " + mPoses.length + " poses");
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.helloareadescription;
+
+import com.google.atap.tangoservice.Tango.OnTangoUpdateListener;
+import com.google.atap.tangoservice.TangoEvent;
+import com.google.atap.tangoservice.TangoPointCloudData;
+import com.google.atap.tangoservice.TangoPoseData;
+import com.google.atap.tangoservice.TangoXyzIjData;
+import com.projecttango.examples.java.utils.AsyncLogger;
+import com.projecttango.examples.java.utils.FakeTangoBackend;
+import com.projecttango.examples.java.utils.SessionRecorder;
+import com.projecttango.examples.java.utils.SessionReplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a session recorded by {@link SessionRecorder} through {@link PoseProcessor}, as fast
+ * as it goes: the relocalization tracking, landmark lookups and turn-by-turn navigation of
+ * {@link HelloAreaDescriptionActivity}, towards the landmark in the middle of the landmark file.
+ * Every operation is a whole session.
+ * <p/>
+ * A session recorded on a device is replayed with the landmark file of its ADF:
+ * <pre>
+ *   ./gradlew :benchmarks:jmh -PjmhArgs='PoseReplay -p session=/path/to/session-123.tangosession
+ *       -p landmarks=/path/to/uuid.landmarks'
+ * </pre>
+ * By default, a lap of {@link FakeTangoBackend} is recorded, with landmarks all along it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoseReplayBenchmark {
+    @Param({""})
+    public String session;
+    @Param({""})
+    public String landmarks;
+
+    private File mSessionFile;
+    private File mLandmarkFile;
+    private AsyncLogger mLogger;
+    private PoseProcessor mProcessor;
+    private LandmarkIndex mLandmarks;
+    private String mDestination;
+    private SessionReplayer mReplayer;
+    private final OnTangoUpdateListener mListener = new OnTangoUpdateListener() {
+        @Override
+        public void onPoseAvailable(TangoPoseData pose) {
+            mProcessor.onPoseAvailable(pose);
+        }
+
+        @Override
+        public void onXyzIjAvailable(TangoXyzIjData xyzIj) {
+        }
+
+        @Override
+        public void onFrameAvailable(int cameraId) {
+        }
+
+        @Override
+        public void onTangoEvent(TangoEvent event) {
+        }
+
+        @Override
+        public void onPointCloudAvailable(TangoPointCloudData pointCloud) {
+        }
+    };
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        if (session.isEmpty()) {
+            mSessionFile = File.createTempFile("poses", SessionRecorder.EXTENSION);
+            FakeTangoBackend backend = new FakeTangoBackend();
+            backend.setPoseRate(PoseProcessorBenchmark.POSE_RATE_HZ);
+            backend.setPointCloudRate(0);
+            backend.setFrameRate(0);
+            backend.setRealTime(false);
+            backend.setDuration(PoseProcessorBenchmark.LAP_S);
+            backend.record(mSessionFile, PoseProcessorBenchmark.framePairs());
+        }
+        if (landmarks.isEmpty()) {
+            mLandmarkFile = File.createTempFile("poses", LandmarkFile.EXTENSION);
+            PoseProcessorBenchmark.writeLandmarks(mLandmarkFile);
+        }
+        LandmarkFile landmarkFile = LandmarkFile.open(
+                mLandmarkFile != null ? mLandmarkFile : new File(landmarks));
+        if (landmarkFile.size() == 0) {
+            throw new IllegalArgumentException("No landmarks in " + landmarks);
+        }
+        mLandmarks = new LandmarkIndex(landmarkFile);
+        mDestination = landmarkFile.getName(landmarkFile.size() / 2);
+
+        mLogger = new AsyncLogger(64, new AsyncLogger.TextSink() {
+            @Override
+            public void write(String tag, String message) {
+            }
+        });
+        mProcessor = new PoseProcessor(mLogger, mLogger.event("benchmark", "Relocalized"),
+                mLogger.event("benchmark", "Relocalization lost"), new float[] {2, 0, 0});
+        mReplayer = new SessionReplayer(
+                mSessionFile != null ? mSessionFile : new File(session));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mLogger.close();
+        if (mSessionFile != null) {
+            mSessionFile.delete();
+        }
+        if (mLandmarkFile != null) {
+            mLandmarkFile.delete();
+        }
+    }
+
+    /**
+     * Returns the number of callbacks replayed.
+     */
+    @Benchmark
+    public int replay() throws IOException {
+        mProcessor.start(mLandmarks, "");
+        mProcessor.setChosenLandmark(mDestination);
+        return mReplayer.replay(mListener, false);
+    }
+}
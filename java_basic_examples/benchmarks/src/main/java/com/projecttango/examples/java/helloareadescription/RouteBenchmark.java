@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.helloareadescription;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of {@link RoutePlanner} and {@link RouteNavigator} on large waypoint graphs, to
+ * check that planning a route again fits in the budget of a pose callback.
+ * <p/>
+ * The landmarks are laid out on a square grid, 2 m apart, and saved walking it row by row; every
+ * landmark is then connected to its eight neighbours, as if learned while walking around. Sampled
+ * so that the tail latencies are reported next to the average.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteBenchmark {
+    private static final float SPACING_M = 2.0f;
+    // Consecutive device positions are at least this far apart, so that every update is further
+    // than RouteNavigator.DEVIATION_M from the route planned on the previous one.
+    private static final float MIN_JUMP_M = 10.0f;
+    private static final int POSITION_COUNT = 1024;
+
+    @Param({"1000", "10000"})
+    public int nodeCount;
+
+    private File mLandmarkFile;
+    private WaypointGraph mGraph;
+    private RouteNavigator mNavigator;
+    private RoutePlanner mPlanner;
+    private int[] mRouteBuffer;
+    private float[] mPositions;
+    private int[] mEndpoints;
+    private int mNext;
+
+    @Setup
+    public void setUp() throws IOException {
+        int side = (int) Math.ceil(Math.sqrt(nodeCount));
+        List<String> names = new ArrayList<String>();
+        float[] translations = new float[3 * nodeCount];
+        float[] rotations = new float[4 * nodeCount];
+        double[] timestamps = new double[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            int row = i / side;
+            // Walk every other row backwards, so that consecutive landmarks are neighbours.
+            int column = row % 2 == 0 ? i % side : side - 1 - i % side;
+            names.add("landmark" + i);
+            translations[3 * i] = column * SPACING_M;
+            translations[3 * i + 1] = row * SPACING_M;
+            translations[3 * i + 2] = 1.2f;
+            rotations[4 * i + 3] = 1;
+            timestamps[i] = i;
+        }
+        mLandmarkFile = File.createTempFile("route", LandmarkFile.EXTENSION);
+        LandmarkFile.write(mLandmarkFile, names, translations, rotations, timestamps);
+        mGraph = new WaypointGraph(new LandmarkIndex(LandmarkFile.open(mLandmarkFile)));
+
+        mNavigator = new RouteNavigator(mGraph);
+        for (int i = 0; i < nodeCount; i++) {
+            int row = i / side;
+            int column = row % 2 == 0 ? i % side : side - 1 - i % side;
+            for (int dy = 0; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    int neighbourRow = row + dy;
+                    int neighbourColumn = column + dx;
+                    if ((dy == 0 && dx <= 0) || neighbourColumn < 0 || neighbourColumn >= side) {
+                        continue;
+                    }
+                    int neighbour = neighbourRow * side + (neighbourRow % 2 == 0
+                            ? neighbourColumn : side - 1 - neighbourColumn);
+                    if (neighbour < nodeCount) {
+                        mNavigator.learnEdge(i, neighbour);
+                    }
+                }
+            }
+        }
+        // Navigate to a corner, so that routes cross the whole graph.
+        mNavigator.setDestination(0);
+        mPlanner = new RoutePlanner(mGraph);
+        mRouteBuffer = new int[nodeCount];
+
+        // Device positions scattered over the graph, jumping far enough between them that the
+        // navigator always has to plan again.
+        Random random = new Random(1);
+        // Only the full rows of the grid.
+        float width = (side - 1) * SPACING_M;
+        float height = (nodeCount / side - 1) * SPACING_M;
+        mPositions = new float[2 * POSITION_COUNT];
+        for (int i = 0; i < POSITION_COUNT; i++) {
+            float x;
+            float y;
+            do {
+                x = random.nextFloat() * width;
+                y = random.nextFloat() * height;
+            } while (i > 0 && Math.hypot(x - mPositions[2 * i - 2], y - mPositions[2 * i - 1])
+                    < MIN_JUMP_M);
+            mPositions[2 * i] = x;
+            mPositions[2 * i + 1] = y;
+        }
+        mEndpoints = new int[2 * POSITION_COUNT];
+        for (int i = 0; i < mEndpoints.length; i++) {
+            mEndpoints[i] = random.nextInt(nodeCount);
+        }
+        for (int i = 0; i < POSITION_COUNT; i++) {
+            if (replan() == RouteNavigator.INSTRUCTION_NO_ROUTE) {
+                throw new IllegalStateException("No route from position " + i);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mLandmarkFile.delete();
+    }
+
+    /**
+     * Guidance from a device position off the current route: finding the nearest node and
+     * reading the route to the destination off the shortest path tree.
+     */
+    @Benchmark
+    public int replan() {
+        int i = mNext;
+        mNext = (mNext + 1) % POSITION_COUNT;
+        return mNavigator.update(mPositions[2 * i], mPositions[2 * i + 1], 1.2f, 1, 0);
+    }
+
+    /**
+     * Computing the shortest path tree to a new destination, done once per destination.
+     */
+    @Benchmark
+    public float setGoal() {
+        int i = mNext;
+        mNext = (mNext + 1) % POSITION_COUNT;
+        mPlanner.setGoal(mEndpoints[i]);
+        return mPlanner.getCostToGoal(mEndpoints[i + POSITION_COUNT]);
+    }
+
+    /**
+     * A* search of the route between two random nodes.
+     */
+    @Benchmark
+    public int findRoute() {
+        int i = mNext;
+        mNext = (mNext + 1) % POSITION_COUNT;
+        return mPlanner.findRoute(mEndpoints[i], mEndpoints[i + POSITION_COUNT], mRouteBuffer);
+    }
+}
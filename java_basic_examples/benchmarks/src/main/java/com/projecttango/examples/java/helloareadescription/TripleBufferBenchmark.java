@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.helloareadescription;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stress test of the handover of {@link PoseSnapshot}s from the pose callback thread to the UI
+ * thread through a {@link TripleBuffer}, run as a JMH group of one writer and one reader thread
+ * hammering it concurrently.
+ * <p/>
+ * The writer fills every snapshot from a sequence number. The reader fails the benchmark if a
+ * snapshot mixes fields of different sequence numbers, i.e. is torn, or is older than the
+ * latest one the writer had published before it was acquired, i.e. is stale.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TripleBufferBenchmark {
+    private static final String[] NAMES = {"a", "b", "c", "d", "e", "f", "g", "h"};
+    // Sequence numbers wrap around before floats lose integer precision.
+    private static final int FLOAT_MASK = (1 << 20) - 1;
+
+    private final TripleBuffer<PoseSnapshot> mBuffer =
+            new TripleBuffer<PoseSnapshot>(new PoseSnapshot(), new PoseSnapshot(),
+                    new PoseSnapshot());
+    // Writer thread only.
+    private long mWritten;
+    // Latest sequence number published, written by the writer after publishing.
+    private volatile long mPublished;
+    // Reader thread only.
+    private long mLastRead;
+
+    @Benchmark
+    @Group("handover")
+    @GroupThreads(1)
+    public void write() {
+        long sequence = ++mWritten;
+        int value = (int) (sequence & FLOAT_MASK);
+        PoseSnapshot snapshot = mBuffer.getBack();
+        snapshot.timestamp = sequence;
+        snapshot.relocalized = (sequence & 1) != 0;
+        snapshot.x = value;
+        snapshot.y = value + 1;
+        snapshot.z = value + 2;
+        for (int i = 0; i < 3; i++) {
+            snapshot.translation[i] = sequence + i;
+        }
+        for (int i = 0; i < 4; i++) {
+            snapshot.rotation[i] = -sequence - i;
+        }
+        snapshot.landmarkX = -value;
+        snapshot.landmarkY = -value - 1;
+        snapshot.landmarkZ = -value - 2;
+        snapshot.landmarksStored = NAMES[(int) (sequence % NAMES.length)];
+        snapshot.nearbyLandmark = NAMES[(int) ((sequence + 1) % NAMES.length)];
+        snapshot.landmarkAhead = NAMES[(int) ((sequence + 2) % NAMES.length)];
+        snapshot.instruction = (int) (sequence % 6);
+        snapshot.nextWaypointName = NAMES[(int) ((sequence + 3) % NAMES.length)];
+        snapshot.distanceToNextWaypoint = value + 3;
+        snapshot.reachedDestination = (sequence & 2) != 0;
+        mBuffer.publish();
+        mPublished = sequence;
+    }
+
+    @Benchmark
+    @Group("handover")
+    @GroupThreads(1)
+    public long read() {
+        long published = mPublished;
+        PoseSnapshot snapshot = mBuffer.acquire();
+        long sequence = (long) snapshot.timestamp;
+        if (sequence < published || sequence < mLastRead) {
+            throw new IllegalStateException("Stale snapshot " + sequence + " after "
+                    + Math.max(published, mLastRead));
+        }
+        mLastRead = sequence;
+        if (sequence > 0 && !isConsistent(snapshot, sequence)) {
+            throw new IllegalStateException("Torn snapshot " + sequence);
+        }
+        return sequence;
+    }
+
+    private static boolean isConsistent(PoseSnapshot snapshot, long sequence) {
+        int value = (int) (sequence & FLOAT_MASK);
+        boolean consistent = snapshot.relocalized == ((sequence & 1) != 0)
+                && snapshot.x == value && snapshot.y == value + 1 && snapshot.z == value + 2
+                && snapshot.landmarkX == -value && snapshot.landmarkY == -value - 1
+                && snapshot.landmarkZ == -value - 2
+                && snapshot.landmarksStored == NAMES[(int) (sequence % NAMES.length)]
+                && snapshot.nearbyLandmark == NAMES[(int) ((sequence + 1) % NAMES.length)]
+                && snapshot.landmarkAhead == NAMES[(int) ((sequence + 2) % NAMES.length)]
+                && snapshot.instruction == (int) (sequence % 6)
+                && snapshot.nextWaypointName == NAMES[(int) ((sequence + 3) % NAMES.length)]
+                && snapshot.distanceToNextWaypoint == value + 3
+                && snapshot.reachedDestination == ((sequence & 2) != 0);
+        for (int i = 0; i < 3 && consistent; i++) {
+            consistent = snapshot.translation[i] == sequence + i;
+        }
+        for (int i = 0; i < 4 && consistent; i++) {
+            consistent = snapshot.rotation[i] == -sequence - i;
+        }
+        return consistent;
+    }
+}
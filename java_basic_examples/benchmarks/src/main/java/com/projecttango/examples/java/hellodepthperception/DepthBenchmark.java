@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.hellodepthperception;
+
+import com.google.atap.tangoservice.Tango.OnTangoUpdateListener;
+import com.google.atap.tangoservice.TangoCoordinateFramePair;
+import com.google.atap.tangoservice.TangoEvent;
+import com.google.atap.tangoservice.TangoPointCloudData;
+import com.google.atap.tangoservice.TangoPoseData;
+import com.google.atap.tangoservice.TangoXyzIjData;
+import com.projecttango.examples.java.utils.FakeTangoBackend;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the point cloud callback of {@link HelloDepthPerceptionActivity}, on a synthetic
+ * point cloud of a floor and a wall from {@link FakeTangoBackend}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DepthBenchmark {
+    // Depth sensors of Tango devices report up to about 20k points per cloud.
+    @Param({"5000", "20000"})
+    public int pointCount;
+
+    private FloatBuffer mPoints;
+    private int mNumPoints;
+    private final DepthStatistics mDepthStatistics = new DepthStatistics();
+    private final VoxelGridFilter mVoxelGridFilter = new VoxelGridFilter(0.05f);
+    private final ObstacleDetector mObstacleDetector = new ObstacleDetector(2);
+    private final LocalMap mLocalMap = new LocalMap();
+    private final float[] mIdentity = new float[Transforms.SIZE];
+    private int mVoxelCount;
+    private double mTimestamp;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        final TangoPointCloudData[] pointCloud = new TangoPointCloudData[1];
+        FakeTangoBackend backend = new FakeTangoBackend();
+        backend.setPoseRate(0);
+        backend.setFrameRate(0);
+        backend.setPointCount(pointCount);
+        backend.setRealTime(false);
+        // The first point cloud comes after half a period.
+        backend.setDuration(0.1);
+        backend.connect(null);
+        backend.connectListener(Collections.<TangoCoordinateFramePair>emptyList(),
+                new OnTangoUpdateListener() {
+                    @Override
+                    public void onPoseAvailable(TangoPoseData pose) {
+                    }
+
+                    @Override
+                    public void onXyzIjAvailable(TangoXyzIjData xyzIj) {
+                    }
+
+                    @Override
+                    public void onFrameAvailable(int cameraId) {
+                    }
+
+                    @Override
+                    public void onTangoEvent(TangoEvent event) {
+                    }
+
+                    @Override
+                    public void onPointCloudAvailable(TangoPointCloudData data) {
+                        pointCloud[0] = data;
+                    }
+                });
+        backend.awaitCompletion();
+        backend.disconnect();
+        // The service hands out point clouds in direct buffers.
+        mNumPoints = pointCloud[0].numPoints;
+        mPoints = ByteBuffer.allocateDirect(4 * 4 * mNumPoints).order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        mPoints.put(pointCloud[0].points);
+        mPoints.rewind();
+
+        Transforms.fromPose(new double[] {0, 0, 0}, new double[] {0, 0, 0, 1}, mIdentity);
+        mVoxelCount = mVoxelGridFilter.filter(mPoints, mNumPoints);
+    }
+
+    /**
+     * The average depth as first computed by the example: one absolute get per point on the
+     * direct buffer of the point cloud. Kept as the baseline of {@link #depthStatistics}.
+     */
+    @Benchmark
+    public float legacyAveragedDepth() {
+        FloatBuffer pointCloudBuffer = mPoints;
+        int numPoints = mNumPoints;
+        float totalZ = 0;
+        float averageZ = 0;
+        if (numPoints != 0) {
+            int numFloats = 4 * numPoints;
+            for (int i = 2; i < numFloats; i = i + 4) {
+                totalZ = totalZ + pointCloudBuffer.get(i);
+            }
+            averageZ = totalZ / numPoints;
+        }
+        return averageZ;
+    }
+
+    @Benchmark
+    public float depthStatistics() {
+        mDepthStatistics.compute(mPoints, mNumPoints);
+        return mDepthStatistics.getMean();
+    }
+
+    @Benchmark
+    public int voxelGridFilter() {
+        return mVoxelGridFilter.filter(mPoints, mNumPoints);
+    }
+
+    /**
+     * Obstacle detection on the downsampled cloud, as done from the point cloud callback.
+     */
+    @Benchmark
+    public ObstacleReport obstacleDetection() {
+        return mObstacleDetector.detect(mVoxelGridFilter.getPoints(), mVoxelCount, 0);
+    }
+
+    @Benchmark
+    public int localMapIntegration() {
+        mTimestamp += 0.2;
+        mLocalMap.integrate(mVoxelGridFilter.getPoints(), mVoxelCount, mIdentity, mTimestamp,
+                0, 0, 0);
+        return mLocalMap.size();
+    }
+}
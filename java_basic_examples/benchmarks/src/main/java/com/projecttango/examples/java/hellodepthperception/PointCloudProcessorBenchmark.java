@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.hellodepthperception;
+
+import com.google.atap.tangoservice.Tango.OnTangoUpdateListener;
+import com.google.atap.tangoservice.TangoCoordinateFramePair;
+import com.google.atap.tangoservice.TangoEvent;
+import com.google.atap.tangoservice.TangoPointCloudData;
+import com.google.atap.tangoservice.TangoPoseData;
+import com.google.atap.tangoservice.TangoXyzIjData;
+import com.projecttango.examples.java.utils.AsyncLogger;
+import com.projecttango.examples.java.utils.FakeTangoBackend;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the callbacks of {@link HelloDepthPerceptionActivity}, handled by
+ * {@link PointCloudProcessor}, on the poses and point clouds of a session of
+ * {@link FakeTangoBackend}, delivered in the order the backend made them. Every operation is a
+ * point cloud, along with the poses that came before it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PointCloudProcessorBenchmark {
+    private static final double SESSION_S = 10.0;
+
+    // Depth sensors of Tango devices report up to about 20k points per cloud.
+    @Param({"5000", "20000"})
+    public int pointCount;
+
+    private AsyncLogger mLogger;
+    private PointCloudProcessor mProcessor;
+    // The callbacks of the session, poses or point clouds, handed out again session after
+    // session with timestamps moving forward.
+    private Object[] mCallbacks;
+    private double[] mTimestamps;
+    private double mTimeOffset;
+    private int mNext;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        mLogger = new AsyncLogger(256, new AsyncLogger.TextSink() {
+            @Override
+            public void write(String tag, String message) {
+            }
+        });
+        mProcessor = new PointCloudProcessor(mLogger, "benchmark");
+        // The depth camera looks ahead of the device: its Y and Z axes are flipped.
+        TangoPoseData depthPose = new TangoPoseData();
+        depthPose.statusCode = TangoPoseData.POSE_VALID;
+        depthPose.rotation = new double[] {1, 0, 0, 0};
+        mProcessor.start(depthPose);
+
+        mCallbacks = recordSession(pointCount);
+        mTimestamps = new double[mCallbacks.length];
+        for (int i = 0; i < mCallbacks.length; i++) {
+            mTimestamps[i] = mCallbacks[i] instanceof TangoPoseData
+                    ? ((TangoPoseData) mCallbacks[i]).timestamp
+                    : ((TangoPointCloudData) mCallbacks[i]).timestamp;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mLogger.close();
+    }
+
+    @Benchmark
+    public int onPointCloudAvailable() {
+        while (true) {
+            Object callback = mCallbacks[mNext];
+            double timestamp = mTimestamps[mNext] + mTimeOffset;
+            if (++mNext == mCallbacks.length) {
+                mNext = 0;
+                mTimeOffset += SESSION_S;
+            }
+            if (callback instanceof TangoPoseData) {
+                TangoPoseData pose = (TangoPoseData) callback;
+                pose.timestamp = timestamp;
+                mProcessor.onPoseAvailable(pose);
+            } else {
+                TangoPointCloudData pointCloud = (TangoPointCloudData) callback;
+                pointCloud.timestamp = timestamp;
+                mProcessor.onPointCloudAvailable(pointCloud);
+                return mProcessor.getLocalMapSize();
+            }
+        }
+    }
+
+    /**
+     * Returns the start of service to device poses and the point clouds of a session, in the
+     * order they were delivered.
+     */
+    private static Object[] recordSession(int pointCount) throws InterruptedException {
+        List<TangoCoordinateFramePair> framePairs = new ArrayList<TangoCoordinateFramePair>();
+        framePairs.add(new TangoCoordinateFramePair(
+                TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE,
+                TangoPoseData.COORDINATE_FRAME_DEVICE));
+
+        final List<Object> callbacks = new ArrayList<Object>();
+        FakeTangoBackend backend = new FakeTangoBackend();
+        backend.setFrameRate(0);
+        backend.setPointCount(pointCount);
+        backend.setRealTime(false);
+        backend.setDuration(SESSION_S);
+        backend.connect(null);
+        backend.connectListener(framePairs, new OnTangoUpdateListener() {
+            @Override
+            public void onPoseAvailable(TangoPoseData pose) {
+                callbacks.add(pose);
+            }
+
+            @Override
+            public void onXyzIjAvailable(TangoXyzIjData xyzIj) {
+            }
+
+            @Override
+            public void onFrameAvailable(int cameraId) {
+            }
+
+            @Override
+            public void onTangoEvent(TangoEvent event) {
+            }
+
+            @Override
+            public void onPointCloudAvailable(TangoPointCloudData pointCloud) {
+                callbacks.add(pointCloud);
+            }
+        });
+        backend.awaitCompletion();
+        backend.disconnect();
+        return callbacks.toArray();
+    }
+}
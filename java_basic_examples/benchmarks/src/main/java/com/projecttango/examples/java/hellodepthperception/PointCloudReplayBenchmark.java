@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.hellodepthperception;
+
+import com.google.atap.tangoservice.Tango.OnTangoUpdateListener;
+import com.google.atap.tangoservice.TangoCoordinateFramePair;
+import com.google.atap.tangoservice.TangoEvent;
+import com.google.atap.tangoservice.TangoPointCloudData;
+import com.google.atap.tangoservice.TangoPoseData;
+import com.google.atap.tangoservice.TangoXyzIjData;
+import com.projecttango.examples.java.utils.AsyncLogger;
+import com.projecttango.examples.java.utils.FakeTangoBackend;
+import com.projecttango.examples.java.utils.SessionRecorder;
+import com.projecttango.examples.java.utils.SessionReplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a session recorded by {@link SessionRecorder} through {@link PointCloudProcessor}, as
+ * fast as it goes: the obstacle detection and local map of {@link HelloDepthPerceptionActivity}.
+ * Every operation is a whole session.
+ * <p/>
+ * A session recorded on a device is replayed with
+ * <pre>
+ *   ./gradlew :benchmarks:jmh -PjmhArgs='PointCloudReplay
+ *       -p session=/path/to/session-123.tangosession'
+ * </pre>
+ * Sessions don't record the depth camera extrinsics: the depth camera is taken to look straight
+ * ahead of the device. By default, a few seconds of {@link FakeTangoBackend} are recorded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PointCloudReplayBenchmark {
+    private static final double SESSION_S = 10.0;
+
+    @Param({""})
+    public String session;
+
+    private File mSessionFile;
+    private AsyncLogger mLogger;
+    private PointCloudProcessor mProcessor;
+    private final TangoPoseData mDepthPose = new TangoPoseData();
+    private SessionReplayer mReplayer;
+    private final OnTangoUpdateListener mListener = new OnTangoUpdateListener() {
+        @Override
+        public void onPoseAvailable(TangoPoseData pose) {
+            mProcessor.onPoseAvailable(pose);
+        }
+
+        @Override
+        public void onXyzIjAvailable(TangoXyzIjData xyzIj) {
+        }
+
+        @Override
+        public void onFrameAvailable(int cameraId) {
+        }
+
+        @Override
+        public void onTangoEvent(TangoEvent event) {
+        }
+
+        @Override
+        public void onPointCloudAvailable(TangoPointCloudData pointCloud) {
+            mProcessor.onPointCloudAvailable(pointCloud);
+        }
+    };
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        if (session.isEmpty()) {
+            mSessionFile = File.createTempFile("depth", SessionRecorder.EXTENSION);
+            FakeTangoBackend backend = new FakeTangoBackend();
+            backend.setFrameRate(0);
+            backend.setRealTime(false);
+            backend.setDuration(SESSION_S);
+            backend.record(mSessionFile, Collections.singletonList(new TangoCoordinateFramePair(
+                    TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE,
+                    TangoPoseData.COORDINATE_FRAME_DEVICE)));
+        }
+        mLogger = new AsyncLogger(256, new AsyncLogger.TextSink() {
+            @Override
+            public void write(String tag, String message) {
+            }
+        });
+        mProcessor = new PointCloudProcessor(mLogger, "benchmark");
+        // The Y and Z axes of the depth camera are flipped from those of the device.
+        mDepthPose.statusCode = TangoPoseData.POSE_VALID;
+        mDepthPose.rotation = new double[] {1, 0, 0, 0};
+        mReplayer = new SessionReplayer(
+                mSessionFile != null ? mSessionFile : new File(session));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mLogger.close();
+        if (mSessionFile != null) {
+            mSessionFile.delete();
+        }
+    }
+
+    /**
+     * Returns the number of callbacks replayed.
+     */
+    @Benchmark
+    public int replay() throws IOException {
+        mProcessor.start(mDepthPose);
+        return mReplayer.replay(mListener, false);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.hellomotiontracking;
+
+import com.google.atap.tangoservice.TangoPoseData;
+import com.projecttango.examples.java.utils.AsyncLogger;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the logging done for every pose by {@link HelloMotionTrackingActivity}, on the
+ * pose callback thread.
+ * <p/>
+ * Logged back to back, the poses come far faster than the background thread of the logger
+ * formats them, and past its capacity they are dropped, which is cheaper than handing them over.
+ * So {@link #logPose} reports, next to the poses logged per microsecond, how many of them were
+ * handed over and how many were dropped, and {@link #logPoseBurst} measures the cost of logging
+ * poses that are all handed over, in bursts that fit in the capacity of the logger.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoseLogBenchmark {
+    private static final String TAG = "benchmark";
+    private static final int LOG_CAPACITY = 256;
+    // Fits in the capacity of the logger.
+    private static final int BURST_SIZE = 200;
+    // Longer than the background thread of the logger sleeps while there is nothing to log.
+    private static final long DRAIN_WAIT_MS = 100;
+
+    /**
+     * The logger of the poses, which only logs one pose out of every {@code sampling}.
+     */
+    @State(Scope.Thread)
+    public static class PoseLog {
+        // 10 is the sampling of HelloMotionTrackingActivity.
+        @Param({"1", "10"})
+        public int sampling;
+
+        AsyncLogger mLogger;
+        int mPoseEvent;
+
+        @Setup
+        public void setUp() {
+            mLogger = new AsyncLogger(LOG_CAPACITY, new AsyncLogger.TextSink() {
+                @Override
+                public void write(String tag, String message) {
+                }
+            });
+            mPoseEvent = mLogger.event(TAG, "Position: {}, {}, {}. Orientation: {}, {}, {}, {}");
+            mLogger.setSampling(TAG, sampling);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            mLogger.close();
+        }
+    }
+
+    /**
+     * The logger of the poses, which the background thread has caught up with at the start of
+     * every iteration. An iteration fails if any pose is dropped.
+     */
+    @State(Scope.Thread)
+    public static class DrainedPoseLog extends PoseLog {
+        private long mDroppedCount;
+
+        @Setup(Level.Iteration)
+        public void waitForDrain() throws InterruptedException {
+            Thread.sleep(DRAIN_WAIT_MS);
+            mDroppedCount = mLogger.getDroppedCount();
+        }
+
+        @TearDown(Level.Iteration)
+        public void checkDrops() {
+            long droppedCount = mLogger.getDroppedCount() - mDroppedCount;
+            if (droppedCount != 0) {
+                throw new IllegalStateException(droppedCount + " poses dropped");
+            }
+        }
+    }
+
+    /**
+     * The poses of an iteration handed over to the background thread of the logger and the
+     * poses dropped because it couldn't keep up, the others being left out by sampling.
+     * <p/>
+     * The benchmark logs through these counts rather than taking the {@link PoseLog} itself:
+     * this version of JMH hands a distinct instance of a state to every method that takes it.
+     */
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class LogCounts {
+        public long handedOver;
+        public long dropped;
+
+        private AsyncLogger mLogger;
+        private int mPoseEvent;
+        private long mPoseCount;
+        private long mSuppressedCount;
+        private long mDroppedCount;
+
+        @Setup(Level.Iteration)
+        public void setUp(PoseLog poseLog) {
+            mLogger = poseLog.mLogger;
+            mPoseEvent = poseLog.mPoseEvent;
+            handedOver = 0;
+            dropped = 0;
+            mPoseCount = 0;
+            mSuppressedCount = mLogger.getSuppressedCount();
+            mDroppedCount = mLogger.getDroppedCount();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            dropped = mLogger.getDroppedCount() - mDroppedCount;
+            handedOver = mPoseCount - dropped - (mLogger.getSuppressedCount() - mSuppressedCount);
+        }
+
+        void log(double[] values) {
+            mLogger.log(mPoseEvent, values, values.length);
+            mPoseCount++;
+        }
+    }
+
+    private final TangoPoseData mPose = new TangoPoseData();
+    private final double[] mPoseValues = new double[7];
+
+    @Setup
+    public void setUp() {
+        mPose.translation = new double[] {1.2345, -0.5678, 1.1};
+        mPose.rotation = new double[] {0.1, 0.2, 0.3, 0.9273618495495703};
+    }
+
+    /**
+     * The log line as first built by the example, through float array copies of the pose and
+     * string concatenations.
+     */
+    @Benchmark
+    public String legacyLogPose() {
+        StringBuilder stringBuilder = new StringBuilder();
+
+        float translation[] = mPose.getTranslationAsFloats();
+        stringBuilder.append("Position: " +
+                translation[0] + ", " + translation[1] + ", " + translation[2]);
+
+        float orientation[] = mPose.getRotationAsFloats();
+        stringBuilder.append(". Orientation: " +
+                orientation[0] + ", " + orientation[1] + ", " +
+                orientation[2] + ", " + orientation[3]);
+
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Handing the pose over to the logger, the formatting being left to its background thread.
+     */
+    @Benchmark
+    public void logPose(LogCounts counts) {
+        System.arraycopy(mPose.translation, 0, mPoseValues, 0, 3);
+        System.arraycopy(mPose.rotation, 0, mPoseValues, 3, 4);
+        counts.log(mPoseValues);
+    }
+
+    /**
+     * Handing a burst of poses over to a logger that keeps up with them, so that none are
+     * dropped. The score is the time of a whole burst of {@link #BURST_SIZE} poses.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 100, batchSize = BURST_SIZE)
+    @Measurement(iterations = 100, batchSize = BURST_SIZE)
+    public void logPoseBurst(DrainedPoseLog poseLog) {
+        System.arraycopy(mPose.translation, 0, mPoseValues, 0, 3);
+        System.arraycopy(mPose.rotation, 0, mPoseValues, 3, 4);
+        poseLog.mLogger.log(poseLog.mPoseEvent, mPoseValues, mPoseValues.length);
+    }
+}
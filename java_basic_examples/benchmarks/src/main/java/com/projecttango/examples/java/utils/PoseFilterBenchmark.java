@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of {@link PoseFilter} on a 1 kHz stream of poses, which leaves a millisecond per
+ * pose: a device walking a straight line while turning, with centimeter noise.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoseFilterBenchmark {
+    private static final int RATE_HZ = 1000;
+
+    @Param({"none", "kalman", "oneEuro"})
+    public String mode;
+
+    // One second of poses, replayed in a loop with increasing timestamps.
+    private final double[] mTranslations = new double[RATE_HZ * 3];
+    private final double[] mRotations = new double[RATE_HZ * 4];
+    private final double[] mTranslation = new double[3];
+    private final double[] mRotation = new double[4];
+    private PoseFilter mFilter;
+    private long mPoseCount;
+
+    @Setup
+    public void setUp() {
+        if (mode.equals("kalman")) {
+            mFilter = new PoseFilter(PoseFilter.MODE_KALMAN);
+        } else if (mode.equals("oneEuro")) {
+            mFilter = new PoseFilter(PoseFilter.MODE_ONE_EURO);
+        } else {
+            mFilter = new PoseFilter(PoseFilter.MODE_NONE);
+        }
+        // Poses are replayed for seconds, don't let the loop back look like an outlier.
+        mFilter.setOutlierGate(3.0, 0.1, 0);
+        Random random = new Random(0);
+        for (int i = 0; i < RATE_HZ; i++) {
+            double time = (double) i / RATE_HZ;
+            mTranslations[i * 3] = time + random.nextGaussian() * 0.01;
+            mTranslations[i * 3 + 1] = random.nextGaussian() * 0.01;
+            mTranslations[i * 3 + 2] = 1.2 + random.nextGaussian() * 0.01;
+            double yaw = 0.5 * time;
+            mRotations[i * 4 + 2] = Math.sin(yaw / 2) + random.nextGaussian() * 0.005;
+            mRotations[i * 4 + 3] = Math.cos(yaw / 2) + random.nextGaussian() * 0.005;
+        }
+    }
+
+    /**
+     * Filtering one pose, including copying it out of the stream.
+     */
+    @Benchmark
+    public double filter() {
+        int index = (int) (mPoseCount % RATE_HZ);
+        System.arraycopy(mTranslations, index * 3, mTranslation, 0, 3);
+        System.arraycopy(mRotations, index * 4, mRotation, 0, 4);
+        mFilter.filter((double) mPoseCount / RATE_HZ, mTranslation, mRotation);
+        mPoseCount++;
+        return mTranslation[0];
+    }
+}
@@ -17,15 +17,23 @@
 package com.projecttango.examples.java.helloareadescription;
 
 /**
- * Contains an ADF Name and its UUID.
+ * Contains an ADF Name and its UUID, and its creation date when known.
  */
 class AdfData {
     public final String uuid;
+    // Null while the metadata of the ADF hasn't been read.
     public final String name;
+    // Milliseconds since the epoch, 0 if unknown.
+    public final long date;
 
     public AdfData(String uuid, String name) {
+        this(uuid, name, 0);
+    }
+
+    public AdfData(String uuid, String name, long date) {
         this.uuid = uuid;
         this.name = name;
+        this.date = date;
     }
 }
 
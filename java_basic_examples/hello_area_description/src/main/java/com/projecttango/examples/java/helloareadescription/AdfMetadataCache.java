@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.helloareadescription;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent cache of the names and dates of the ADFs in Tango space, so that the ADF list can be
+ * shown as soon as it is opened, before the metadata, slow to load from the Tango service, is
+ * read again.
+ * <p/>
+ * The cache is stored as {@code adf_metadata.cache}, laid out as follows, big endian:
+ * <pre>
+ *   header   magic (int), version (short), entry count (int)
+ *   entries  UUID, name (UTF-8 byte length (short), UTF-8 bytes), date in ms since epoch (long)
+ * </pre>
+ * It is written to a temporary file renamed over the cache, so it is never seen half written.
+ * Thread safe; {@link #load()} and {@link #save()} perform file I/O, so don't call them from the
+ * UI thread.
+ */
+final class AdfMetadataCache {
+    static final String FILE_NAME = "adf_metadata.cache";
+
+    private static final String TAG = AdfMetadataCache.class.getSimpleName();
+    private static final int MAGIC = 0x54414443; // "TADC"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 10;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+
+    // Guarded by this.
+    private final Map<String, AdfData> mEntries = new LinkedHashMap<String, AdfData>();
+    private boolean mLoaded;
+    private boolean mDirty;
+
+    /**
+     * @param directory the folder of the cache file, usually {@code Context.getFilesDir()}.
+     */
+    AdfMetadataCache(File directory) {
+        mFile = new File(directory, FILE_NAME);
+    }
+
+    /**
+     * Reads the cache file, unless already read. A missing or unreadable cache is an empty
+     * one.
+     */
+    synchronized void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mFile.exists()) {
+            return;
+        }
+        try {
+            DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(mFile)));
+            try {
+                if (input.readInt() != MAGIC || input.readShort() != VERSION) {
+                    throw new IOException(mFile + " is not an ADF metadata cache");
+                }
+                int count = input.readInt();
+                for (int i = 0; i < count; i++) {
+                    String uuid = readString(input);
+                    String name = readString(input);
+                    long date = input.readLong();
+                    mEntries.put(uuid, new AdfData(uuid, name, date));
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read the ADF metadata cache", e);
+            mEntries.clear();
+        }
+    }
+
+    /**
+     * Returns the cached metadata of an ADF, or null.
+     */
+    synchronized AdfData get(String uuid) {
+        return mEntries.get(uuid);
+    }
+
+    /**
+     * Returns the metadata of all the cached ADFs.
+     */
+    synchronized List<AdfData> getAll() {
+        return new ArrayList<AdfData>(mEntries.values());
+    }
+
+    /**
+     * Caches the metadata of an ADF, whose name must be known.
+     */
+    synchronized void put(AdfData adfData) {
+        AdfData cached = mEntries.get(adfData.uuid);
+        if (cached == null || !cached.name.equals(adfData.name) || cached.date != adfData.date) {
+            mEntries.put(adfData.uuid, adfData);
+            mDirty = true;
+        }
+    }
+
+    /**
+     * Drops the ADFs not in the given collection, such as deleted ones.
+     */
+    synchronized void retain(Collection<String> uuids) {
+        Set<String> retained = new HashSet<String>(uuids);
+        Iterator<String> iterator = mEntries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (!retained.contains(iterator.next())) {
+                iterator.remove();
+                mDirty = true;
+            }
+        }
+    }
+
+    /**
+     * Writes the cache file, if anything changed since it was read or last written.
+     */
+    synchronized void save() {
+        if (!mDirty) {
+            return;
+        }
+        try {
+            write();
+            mDirty = false;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write the ADF metadata cache", e);
+        }
+    }
+
+    private void write() throws IOException {
+        List<AdfData> written = new ArrayList<AdfData>(mEntries.size());
+        List<byte[]> strings = new ArrayList<byte[]>(2 * mEntries.size());
+        int size = HEADER_SIZE;
+        for (AdfData adfData : mEntries.values()) {
+            byte[] uuid = adfData.uuid.getBytes(UTF_8);
+            byte[] name = adfData.name.getBytes(UTF_8);
+            if (uuid.length > 0xffff || name.length > 0xffff) {
+                // Not worth caching, it is loaded from the Tango service instead.
+                continue;
+            }
+            written.add(adfData);
+            strings.add(uuid);
+            strings.add(name);
+            size += 2 + uuid.length + 2 + name.length + 8;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putInt(written.size());
+        for (int i = 0; i < written.size(); i++) {
+            byte[] uuid = strings.get(2 * i);
+            byte[] name = strings.get(2 * i + 1);
+            buffer.putShort((short) uuid.length);
+            buffer.put(uuid);
+            buffer.putShort((short) name.length);
+            buffer.put(name);
+            buffer.putLong(written.get(i).date);
+        }
+        buffer.flip();
+
+        // Write to a temporary file and rename it over the cache: readers must never see a
+        // partially written file.
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(tmpFile, "rw");
+        try {
+            randomAccessFile.setLength(0);
+            FileChannel channel = randomAccessFile.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        } finally {
+            randomAccessFile.close();
+        }
+        if (!tmpFile.renameTo(mFile)) {
+            tmpFile.delete();
+            throw new IOException("Unable to rename " + tmpFile + " to " + mFile);
+        }
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readUnsignedShort()];
+        input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.helloareadescription;
+
+import com.google.atap.tangoservice.Tango;
+import com.google.atap.tangoservice.TangoAreaDescriptionMetaData;
+import com.google.atap.tangoservice.TangoException;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the list of ADFs in Tango space and their metadata in the background, so that the UI
+ * thread never waits for the Tango service.
+ * <p/>
+ * A refresh first delivers the whole list, with the names and dates found in the
+ * {@link AdfMetadataCache}, then the metadata of every ADF as it is loaded by a small pool of
+ * workers: ADFs missing from the cache first, then the cached ones, to pick up renames. Results
+ * are handed over to the UI thread in batches. Starting a new refresh, or cancelling, makes the
+ * results of the previous one stale: they are no longer delivered, and its workers stop after
+ * the ADF they are loading.
+ */
+final class AdfMetadataLoader {
+    /**
+     * Receives the results of the loader, on the UI thread.
+     */
+    interface Listener {
+        /**
+         * The list of ADFs, with a null name for those whose metadata is still loading.
+         */
+        void onAdfListLoaded(List<AdfData> adfDataList);
+
+        /**
+         * The metadata of the ADF at the given position of the list, or null if it couldn't be
+         * read.
+         */
+        void onAdfLoaded(int position, AdfData adfData);
+
+        void onAdfListFailed();
+    }
+
+    private static final String TAG = AdfMetadataLoader.class.getSimpleName();
+    private static final int THREAD_COUNT = 3;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final AdfMetadataCache mCache;
+    private final Listener mListener;
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(THREAD_COUNT);
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Incremented by every refresh and cancellation, results of older generations are dropped.
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    // Loaded metadata waiting to be delivered, and whether a delivery is already posted.
+    private final ConcurrentLinkedQueue<Result> mResults = new ConcurrentLinkedQueue<Result>();
+    private final AtomicBoolean mDeliveryPosted = new AtomicBoolean();
+    private final Runnable mDeliverRunnable = new Runnable() {
+        @Override
+        public void run() {
+            deliverResults();
+        }
+    };
+
+    AdfMetadataLoader(AdfMetadataCache cache, Listener listener) {
+        mCache = cache;
+        mListener = listener;
+    }
+
+    /**
+     * Delivers the cached list of ADFs, unless a refresh is started in the meantime.
+     */
+    void loadCached() {
+        final int generation = mGeneration.get();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCache.load();
+                postList(generation, mCache.getAll());
+            }
+        });
+    }
+
+    /**
+     * Lists the ADFs in Tango space and loads their metadata, cancelling the previous refresh.
+     */
+    void refresh(final Tango tango) {
+        final int generation = mGeneration.incrementAndGet();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCache.load();
+                final List<String> uuids;
+                try {
+                    uuids = tango.listAreaDescriptions();
+                } catch (TangoException e) {
+                    Log.e(TAG, "Unable to list the ADFs", e);
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (mGeneration.get() == generation) {
+                                mListener.onAdfListFailed();
+                            }
+                        }
+                    });
+                    return;
+                }
+
+                List<AdfData> adfDataList = new ArrayList<AdfData>(uuids.size());
+                int[] order = new int[uuids.size()];
+                int uncachedCount = 0;
+                for (int i = 0; i < uuids.size(); i++) {
+                    AdfData cached = mCache.get(uuids.get(i));
+                    adfDataList.add(cached != null ? cached : new AdfData(uuids.get(i), null));
+                    if (cached == null) {
+                        order[uncachedCount++] = i;
+                    }
+                }
+                for (int i = 0, cachedCount = uncachedCount; i < uuids.size(); i++) {
+                    if (adfDataList.get(i).name != null) {
+                        order[cachedCount++] = i;
+                    }
+                }
+                postList(generation, adfDataList);
+
+                Refresh refresh = new Refresh(tango, generation, uuids, order);
+                for (int i = 1; i < THREAD_COUNT; i++) {
+                    refresh.fork();
+                }
+                refresh.run();
+            }
+        });
+    }
+
+    /**
+     * Stops delivering the results of the current refresh, for instance when the Tango service
+     * is disconnected.
+     */
+    void cancel() {
+        mGeneration.incrementAndGet();
+    }
+
+    /**
+     * Cancels the current refresh and stops the workers.
+     */
+    void shutdown() {
+        cancel();
+        mExecutor.shutdown();
+    }
+
+    private void postList(final int generation, final List<AdfData> adfDataList) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mGeneration.get() == generation) {
+                    mListener.onAdfListLoaded(adfDataList);
+                }
+            }
+        });
+    }
+
+    private void postResult(Result result) {
+        mResults.add(result);
+        if (mDeliveryPosted.compareAndSet(false, true)) {
+            mHandler.post(mDeliverRunnable);
+        }
+    }
+
+    private void deliverResults() {
+        mDeliveryPosted.set(false);
+        int generation = mGeneration.get();
+        Result result;
+        while ((result = mResults.poll()) != null) {
+            if (result.generation == generation) {
+                mListener.onAdfLoaded(result.position, result.adfData);
+            }
+        }
+    }
+
+    /**
+     * Reads the name and date of an ADF, or returns null if its metadata can't be read.
+     */
+    private static AdfData loadAdfData(Tango tango, String uuid) {
+        TangoAreaDescriptionMetaData metadata;
+        try {
+            metadata = tango.loadAreaDescriptionMetaData(uuid);
+        } catch (TangoException e) {
+            Log.w(TAG, "Unable to load the metadata of ADF " + uuid, e);
+            return null;
+        }
+        byte[] nameBytes = metadata.get(TangoAreaDescriptionMetaData.KEY_NAME);
+        String name = nameBytes != null ? new String(nameBytes, UTF_8) : "";
+        // The date is stored as a little endian 64-bit integer.
+        byte[] dateBytes = metadata.get(TangoAreaDescriptionMetaData.KEY_DATE_MS_SINCE_EPOCH);
+        long date = dateBytes != null && dateBytes.length == 8 ?
+                ByteBuffer.wrap(dateBytes).order(ByteOrder.LITTLE_ENDIAN).getLong() : 0;
+        return new AdfData(uuid, name, date);
+    }
+
+    /**
+     * The metadata of one ADF, loaded by the given generation.
+     */
+    private static final class Result {
+        final int generation;
+        final int position;
+        final AdfData adfData;
+
+        Result(int generation, int position, AdfData adfData) {
+            this.generation = generation;
+            this.position = position;
+            this.adfData = adfData;
+        }
+    }
+
+    /**
+     * The metadata loading of a refresh, run by every worker: each one takes the next ADF to
+     * load until all are, or the refresh is stale. The last worker to finish updates the cache
+     * file.
+     */
+    private final class Refresh implements Runnable {
+        private final Tango mTango;
+        private final int mRefreshGeneration;
+        private final List<String> mUuids;
+        private final int[] mOrder;
+        private final AtomicInteger mNext = new AtomicInteger();
+        // Starts at one for the worker that lists the ADFs and runs the refresh itself.
+        private final AtomicInteger mRunningCount = new AtomicInteger(1);
+
+        Refresh(Tango tango, int generation, List<String> uuids, int[] order) {
+            mTango = tango;
+            mRefreshGeneration = generation;
+            mUuids = uuids;
+            mOrder = order;
+        }
+
+        /**
+         * Runs the refresh on one more worker.
+         */
+        void fork() {
+            mRunningCount.incrementAndGet();
+            try {
+                mExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // Shut down.
+                finish();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (mGeneration.get() == mRefreshGeneration) {
+                    int next = mNext.getAndIncrement();
+                    if (next >= mOrder.length) {
+                        break;
+                    }
+                    int position = mOrder[next];
+                    AdfData adfData = loadAdfData(mTango, mUuids.get(position));
+                    if (adfData != null) {
+                        mCache.put(adfData);
+                    }
+                    postResult(new Result(mRefreshGeneration, position, adfData));
+                }
+            } finally {
+                finish();
+            }
+        }
+
+        private void finish() {
+            // A newer refresh owns the cache once it starts, and its list of ADFs may differ.
+            if (mRunningCount.decrementAndGet() == 0
+                    && mGeneration.get() == mRefreshGeneration) {
+                mCache.retain(mUuids);
+                mCache.save();
+            }
+        }
+    }
+}
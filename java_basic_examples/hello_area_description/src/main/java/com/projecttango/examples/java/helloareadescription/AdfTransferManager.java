@@ -0,0 +1,337 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.helloareadescription;
+
+import com.google.atap.tangoservice.Tango;
+import com.google.atap.tangoservice.TangoException;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Imports and exports batches of ADFs between Tango space and the app space folder in the
+ * background, so that provisioning a device with many ADFs neither blocks the UI thread nor has
+ * to be done one ADF at a time.
+ * <p/>
+ * A batch is run by a small pool of workers, each one taking the next ADF of the batch: the
+ * checksum of one ADF is computed while another one is transferred by the Tango service. Every
+ * exported ADF is checksummed and the checksum is recorded in the {@link AdfTransferManifest};
+ * an ADF with a recorded checksum is verified before being imported, and is not imported if it
+ * doesn't match. As the manifest also records which ADFs are done, a batch that is paused, or
+ * cut short by the app being closed, can be resumed where it stopped. A batch cancelled by the
+ * user records its remaining ADFs as cancelled, and is not resumed.
+ * <p/>
+ * Only one batch runs at a time. Pausing or cancelling lets the workers finish the ADF they are
+ * transferring, as the Tango service can't interrupt a transfer.
+ */
+final class AdfTransferManager {
+    /**
+     * Receives the progress of the batches, on the UI thread.
+     */
+    interface Listener {
+        void onTransferProgress(int doneCount, int failedCount, int totalCount);
+
+        void onTransferFinished(int doneCount, int failedCount, int totalCount,
+                                boolean cancelled);
+    }
+
+    private static final String TAG = AdfTransferManager.class.getSimpleName();
+    private static final int THREAD_COUNT = 2;
+
+    private final File mFolder;
+    private final Listener mListener;
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(THREAD_COUNT);
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Only accessed from the UI thread.
+    private Batch mBatch;
+
+    AdfTransferManager(File folder, Listener listener) {
+        mFolder = folder;
+        mListener = listener;
+    }
+
+    boolean isRunning() {
+        return mBatch != null;
+    }
+
+    /**
+     * Exports ADFs from Tango space to the app space folder. Returns false if a batch is already
+     * running or can't be started.
+     */
+    boolean exportAll(Tango tango, List<String> uuids) {
+        return start(tango, AdfTransferManifest.TYPE_EXPORT, uuids);
+    }
+
+    /**
+     * Imports ADFs from the app space folder to Tango space. Returns false if a batch is already
+     * running or can't be started.
+     */
+    boolean importAll(Tango tango, List<String> uuids) {
+        return start(tango, AdfTransferManifest.TYPE_IMPORT, uuids);
+    }
+
+    /**
+     * Resumes the last batch if it didn't finish. Returns false if there is nothing to resume.
+     */
+    boolean resume(Tango tango) {
+        if (mBatch != null) {
+            return false;
+        }
+        AdfTransferManifest manifest;
+        try {
+            manifest = AdfTransferManifest.open(mFolder);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read the transfer manifest", e);
+            return false;
+        }
+        if (manifest == null) {
+            return false;
+        }
+        for (AdfTransferManifest.Item item : manifest.getItems()) {
+            if (item.isPending()) {
+                run(tango, manifest);
+                return true;
+            }
+        }
+        close(manifest);
+        return false;
+    }
+
+    /**
+     * Stops the current batch after the ADFs being transferred. It can be resumed later.
+     */
+    void pause() {
+        if (mBatch != null) {
+            mBatch.mCancelled = true;
+        }
+    }
+
+    /**
+     * Stops the current batch after the ADFs being transferred, for good: the ADFs left are
+     * recorded as cancelled and won't be resumed.
+     */
+    void cancel() {
+        if (mBatch != null) {
+            mBatch.mDiscarded = true;
+            mBatch.mCancelled = true;
+        }
+    }
+
+    /**
+     * Pauses the current batch and stops the workers.
+     */
+    void shutdown() {
+        pause();
+        mExecutor.shutdown();
+    }
+
+    private boolean start(Tango tango, int type, List<String> uuids) {
+        if (mBatch != null) {
+            return false;
+        }
+        try {
+            run(tango, AdfTransferManifest.create(mFolder, type, uuids));
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write the transfer manifest", e);
+            return false;
+        }
+        return true;
+    }
+
+    private void run(Tango tango, AdfTransferManifest manifest) {
+        mBatch = new Batch(tango, manifest);
+        mListener.onTransferProgress(mBatch.mDoneCount.get(), mBatch.mFailedCount.get(),
+                mBatch.mTotalCount);
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            try {
+                mExecutor.execute(mBatch);
+            } catch (RejectedExecutionException e) {
+                // Shut down.
+                mBatch.finish();
+            }
+        }
+    }
+
+    private static void close(AdfTransferManifest manifest) {
+        try {
+            manifest.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write the transfer manifest", e);
+        }
+    }
+
+    /**
+     * A batch, run by every worker: each one takes the next pending ADF until all are
+     * transferred, or the batch is cancelled. The last worker to finish reports it.
+     */
+    private final class Batch implements Runnable {
+        private final Tango mTango;
+        private final AdfTransferManifest mManifest;
+        private final ConcurrentLinkedQueue<AdfTransferManifest.Item> mPending =
+                new ConcurrentLinkedQueue<AdfTransferManifest.Item>();
+        private final int mTotalCount;
+        private final AtomicInteger mDoneCount = new AtomicInteger();
+        private final AtomicInteger mFailedCount = new AtomicInteger();
+        private final AtomicInteger mRunningCount = new AtomicInteger(THREAD_COUNT);
+        private volatile boolean mCancelled;
+        // Set along with mCancelled when the batch is not to be resumed.
+        private volatile boolean mDiscarded;
+        private final Runnable mProgressRunnable = new Runnable() {
+            @Override
+            public void run() {
+                mListener.onTransferProgress(mDoneCount.get(), mFailedCount.get(), mTotalCount);
+            }
+        };
+
+        Batch(Tango tango, AdfTransferManifest manifest) {
+            mTango = tango;
+            mManifest = manifest;
+            List<AdfTransferManifest.Item> items = manifest.getItems();
+            mTotalCount = items.size();
+            for (AdfTransferManifest.Item item : items) {
+                if (item.done) {
+                    mDoneCount.incrementAndGet();
+                } else if (item.failed) {
+                    mFailedCount.incrementAndGet();
+                } else if (!item.cancelled) {
+                    mPending.add(item);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                AdfTransferManifest.Item item;
+                while (!mCancelled && (item = mPending.poll()) != null) {
+                    boolean done = item.type == AdfTransferManifest.TYPE_EXPORT ?
+                            exportAdf(item) : importAdf(item);
+                    if (!done && mCancelled) {
+                        // Likely interrupted by the disconnection of the Tango service, leave it
+                        // pending to be resumed, or cancelled along with the rest.
+                        mPending.add(item);
+                        break;
+                    }
+                    try {
+                        if (done) {
+                            mDoneCount.incrementAndGet();
+                        } else {
+                            mFailedCount.incrementAndGet();
+                            mManifest.markFailed(item);
+                        }
+                    } catch (IOException e) {
+                        Log.e(TAG, "Unable to write the transfer manifest", e);
+                    }
+                    mHandler.post(mProgressRunnable);
+                }
+            } finally {
+                finish();
+            }
+        }
+
+        /**
+         * Exports an ADF and records its checksum, returns whether it succeeded.
+         */
+        private boolean exportAdf(AdfTransferManifest.Item item) {
+            File file = new File(mFolder, item.uuid);
+            try {
+                if (file.exists()) {
+                    // Exported before the batch was cut short: keep it, unless it doesn't match
+                    // its recorded checksum, as the Tango service won't overwrite it.
+                    String checksum = AdfTransferManifest.checksum(file);
+                    String expected = mManifest.getChecksum(item.uuid);
+                    if (expected != null && !expected.equals(checksum)) {
+                        Log.w(TAG, "ADF " + item.uuid + " exists and is corrupted");
+                        return false;
+                    }
+                    mManifest.markDone(item, checksum);
+                    return true;
+                }
+                mTango.exportAreaDescriptionFile(item.uuid, mFolder.getPath());
+                if (!file.exists()) {
+                    Log.w(TAG, "ADF " + item.uuid + " wasn't exported");
+                    return false;
+                }
+                mManifest.markDone(item, AdfTransferManifest.checksum(file));
+                return true;
+            } catch (TangoException e) {
+                Log.w(TAG, "Unable to export ADF " + item.uuid, e);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to checksum ADF " + item.uuid, e);
+            }
+            return false;
+        }
+
+        /**
+         * Verifies and imports an ADF, unless it is already imported, returns whether it
+         * succeeded.
+         */
+        private boolean importAdf(AdfTransferManifest.Item item) {
+            File file = new File(mFolder, item.uuid);
+            try {
+                String checksum = AdfTransferManifest.checksum(file);
+                String expected = mManifest.getChecksum(item.uuid);
+                if (expected != null && !expected.equals(checksum)) {
+                    Log.w(TAG, "ADF " + item.uuid + " is corrupted, not importing it");
+                    return false;
+                }
+                // Imported before the batch was cut short: the Tango service would refuse to
+                // import it again.
+                if (!mTango.listAreaDescriptions().contains(item.uuid)) {
+                    mTango.importAreaDescriptionFile(file.getPath());
+                }
+                mManifest.markDone(item, checksum);
+                return true;
+            } catch (TangoException e) {
+                Log.w(TAG, "Unable to import ADF " + item.uuid, e);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to checksum ADF " + item.uuid, e);
+            }
+            return false;
+        }
+
+        void finish() {
+            if (mRunningCount.decrementAndGet() == 0) {
+                if (mDiscarded && !mPending.isEmpty()) {
+                    try {
+                        mManifest.markCancelled(mPending);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Unable to write the transfer manifest", e);
+                    }
+                }
+                close(mManifest);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mBatch = null;
+                        mListener.onTransferFinished(mDoneCount.get(), mFailedCount.get(),
+                                mTotalCount, mCancelled && !mPending.isEmpty());
+                    }
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.helloareadescription;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Journal of a batch of ADF imports and exports, kept next to the ADFs in app space so that an
+ * interrupted batch can be resumed, and so that the checksums of exported ADFs travel with them
+ * when the folder is copied to other devices.
+ * <p/>
+ * The manifest is a UTF-8 text file, one record per line, appended to as the batch progresses:
+ * <pre>
+ *   adf-transfers 1         header
+ *   export &lt;uuid&gt;           an ADF to export, or import &lt;uuid&gt; to import
+ *   checksum &lt;uuid&gt; &lt;hex&gt;   SHA-256 of the ADF file in app space
+ *   done &lt;uuid&gt;             the ADF was transferred and verified
+ *   failed &lt;uuid&gt;           the ADF couldn't be transferred
+ *   cancelled &lt;uuid&gt;        the batch was cancelled before the ADF was transferred
+ * </pre>
+ * Items that are neither done, failed nor cancelled are pending. A truncated last line, left by
+ * a batch cut short, is ignored. Records are appended by concurrent workers, under the lock of
+ * this.
+ */
+final class AdfTransferManifest {
+    static final String FILE_NAME = ".adf_transfers";
+    static final int TYPE_EXPORT = 0;
+    static final int TYPE_IMPORT = 1;
+
+    private static final String HEADER = "adf-transfers 1";
+    private static final String RECORD_EXPORT = "export";
+    private static final String RECORD_IMPORT = "import";
+    private static final String RECORD_CHECKSUM = "checksum";
+    private static final String RECORD_DONE = "done";
+    private static final String RECORD_FAILED = "failed";
+    private static final String RECORD_CANCELLED = "cancelled";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // Length of a SHA-256 in hexadecimal.
+    private static final int CHECKSUM_LENGTH = 64;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * An ADF of the batch.
+     */
+    static final class Item {
+        final int type;
+        final String uuid;
+        boolean done;
+        boolean failed;
+        boolean cancelled;
+
+        Item(int type, String uuid) {
+            this.type = type;
+            this.uuid = uuid;
+        }
+
+        boolean isPending() {
+            return !done && !failed && !cancelled;
+        }
+    }
+
+    private final File mFile;
+    private final List<Item> mItems;
+    // Guarded by this.
+    private final Map<String, String> mChecksums;
+    private final FileOutputStream mOutput;
+    private final Writer mWriter;
+
+    private AdfTransferManifest(File file, List<Item> items, Map<String, String> checksums)
+            throws IOException {
+        mFile = file;
+        mItems = items;
+        mChecksums = checksums;
+        mOutput = new FileOutputStream(file, true);
+        mWriter = new OutputStreamWriter(mOutput, UTF_8);
+    }
+
+    /**
+     * Starts a new batch, replacing the previous manifest of the folder. The checksums it holds
+     * for ADFs still in the folder are carried over.
+     */
+    static AdfTransferManifest create(File folder, int type, List<String> uuids)
+            throws IOException {
+        File file = new File(folder, FILE_NAME);
+        Map<String, String> checksums = new HashMap<String, String>();
+        AdfTransferManifest previous = open(folder);
+        if (previous != null) {
+            previous.close();
+            for (Map.Entry<String, String> entry : previous.mChecksums.entrySet()) {
+                if (new File(folder, entry.getKey()).exists()) {
+                    checksums.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        StringBuilder contents = new StringBuilder(HEADER).append('\n');
+        List<Item> items = new ArrayList<Item>(uuids.size());
+        for (String uuid : uuids) {
+            items.add(new Item(type, uuid));
+            contents.append(type == TYPE_EXPORT ? RECORD_EXPORT : RECORD_IMPORT).append(' ')
+                    .append(uuid).append('\n');
+        }
+        for (Map.Entry<String, String> entry : checksums.entrySet()) {
+            contents.append(RECORD_CHECKSUM).append(' ').append(entry.getKey()).append(' ')
+                    .append(entry.getValue()).append('\n');
+        }
+
+        // Write to a temporary file and rename it over the manifest: a batch being resumed
+        // must never see a partially written list of items.
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileOutputStream output = new FileOutputStream(tmpFile);
+        try {
+            output.write(contents.toString().getBytes(UTF_8));
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("Unable to rename " + tmpFile + " to " + file);
+        }
+        return new AdfTransferManifest(file, items, checksums);
+    }
+
+    /**
+     * Reads the manifest of the folder to resume its batch, or returns null if there is none.
+     */
+    static AdfTransferManifest open(File folder) throws IOException {
+        File file = new File(folder, FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        Map<String, Item> items = new LinkedHashMap<String, Item>();
+        Map<String, String> checksums = new HashMap<String, String>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), UTF_8));
+        try {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException(file + " is not an ADF transfer manifest");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(" ");
+                String record = fields[0];
+                if (record.equals(RECORD_EXPORT) && fields.length == 2) {
+                    items.put(fields[1], new Item(TYPE_EXPORT, fields[1]));
+                } else if (record.equals(RECORD_IMPORT) && fields.length == 2) {
+                    items.put(fields[1], new Item(TYPE_IMPORT, fields[1]));
+                } else if (record.equals(RECORD_CHECKSUM) && fields.length == 3
+                        && fields[2].length() == CHECKSUM_LENGTH) {
+                    checksums.put(fields[1], fields[2]);
+                } else if (record.equals(RECORD_DONE) && fields.length == 2
+                        && items.containsKey(fields[1])) {
+                    items.get(fields[1]).done = true;
+                } else if (record.equals(RECORD_FAILED) && fields.length == 2
+                        && items.containsKey(fields[1])) {
+                    items.get(fields[1]).failed = true;
+                } else if (record.equals(RECORD_CANCELLED) && fields.length == 2
+                        && items.containsKey(fields[1])) {
+                    items.get(fields[1]).cancelled = true;
+                }
+                // Anything else is a truncated last line.
+            }
+        } finally {
+            reader.close();
+        }
+        return new AdfTransferManifest(file, new ArrayList<Item>(items.values()), checksums);
+    }
+
+    /**
+     * Returns the items of the batch, in order.
+     */
+    List<Item> getItems() {
+        return mItems;
+    }
+
+    /**
+     * Returns the recorded checksum of the ADF file, or null.
+     */
+    synchronized String getChecksum(String uuid) {
+        return mChecksums.get(uuid);
+    }
+
+    /**
+     * Records an item as transferred, along with the checksum of its file in app space.
+     */
+    synchronized void markDone(Item item, String checksum) throws IOException {
+        if (!checksum.equals(mChecksums.get(item.uuid))) {
+            mChecksums.put(item.uuid, checksum);
+            mWriter.write(RECORD_CHECKSUM + ' ' + item.uuid + ' ' + checksum + '\n');
+        }
+        mWriter.write(RECORD_DONE + ' ' + item.uuid + '\n');
+        sync();
+        item.done = true;
+    }
+
+    synchronized void markFailed(Item item) throws IOException {
+        mWriter.write(RECORD_FAILED + ' ' + item.uuid + '\n');
+        sync();
+        item.failed = true;
+    }
+
+    /**
+     * Records items as cancelled, so that they are not resumed.
+     */
+    synchronized void markCancelled(Iterable<Item> items) throws IOException {
+        for (Item item : items) {
+            mWriter.write(RECORD_CANCELLED + ' ' + item.uuid + '\n');
+        }
+        sync();
+        for (Item item : items) {
+            item.cancelled = true;
+        }
+    }
+
+    synchronized void close() throws IOException {
+        mWriter.close();
+    }
+
+    private void sync() throws IOException {
+        mWriter.flush();
+        mOutput.getFD().sync();
+    }
+
+    /**
+     * Returns the SHA-256 of a file, in hexadecimal.
+     */
+    static String checksum(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not available", e);
+        }
+        byte[] buffer = new byte[1 << 16];
+        InputStream input = new FileInputStream(file);
+        try {
+            int count;
+            while ((count = input.read(buffer)) > 0) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            input.close();
+        }
+        byte[] hash = digest.digest();
+        char[] hex = new char[2 * hash.length];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
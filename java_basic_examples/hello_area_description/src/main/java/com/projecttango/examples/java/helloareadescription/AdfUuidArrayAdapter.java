@@ -62,8 +62,13 @@ class AdfUuidArrayAdapter extends ArrayAdapter<String> {
         if (mAdfDataList == null) {
             name.setText(R.string.metadata_not_read);
         } else {
-            name.setText(mAdfDataList.get(position).name);
-            uuid.setText(mAdfDataList.get(position).uuid);
+            AdfData adfData = mAdfDataList.get(position);
+            if (adfData.name != null) {
+                name.setText(adfData.name);
+            } else {
+                name.setText(R.string.metadata_loading);
+            }
+            uuid.setText(adfData.uuid);
         }
         return row;
     }
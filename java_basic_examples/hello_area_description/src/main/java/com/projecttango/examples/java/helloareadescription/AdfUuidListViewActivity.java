@@ -30,26 +30,43 @@ import android.view.ContextMenu.ContextMenuInfo;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
+import android.widget.Button;
 import android.widget.ListView;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * This class lets you manage ADFs between this class's Application Package folder and API private
  * space. This show cases mainly three things: Import, Export, Delete an ADF file from API private
  * space to any known and accessible file path.
  */
-public class AdfUuidListViewActivity extends Activity implements SetAdfNameDialog.CallbackListener {
+public class AdfUuidListViewActivity extends Activity implements SetAdfNameDialog.CallbackListener,
+        AdfMetadataLoader.Listener, AdfTransferManager.Listener, AppSpaceAdfIndex.Listener {
 
     private ListView mTangoSpaceAdfListView, mAppSpaceAdfListView;
     private AdfUuidArrayAdapter mTangoSpaceAdfListAdapter, mAppSpaceAdfListAdapter;
     private ArrayList<AdfData> mTangoSpaceAdfDataList, mAppSpaceAdfDataList;
     private String[] mTangoSpaceMenuStrings, mAppSpaceMenuStrings;
     private String mAppSpaceAdfFolder;
+    // Applies the changes of the App space folder to mAppSpaceAdfDataList.
+    private AppSpaceAdfIndex mAppSpaceAdfIndex;
     private Tango mTango;
     private volatile boolean mIsTangoReady = false;
+    // Loads the Tango space ADFs and their metadata in the background.
+    private AdfMetadataLoader mAdfMetadataLoader;
+    // Imports and exports ADFs in the background, resuming interrupted batches.
+    private AdfTransferManager mAdfTransferManager;
+    private Button mCancelTransferButton;
+    private TextView mTransferProgressTextView;
+    // Whether the running batch was cancelled by onPause, to be resumed when it has stopped.
+    private boolean mTransferPaused;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -75,6 +92,17 @@ public class AdfUuidListViewActivity extends Activity implements SetAdfNameDialo
         mAppSpaceAdfListAdapter = new AdfUuidArrayAdapter(this, mAppSpaceAdfDataList);
         mAppSpaceAdfListView.setAdapter(mAppSpaceAdfListAdapter);
         registerForContextMenu(mAppSpaceAdfListView);
+        mAppSpaceAdfIndex = new AppSpaceAdfIndex(new File(mAppSpaceAdfFolder),
+                mAppSpaceAdfDataList, this);
+        mAppSpaceAdfIndex.start();
+
+        // Show the ADFs cached from the last time until the Tango service is ready.
+        mAdfMetadataLoader = new AdfMetadataLoader(new AdfMetadataCache(getFilesDir()), this);
+        mAdfMetadataLoader.loadCached();
+
+        mCancelTransferButton = (Button) findViewById(R.id.cancel_transfer_button);
+        mTransferProgressTextView = (TextView) findViewById(R.id.transfer_progress_textview);
+        mAdfTransferManager = new AdfTransferManager(new File(mAppSpaceAdfFolder), this);
     }
 
     @Override
@@ -97,6 +125,10 @@ public class AdfUuidListViewActivity extends Activity implements SetAdfNameDialo
                     public void run() {
                         synchronized (AdfUuidListViewActivity.this) {
                             updateList();
+                            // Finish the batch of transfers interrupted last time, if any.
+                            if (mAdfTransferManager.resume(mTango)) {
+                                mCancelTransferButton.setEnabled(true);
+                            }
                         }
                     }
                 });
@@ -108,12 +140,66 @@ public class AdfUuidListViewActivity extends Activity implements SetAdfNameDialo
     public void onPause() {
         super.onPause();
         synchronized (this) {
+            mAdfMetadataLoader.cancel();
+            // The batch is resumed when the Tango service is ready again.
+            if (mAdfTransferManager.isRunning()) {
+                mAdfTransferManager.pause();
+                mTransferPaused = true;
+            }
             // Unbinds Tango Service
             mTango.disconnect();
         }
         mIsTangoReady = false;
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mAdfMetadataLoader.shutdown();
+        mAdfTransferManager.shutdown();
+        mAppSpaceAdfIndex.stop();
+    }
+
+    /**
+     * Exports the ADFs of Tango space missing from app space.
+     */
+    public void exportAllClicked(View view) {
+        Set<String> appSpaceUuids = new HashSet<String>();
+        for (AdfData adfData : mAppSpaceAdfDataList) {
+            appSpaceUuids.add(adfData.uuid);
+        }
+        List<String> uuids = new ArrayList<String>();
+        for (AdfData adfData : mTangoSpaceAdfDataList) {
+            if (!appSpaceUuids.contains(adfData.uuid)) {
+                uuids.add(adfData.uuid);
+            }
+        }
+        startTransfer(AdfTransferManifest.TYPE_EXPORT, uuids);
+    }
+
+    /**
+     * Imports the ADFs of app space missing from Tango space.
+     */
+    public void importAllClicked(View view) {
+        Set<String> tangoSpaceUuids = new HashSet<String>();
+        for (AdfData adfData : mTangoSpaceAdfDataList) {
+            tangoSpaceUuids.add(adfData.uuid);
+        }
+        List<String> uuids = new ArrayList<String>();
+        for (AdfData adfData : mAppSpaceAdfDataList) {
+            if (!tangoSpaceUuids.contains(adfData.uuid)) {
+                uuids.add(adfData.uuid);
+            }
+        }
+        startTransfer(AdfTransferManifest.TYPE_IMPORT, uuids);
+    }
+
+    public void cancelTransferClicked(View view) {
+        mAdfTransferManager.cancel();
+        mTransferPaused = false;
+        mCancelTransferButton.setEnabled(false);
+    }
+
     @Override
     public void onCreateContextMenu(ContextMenu menu, View v, ContextMenuInfo menuInfo) {
         AdapterView.AdapterContextMenuInfo info = (AdapterView.AdapterContextMenuInfo) menuInfo;
@@ -203,25 +289,110 @@ public class AdfUuidListViewActivity extends Activity implements SetAdfNameDialo
         // Nothing to do here.
     }
 
+    /**
+     * Implements AdfMetadataLoader.Listener.
+     */
+    @Override
+    public void onAdfListLoaded(List<AdfData> adfDataList) {
+        mTangoSpaceAdfDataList.clear();
+        mTangoSpaceAdfDataList.addAll(adfDataList);
+        mTangoSpaceAdfListAdapter.notifyDataSetChanged();
+    }
+
+    /**
+     * Implements AdfMetadataLoader.Listener.
+     */
+    @Override
+    public void onAdfLoaded(int position, AdfData adfData) {
+        if (adfData == null) {
+            adfData = new AdfData(mTangoSpaceAdfDataList.get(position).uuid,
+                    getString(R.string.metadata_not_read));
+        }
+        mTangoSpaceAdfDataList.set(position, adfData);
+        mTangoSpaceAdfListAdapter.notifyDataSetChanged();
+    }
+
+    /**
+     * Implements AdfMetadataLoader.Listener.
+     */
+    @Override
+    public void onAdfListFailed() {
+        Toast.makeText(this, R.string.tango_error, Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * Implements AdfTransferManager.Listener.
+     */
+    @Override
+    public void onTransferProgress(int doneCount, int failedCount, int totalCount) {
+        mTransferProgressTextView.setText(getString(R.string.transfer_progress_format,
+                doneCount, totalCount, failedCount));
+    }
+
+    /**
+     * Implements AdfTransferManager.Listener.
+     */
+    @Override
+    public void onTransferFinished(int doneCount, int failedCount, int totalCount,
+                                   boolean cancelled) {
+        mTransferProgressTextView.setText(getString(cancelled ?
+                R.string.transfer_cancelled_format : R.string.transfer_progress_format,
+                doneCount, totalCount, failedCount));
+        mCancelTransferButton.setEnabled(false);
+        updateList();
+        // Cancelled by onPause but the Tango service is already back.
+        if (mTransferPaused && mIsTangoReady && mAdfTransferManager.resume(mTango)) {
+            mCancelTransferButton.setEnabled(true);
+        }
+        mTransferPaused = false;
+    }
+
+    /**
+     * Implements AppSpaceAdfIndex.Listener.
+     */
+    @Override
+    public void onAppSpaceAdfsChanged() {
+        mAppSpaceAdfListAdapter.notifyDataSetChanged();
+    }
+
     /**
      * Import an ADF from app space to Tango space.
      */
     private void importAdf(String uuid) {
-        try {
-            mTango.importAreaDescriptionFile(mAppSpaceAdfFolder + File.separator + uuid);
-        } catch (TangoErrorException e) {
-            Toast.makeText(this, R.string.adf_exists_api_space, Toast.LENGTH_SHORT).show();
-        }
+        startTransfer(AdfTransferManifest.TYPE_IMPORT, Collections.singletonList(uuid));
     }
 
     /**
      * Export an ADF from Tango space to app space.
      */
     private void exportAdf(String uuid) {
-        try {
-            mTango.exportAreaDescriptionFile(uuid, mAppSpaceAdfFolder);
-        } catch (TangoErrorException e) {
-            Toast.makeText(this, R.string.adf_exists_app_space, Toast.LENGTH_SHORT).show();
+        startTransfer(AdfTransferManifest.TYPE_EXPORT, Collections.singletonList(uuid));
+    }
+
+    /**
+     * Starts a batch of imports or exports in the background, its progress is delivered to
+     * onTransferProgress.
+     */
+    private void startTransfer(int type, List<String> uuids) {
+        if (!mIsTangoReady) {
+            Toast.makeText(this, R.string.tango_not_ready, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (mAdfTransferManager.isRunning()) {
+            Toast.makeText(this, R.string.transfer_in_progress, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (uuids.isEmpty()) {
+            Toast.makeText(this, R.string.no_adfs_to_transfer, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        boolean started = type == AdfTransferManifest.TYPE_EXPORT ?
+                mAdfTransferManager.exportAll(mTango, uuids) :
+                mAdfTransferManager.importAll(mTango, uuids);
+        if (started) {
+            mCancelTransferButton.setEnabled(true);
+        } else {
+            Toast.makeText(this, R.string.transfer_failed, Toast.LENGTH_SHORT).show();
         }
     }
 
@@ -253,58 +424,22 @@ public class AdfUuidListViewActivity extends Activity implements SetAdfNameDialo
     }
 
     /**
-     * Updates the list of AdfData corresponding to the App space.
-     */
-    private void updateAppSpaceAdfList() {
-        File file = new File(mAppSpaceAdfFolder);
-        File[] adfFileList = file.listFiles();
-        mAppSpaceAdfDataList.clear();
-
-        for (int i = 0; i < adfFileList.length; ++i) {
-            mAppSpaceAdfDataList.add(new AdfData(adfFileList[i].getName(), ""));
-        }
-    }
-
-    /**
-     * Updates the list of AdfData corresponding to the Tango space.
+     * Updates the list of AdfData corresponding to the Tango space, in the background: the list
+     * is delivered to onAdfListLoaded, then the metadata of every ADF to onAdfLoaded.
      */
     private void updateTangoSpaceAdfList() {
-        ArrayList<String> fullUuidList;
-        TangoAreaDescriptionMetaData metadata = new TangoAreaDescriptionMetaData();
-
-        try {
-            // Get all ADF UUIDs.
-            fullUuidList = mTango.listAreaDescriptions();
-            // Get the names from the UUIDs.
-            mTangoSpaceAdfDataList.clear();
-            for (String uuid : fullUuidList) {
-                String name;
-                try {
-                    metadata = mTango.loadAreaDescriptionMetaData(uuid);
-                } catch (TangoErrorException e) {
-                    Toast.makeText(this, R.string.tango_error, Toast.LENGTH_SHORT).show();
-                }
-                name = new String(metadata.get(TangoAreaDescriptionMetaData.KEY_NAME));
-                mTangoSpaceAdfDataList.add(new AdfData(uuid, name));
-            }
-        } catch (TangoErrorException e) {
-            Toast.makeText(this, R.string.tango_error, Toast.LENGTH_SHORT).show();
+        if (mIsTangoReady) {
+            mAdfMetadataLoader.refresh(mTango);
         }
     }
 
     /**
-     * Updates the list of AdfData from Tango and App space, and sets it to the adapters.
+     * Updates the list of AdfData from Tango space. The App space list is kept up to date by
+     * mAppSpaceAdfIndex as the folder changes.
      */
     private void updateList() {
-        // Update App space ADF Listview.
-        updateAppSpaceAdfList();
-        mAppSpaceAdfListAdapter.setAdfData(mAppSpaceAdfDataList);
-        mAppSpaceAdfListAdapter.notifyDataSetChanged();
-
         // Update Tango space ADF Listview.
         updateTangoSpaceAdfList();
-        mTangoSpaceAdfListAdapter.setAdfData(mTangoSpaceAdfDataList);
-        mTangoSpaceAdfListAdapter.notifyDataSetChanged();
     }
 
     private void showSetNameDialog(String mCurrentUuid) {
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.helloareadescription;
+
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the list of ADFs in the app space folder up to date, from the changes reported by a
+ * {@link FileObserver}, so that the folder is only listed once rather than after every import,
+ * export or deletion.
+ * <p/>
+ * Every change is applied to the list in constant time: added ADFs are appended, and a removed
+ * ADF is replaced by the last one of the list. An ADF is added once it is completely written,
+ * or moved into the folder. Hidden files, such as the transfer manifest, and temporary files are
+ * not ADFs.
+ */
+final class AppSpaceAdfIndex {
+    /**
+     * Notified on the UI thread when the list changed.
+     */
+    interface Listener {
+        void onAppSpaceAdfsChanged();
+    }
+
+    private static final int ADDED_EVENTS = FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO;
+    private static final int REMOVED_EVENTS = FileObserver.DELETE | FileObserver.MOVED_FROM;
+
+    private final File mFolder;
+    private final ArrayList<AdfData> mAdfDataList;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Position of every ADF in the list, only accessed from the UI thread.
+    private final Map<String, Integer> mPositions = new HashMap<String, Integer>();
+    // Must be referenced for as long as it watches.
+    private final FileObserver mObserver;
+
+    /**
+     * Creates the index of the folder, kept in the given list.
+     */
+    AppSpaceAdfIndex(File folder, ArrayList<AdfData> adfDataList, Listener listener) {
+        mFolder = folder;
+        mAdfDataList = adfDataList;
+        mListener = listener;
+        mObserver = new FileObserver(folder.getPath(), ADDED_EVENTS | REMOVED_EVENTS) {
+            @Override
+            public void onEvent(int event, final String path) {
+                if (path == null || !isAdf(path)) {
+                    return;
+                }
+                final boolean added = (event & ADDED_EVENTS) != 0;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (added ? add(path) : remove(path)) {
+                            mListener.onAppSpaceAdfsChanged();
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Starts watching the folder and lists it. Called from the UI thread.
+     */
+    void start() {
+        // Watch first, changes made while listing are then reported at worst twice.
+        mObserver.startWatching();
+        mAdfDataList.clear();
+        mPositions.clear();
+        String[] names = mFolder.list();
+        if (names != null) {
+            for (String name : names) {
+                if (isAdf(name)) {
+                    add(name);
+                }
+            }
+        }
+        mListener.onAppSpaceAdfsChanged();
+    }
+
+    void stop() {
+        mObserver.stopWatching();
+    }
+
+    private boolean add(String uuid) {
+        if (mPositions.containsKey(uuid)) {
+            return false;
+        }
+        mPositions.put(uuid, mAdfDataList.size());
+        mAdfDataList.add(new AdfData(uuid, ""));
+        return true;
+    }
+
+    private boolean remove(String uuid) {
+        Integer position = mPositions.remove(uuid);
+        if (position == null) {
+            return false;
+        }
+        AdfData last = mAdfDataList.remove(mAdfDataList.size() - 1);
+        if (position < mAdfDataList.size()) {
+            mAdfDataList.set(position, last);
+            mPositions.put(last.uuid, position);
+        }
+        return true;
+    }
+
+    private static boolean isAdf(String name) {
+        return !name.startsWith(".") && !name.endsWith(".tmp");
+    }
+}
@@ -40,15 +40,15 @@ import com.google.atap.tangoservice.TangoOutOfDateException;
 import com.google.atap.tangoservice.TangoPointCloudData;
 import com.google.atap.tangoservice.TangoPoseData;
 import com.google.atap.tangoservice.TangoXyzIjData;
-
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import com.projecttango.examples.java.utils.AsyncLogger;
+import com.projecttango.examples.java.utils.AsyncLoggers;
+import com.projecttango.examples.java.utils.DeviceTangoBackend;
+import com.projecttango.examples.java.utils.MetricsOverlay;
+import com.projecttango.examples.java.utils.MetricsOverlays;
+import com.projecttango.examples.java.utils.SessionRecording;
+import com.projecttango.examples.java.utils.TangoBackend;
+
+import java.io.File;
 import java.util.ArrayList;
 
 import static java.lang.String.valueOf;
@@ -62,9 +62,15 @@ public class HelloAreaDescriptionActivity extends Activity implements
         SaveAdfTask.SaveAdfListener {
 
     private static final String TAG = HelloAreaDescriptionActivity.class.getSimpleName();
-    private static final int SECS_TO_MILLISECS = 1000;
     private Tango mTango;
+    // The session is driven through this, so that the callbacks can also be fed synthetic data.
+    private TangoBackend mBackend;
     private TangoConfig mConfig;
+
+    private SessionRecording mSessionRecording;
+
+    private MetricsOverlay mMetricsOverlay;
+
     private TextView mUuidTextView;
     private TextView mRelocalizationTextView;
     private TextView mCurrentLocationTextView;
@@ -74,6 +80,9 @@ public class HelloAreaDescriptionActivity extends Activity implements
     private TextView mStringx;
     private TextView mStringy;
     private TextView mStringz;
+    private TextView mNearbyLandmarkTextView;
+    private TextView mLandmarkAheadTextView;
+    private TextView mNavigationTextView;
 
     private Button mSaveAdfButton;
     private Button mSaveLandButton;
@@ -81,51 +90,98 @@ public class HelloAreaDescriptionActivity extends Activity implements
     private Button mChooseLandButton;
     private EditText mDestLandmark;
 
-    private float translation[];
-
     private boolean mSaveLand;
     private ArrayList<TangoPoseData> landmarkList = new ArrayList<TangoPoseData>();
     private ArrayList<String> landmarkName = new ArrayList<String>();
     private ArrayList<String> adfName = new ArrayList<String>();
-    private TangoPoseData currentPose;
 
     private float[] arrayLands;
     private int countLands = 0;
 
-    private double mPreviousPoseTimeStamp;
-    private double mTimeToNextUpdate = UPDATE_INTERVAL_MS;
-
-    private boolean mIsRelocalized;
     private boolean mIsLearningMode;
     private boolean mIsConstantSpaceRelocalize;
 
-    private String mPositionString;
+    // Only used from the UI thread.
+    private final StringBuilder mPositionBuilder = new StringBuilder();
     private float[] mDestinationTranslation = {(float)2, (float)0, (float)0};
 
-    // Long-running task to save the ADF.
-    private SaveAdfTask mSaveAdfTask;
-
-    private static final double UPDATE_INTERVAL_MS = 100.0;
 
-    private final Object mSharedLock = new Object();
+    // Long-running task to save the ADF. Read from the Tango callback thread.
+    private volatile SaveAdfTask mSaveAdfTask;
+
+    // Relocalization changes are logged asynchronously, at most LOG_RATE_CAP a second.
+    private static final int LOG_CAPACITY = 64;
+    private static final int LOG_RATE_CAP = 5;
+    private AsyncLogger mLogger;
+    private int mRelocalizedEvent;
+    private int mRelocalizationLostEvent;
+
+    // Landmarks of the latest ADF, loaded once in startupTango.
+    private LandmarkStore mLandmarkStore;
+    // Handles the poses on the callback thread, and hands its state over to the UI thread
+    // without locking.
+    private PoseProcessor mPoseProcessor;
+
+    // Updates the UI with the latest pose data. Allocated once so that the pose callback doesn't
+    // allocate a new Runnable on every UI update.
+    private final Runnable mUpdateUiRunnable = new Runnable() {
+        @Override
+        public void run() {
+            PoseSnapshot snapshot = mPoseProcessor.acquireSnapshot();
+            mSaveAdfButton.setEnabled(snapshot.relocalized);
+            mRelocalizationTextView.setText(snapshot.relocalized ?
+                    getString(R.string.localized) :
+                    getString(R.string.not_localized));
+
+            if (snapshot.relocalized) {
+
+                mFileContentView.setText(snapshot.landmarksStored);
+
+                mPositionBuilder.setLength(0);
+                mPositionBuilder.append("X:").append(snapshot.x)
+                        .append(", Y:").append(snapshot.y)
+                        .append(", Z:").append(snapshot.z);
+                mCurrentLocationTextView.setText(mPositionBuilder);
+                mStringx.setText(String.valueOf(snapshot.landmarkX));
+                mStringy.setText(String.valueOf(snapshot.landmarkY));
+                mStringz.setText(String.valueOf(snapshot.landmarkZ));
+                mNearbyLandmarkTextView.setText(snapshot.nearbyLandmark != null ?
+                        snapshot.nearbyLandmark : getString(R.string.na));
+                mLandmarkAheadTextView.setText(snapshot.landmarkAhead != null ?
+                        snapshot.landmarkAhead : getString(R.string.na));
+                mNavigationTextView.setText(getInstructionText(snapshot.instruction,
+                        snapshot.nextWaypointName, snapshot.distanceToNextWaypoint));
+
+
+                mReachedDestinationTextView.setText(valueOf(snapshot.reachedDestination));
 
-    private String landmarksStored;
-    private String chosenLandmark;
-    private float xPose = 0.0f;
-    private float yPose = 0.0f;
-    private float zPose = 0.0f;
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_area_learning);
+        mMetricsOverlay = MetricsOverlays.forTextView(this, R.id.metrics_textview);
+        mSessionRecording = new SessionRecording(this);
         Intent intent = getIntent();
         mIsLearningMode = intent.getBooleanExtra(StartActivity.USE_AREA_LEARNING, false);
         mIsConstantSpaceRelocalize = intent.getBooleanExtra(StartActivity.LOAD_ADF, false);
+        mLandmarkStore = new LandmarkStore(getFilesDir());
+        startLogging();
+        mPoseProcessor = new PoseProcessor(mLogger, mRelocalizedEvent, mRelocalizationLostEvent,
+                mDestinationTranslation);
 
        // arrayLands = new float[20];
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        AsyncLoggers.stop(mLogger);
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -133,58 +189,64 @@ public class HelloAreaDescriptionActivity extends Activity implements
         // Initialize Tango Service as a normal Android Service, since we call mTango.disconnect()
         // in onPause, this will unbind Tango Service, so every time when onResume gets called, we
         // should create a new Tango object.
-        mTango = new Tango(HelloAreaDescriptionActivity.this, new Runnable() {
-            // Pass in a Runnable to be called from UI thread when Tango is ready, this Runnable
-            // will be running on a new thread.
-            // When Tango is ready, we can call Tango functions safely here only when there is no UI
-            // thread changes involved.
-            @Override
-            public void run() {
-                synchronized (HelloAreaDescriptionActivity.this) {
-                    try {
-                        mConfig = setTangoConfig(
-                                mTango, mIsLearningMode, mIsConstantSpaceRelocalize);
-                        mTango.connect(mConfig);
-                        startupTango();
-                    } catch (TangoOutOfDateException e) {
-                        Log.e(TAG, getString(R.string.tango_out_of_date_exception), e);
-                    } catch (TangoErrorException e) {
-                        Log.e(TAG, getString(R.string.tango_error), e);
-                    } catch (TangoInvalidException e) {
-                        Log.e(TAG, getString(R.string.tango_invalid), e);
-                    } catch (SecurityException e) {
-                        // Area Learning permissions are required. If they are not available,
-                        // SecurityException is thrown.
-                        Log.e(TAG, getString(R.string.no_permissions), e);
+        // The service calls back on another thread, which takes the lock before using mTango and
+        // mBackend: holding it until both are set keeps it from seeing them half replaced.
+        synchronized (this) {
+            mTango = new Tango(HelloAreaDescriptionActivity.this, new Runnable() {
+                // Pass in a Runnable to be called from UI thread when Tango is ready, this
+                // Runnable will be running on a new thread.
+                // When Tango is ready, we can call Tango functions safely here only when there is
+                // no UI thread changes involved.
+                @Override
+                public void run() {
+                    synchronized (HelloAreaDescriptionActivity.this) {
+                        try {
+                            mConfig = setTangoConfig(
+                                    mTango, mIsLearningMode, mIsConstantSpaceRelocalize);
+                            mBackend.connect(mConfig);
+                            startupTango();
+                        } catch (TangoOutOfDateException e) {
+                            Log.e(TAG, getString(R.string.tango_out_of_date_exception), e);
+                        } catch (TangoErrorException e) {
+                            Log.e(TAG, getString(R.string.tango_error), e);
+                        } catch (TangoInvalidException e) {
+                            Log.e(TAG, getString(R.string.tango_invalid), e);
+                        } catch (SecurityException e) {
+                            // Area Learning permissions are required. If they are not available,
+                            // SecurityException is thrown.
+                            Log.e(TAG, getString(R.string.no_permissions), e);
+                        }
                     }
-                }
 
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        synchronized (HelloAreaDescriptionActivity.this) {
-                            setupTextViewsAndButtons(mTango, mIsLearningMode,
-                                    mIsConstantSpaceRelocalize);
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            synchronized (HelloAreaDescriptionActivity.this) {
+                                setupTextViewsAndButtons(mTango, mIsLearningMode,
+                                        mIsConstantSpaceRelocalize);
+                            }
                         }
-                    }
-                });
-            }
-        });
+                    });
+                }
+            });
+            mBackend = new DeviceTangoBackend(mTango);
+        }
     }
 
     @Override
     protected void onPause() {
         super.onPause();
 
-        // Clear the relocalization state: we don't know where the device will be since our app
-        // will be paused.
-        mIsRelocalized = false;
+        // The relocalization state is cleared when the session is started again: we don't know
+        // where the device will be since our app will be paused.
         synchronized (this) {
             try {
-                mTango.disconnect();
+                mBackend.disconnect();
             } catch (TangoErrorException e) {
                 Log.e(TAG, getString(R.string.tango_error), e);
             }
+            mSessionRecording.stop();
+            mMetricsOverlay.stop();
         }
     }
 
@@ -207,6 +269,9 @@ public class HelloAreaDescriptionActivity extends Activity implements
         mStringx = (TextView) findViewById(R.id.xString);
         mStringy = (TextView) findViewById(R.id.yString);
         mStringz = (TextView) findViewById(R.id.zString);
+        mNearbyLandmarkTextView = (TextView) findViewById(R.id.nearby_landmark_textview);
+        mLandmarkAheadTextView = (TextView) findViewById(R.id.landmark_ahead_textview);
+        mNavigationTextView = (TextView) findViewById(R.id.navigation_textview);
         mDestLandmark = (EditText) findViewById(R.id.destLandmark);
         mChooseLandButton = (Button) findViewById(R.id.chooseLandButton);
 
@@ -214,7 +279,7 @@ public class HelloAreaDescriptionActivity extends Activity implements
             @Override
             public void onClick(View view) {
 
-                chosenLandmark = mDestLandmark.getText().toString();
+                mPoseProcessor.setChosenLandmark(mDestLandmark.getText().toString());
 
             }
         });
@@ -223,7 +288,7 @@ public class HelloAreaDescriptionActivity extends Activity implements
             @Override
             public void onClick(View view) {
 
-                landmarkList.add(currentPose);
+                landmarkList.add(getLandmarkPose(mPoseProcessor.acquireSnapshot()));
                 Log.i("landmarkList.len =  ", valueOf(landmarkList.size()));
 
                // for (TangoPoseData t : landmarkList) {
@@ -320,130 +385,20 @@ public class HelloAreaDescriptionActivity extends Activity implements
                 TangoPoseData.COORDINATE_FRAME_AREA_DESCRIPTION,
                 TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE));
 
-        mTango.connectListener(framePairs, new OnTangoUpdateListener() {
+        // Load the landmarks of the latest ADF up front, so the pose callback only does in-memory
+        // lookups.
+        ArrayList<String> fullUuidList = mBackend.listAreaDescriptions();
+        if (fullUuidList.size() > 0) {
+            mLandmarkStore.load(fullUuidList.get(fullUuidList.size() - 1));
+        }
+        mPoseProcessor.start(mLandmarkStore.getIndex(), mLandmarkStore.getContents());
+
+        OnTangoUpdateListener listener = new OnTangoUpdateListener() {
 
             @Override
             public void onPoseAvailable(final TangoPoseData pose) {
-                // Make sure to have atomic access to Tango Data so that UI loop doesn't interfere
-                // while Pose call back is updating the data.
-                synchronized (mSharedLock) {
-
-
-                    //Log.i ("pose is called", String.valueOf(pose));
-                    currentPose = pose;
-
-                    //Log.i("pose =",valueOf(currentPose));
-                    // Check for Device wrt ADF pose, Device wrt Start of Service pose, Start of
-                    // Service wrt ADF pose (This pose determines if the device is relocalized or
-                    // not).
-                    if (pose.baseFrame == TangoPoseData.COORDINATE_FRAME_AREA_DESCRIPTION
-                            && pose.targetFrame == TangoPoseData
-                            .COORDINATE_FRAME_DEVICE) {
-                        if (pose.statusCode == TangoPoseData.POSE_VALID) {
-                            mIsRelocalized = true;
-
-                            Log.i("mIsRelocalized = ", valueOf(mIsRelocalized));
-
-                            StringBuilder stringBuilder = new StringBuilder();
-
-                            translation = pose.getTranslationAsFloats();
-                            stringBuilder.append("X:" + translation[0] + ", Y:" + translation[1] + ", Z:" + translation[2]);
-                            mPositionString = stringBuilder.toString();
-
-                            // Load saved landmarks and
-
-                            ArrayList<String> fullUuidList;
-                            // Returns a list of ADFs with their UUIDs
-                            fullUuidList = mTango.listAreaDescriptions();
-                            if(fullUuidList.size() > 0) {
-
-                                String adfFileName = fullUuidList.get(fullUuidList.size() - 1);
-
-                                landmarksStored = "empty file";
-
-                                landmarksStored = readFile(adfFileName);
-
-                                Log.d("landmarksStored", landmarksStored);
-
-                                // String from file to json and then set values of translation
-
-                                /*float xPose = 0.0f;
-                                float yPose = 0.0f;
-                                float zPose = 0.0f;*/
-
-                                // Get pose from first landmark saved (for now)
-
-
-                                //String lastLandmark = landmarkName.get(landmarkName.size()-1);
-                                StringBuilder xNameBuilder = new StringBuilder();
-                                StringBuilder yNameBuilder = new StringBuilder();
-                                StringBuilder zNameBuilder = new StringBuilder();
-
-                                xNameBuilder.append(chosenLandmark + "_x");
-                                yNameBuilder.append(chosenLandmark + "_y");
-                                zNameBuilder.append(chosenLandmark + "_z");
-
-                                String xName = xNameBuilder.toString();
-                                String yName = yNameBuilder.toString();
-                                String zName = zNameBuilder.toString();
-
-                                try {
-                                    JSONObject JSONlandmarks = new JSONObject(landmarksStored);
-                                    xPose = Float.valueOf(JSONlandmarks.getString(xName));
-                                    yPose = Float.valueOf(JSONlandmarks.getString(yName));
-                                    zPose = Float.valueOf(JSONlandmarks.getString(zName));
-
-
-                                } catch (JSONException e) {
-                                    e.printStackTrace();
-                                }
-                            }
-
-                        } else {
-                            mIsRelocalized = false;
-                        }
-                    }
-                }
-
-                // get current pose
-
-
-                final double deltaTime = (pose.timestamp - mPreviousPoseTimeStamp) *
-                        SECS_TO_MILLISECS;
-                mPreviousPoseTimeStamp = pose.timestamp;
-                mTimeToNextUpdate -= deltaTime;
-
-
-                if (mTimeToNextUpdate < 0.0) {
-                    mTimeToNextUpdate = UPDATE_INTERVAL_MS;
-
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            synchronized (mSharedLock) {
-                                mSaveAdfButton.setEnabled(mIsRelocalized);
-                                mRelocalizationTextView.setText(mIsRelocalized ?
-                                        getString(R.string.localized) :
-                                        getString(R.string.not_localized));
-
-                                if (mIsRelocalized) {
-
-                                    mFileContentView.setText(landmarksStored);
-
-                                    mCurrentLocationTextView.setText(mPositionString);
-                                    mStringx.setText(String.valueOf(xPose));
-                                    mStringy.setText(String.valueOf(yPose));
-                                    mStringz.setText(String.valueOf(zPose));
-
-
-                                    mReachedDestinationTextView.setText(valueOf(((int) translation[0] == (int) mDestinationTranslation[0]) &&
-                                            ((int) translation[1] == (int) mDestinationTranslation[1]) &&
-                                            ((int) translation[2] == (int) mDestinationTranslation[2])));
-
-                                }
-                            }
-                        }
-                    });
+                if (mPoseProcessor.onPoseAvailable(pose)) {
+                    runOnUiThread(mUpdateUiRunnable);
                 }
             }
 
@@ -459,107 +414,67 @@ public class HelloAreaDescriptionActivity extends Activity implements
 
             @Override
             public void onTangoEvent(final TangoEvent event) {
-                // Ignoring TangoEvents.
+                // The Tango service reports the progress of ADF saves through events.
+                SaveAdfTask saveAdfTask = mSaveAdfTask;
+                if (saveAdfTask != null) {
+                    saveAdfTask.onTangoEvent(event);
+                }
             }
 
             @Override
             public void onFrameAvailable(int cameraId) {
                 // We are not using onFrameAvailable for this application.
             }
-        });
+        };
+        mBackend.connectListener(framePairs,
+                mSessionRecording.start(mMetricsOverlay.start(listener)));
     }
 
-    private String readFile(String adfId){
-
-        StringBuilder finalString = new StringBuilder();
-
-        try {
-
-           // StringBuilder fileName = new StringBuilder();
-           // fileName.append(adfId + ".txt");
-
-           // String name = fileName.toString();
-
-            FileInputStream inStream = this.openFileInput(adfId);
-            InputStreamReader inputStreamReader = new InputStreamReader(inStream);
-            BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
-
-            String oneLine;
-
-            while ((oneLine = bufferedReader.readLine()) != null) {
-                finalString.append(oneLine);
-            }
-
-            bufferedReader.close();
-            inStream.close();
-            inputStreamReader.close();
-
-        } catch (IOException e){
-            e.printStackTrace();
-
-
-        }
-
-        String landmarkString = finalString.toString();
-
-        return landmarkString;
+    /**
+     * Starts the logger of the relocalization changes, writing to the logcat or, when
+     * AsyncLoggers.TRACE_LOG is set, to a trace file.
+     */
+    private void startLogging() {
+        mLogger = AsyncLoggers.start(this, LOG_CAPACITY, Log.INFO);
+        mRelocalizedEvent = mLogger.event(TAG, "Relocalized");
+        mRelocalizationLostEvent = mLogger.event(TAG, "Relocalization lost");
+        mLogger.setRateCap(TAG, LOG_RATE_CAP);
     }
 
-    private void saveLandmarks(String id){
-
-        // Check if this is called
-
-        Log.d("Checking","save Landmarks to file is called");
-
-        int size = landmarkList.size();
-
-        JSONObject jsonObj = new JSONObject();
-
-        for(int i=0; i<size; i++){
-            StringBuilder xNameBuilder = new StringBuilder();
-            StringBuilder yNameBuilder = new StringBuilder();
-            StringBuilder zNameBuilder = new StringBuilder();
-
-            xNameBuilder.append(landmarkName.get(i) + "_x");
-            yNameBuilder.append(landmarkName.get(i) + "_y");
-            zNameBuilder.append(landmarkName.get(i) + "_z");
-
-            String xName = xNameBuilder.toString();
-            String yName = yNameBuilder.toString();
-            String zName = zNameBuilder.toString();
-
-            float translationStored[] = landmarkList.get(i).getTranslationAsFloats();
-            String xPose = Float.toString(translationStored[0]);
-            String yPose = Float.toString(translationStored[1]);
-            String zPose = Float.toString(translationStored[2]);
-
-            try {
-                jsonObj.put(xName,xPose);
-                jsonObj.put(yName,yPose);
-                jsonObj.put(zName,zPose);
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
-        }
+    /**
+     * Returns a new pose, to be saved as a landmark, holding the filtered device pose of a
+     * snapshot.
+     */
+    private static TangoPoseData getLandmarkPose(PoseSnapshot snapshot) {
+        TangoPoseData pose = new TangoPoseData();
+        pose.baseFrame = TangoPoseData.COORDINATE_FRAME_AREA_DESCRIPTION;
+        pose.targetFrame = TangoPoseData.COORDINATE_FRAME_DEVICE;
+        pose.statusCode = snapshot.relocalized ? TangoPoseData.POSE_VALID
+                : TangoPoseData.POSE_INVALID;
+        pose.timestamp = snapshot.timestamp;
+        pose.translation = snapshot.translation.clone();
+        pose.rotation = snapshot.rotation.clone();
+        return pose;
+    }
 
-        // Create a file in the Internal Storage
-        String fileName = id; //name file with uuid
-        String content = jsonObj.toString();
-        Log.d("content", content);
-        Log.d("filename", fileName);
-
-        FileOutputStream outputStream = null;
-        try {
-            outputStream = openFileOutput(fileName, Context.MODE_PRIVATE);
-            outputStream.write(content.getBytes());
-            outputStream.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Returns the text describing a navigation instruction.
+     */
+    private String getInstructionText(int instruction, String waypoint, float distance) {
+        switch (instruction) {
+            case RouteNavigator.INSTRUCTION_STRAIGHT:
+                return getString(R.string.instruction_straight_format, waypoint, distance);
+            case RouteNavigator.INSTRUCTION_LEFT:
+                return getString(R.string.instruction_left_format, waypoint, distance);
+            case RouteNavigator.INSTRUCTION_RIGHT:
+                return getString(R.string.instruction_right_format, waypoint, distance);
+            case RouteNavigator.INSTRUCTION_ARRIVED:
+                return getString(R.string.instruction_arrived);
+            case RouteNavigator.INSTRUCTION_NO_ROUTE:
+                return getString(R.string.instruction_no_route);
+            default:
+                return getString(R.string.na);
         }
-
-        Log.d("checking ", "success stored landmarks");
-
-
     }
 
     /**
@@ -591,7 +506,8 @@ public class HelloAreaDescriptionActivity extends Activity implements
      * Performs saving on a background thread and displays a progress dialog.
      */
     private void saveAdf(String adfName) {
-        mSaveAdfTask = new SaveAdfTask(this, this, mTango, adfName);
+        mSaveAdfTask = new SaveAdfTask(this, this, mTango, adfName, mLandmarkStore,
+                landmarkName, landmarkList);
         mSaveAdfTask.execute();
     }
 
@@ -617,9 +533,6 @@ public class HelloAreaDescriptionActivity extends Activity implements
                 adfName, adfUuid);
         Toast.makeText(this, toastMessage, Toast.LENGTH_LONG).show();
         mSaveAdfTask = null;
-
-
-        saveLandmarks(adfUuid);
         finish();
     }
 
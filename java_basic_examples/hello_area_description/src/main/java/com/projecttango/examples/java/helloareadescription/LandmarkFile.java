@@ -0,0 +1,286 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.helloareadescription;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Read-only view of a binary landmark file, memory mapped so that landmark data is read straight
+ * from the page cache without being copied onto the heap.
+ * <p/>
+ * The file is laid out as follows, big endian:
+ * <pre>
+ *   header   magic (int), version (short), record size (short), record count (int),
+ *            name count (int), records offset (int), names offset (int)
+ *   records  record count fixed size records: name index (int), translation x, y, z (float),
+ *            rotation x, y, z, w (float), timestamp (double)
+ *   names    name count entries: UTF-8 byte length (short), UTF-8 bytes
+ * </pre>
+ * Names are interned: records with the same name share a single entry of the name table.
+ * Instances are immutable and may be read from any thread.
+ */
+final class LandmarkFile {
+    static final String EXTENSION = ".landmarks";
+
+    private static final int MAGIC = 0x544c4d4b; // "TLMK"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int RECORD_SIZE = 40;
+    private static final int OFFSET_NAME = 0;
+    private static final int OFFSET_TRANSLATION = 4;
+    private static final int OFFSET_ROTATION = 16;
+    private static final int OFFSET_TIMESTAMP = 32;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final LandmarkFile EMPTY =
+            new LandmarkFile(ByteBuffer.allocate(0), 0, 0, new String[0]);
+
+    private final ByteBuffer mBuffer;
+    private final int mRecordsOffset;
+    private final int mCount;
+    private final String[] mNames;
+    private final HashMap<String, Integer> mIndex;
+
+    private LandmarkFile(ByteBuffer buffer, int recordsOffset, int count, String[] names) {
+        mBuffer = buffer;
+        mRecordsOffset = recordsOffset;
+        mCount = count;
+        mNames = names;
+        mIndex = new HashMap<String, Integer>(2 * count);
+        for (int i = 0; i < count; i++) {
+            // Later records win, so that re-saving a landmark name moves it.
+            mIndex.put(getName(i), i);
+        }
+    }
+
+    /**
+     * Returns a landmark file without landmarks.
+     */
+    static LandmarkFile empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Maps the given landmark file into memory.
+     *
+     * @throws IOException if the file can't be read or is not a landmark file of a known version.
+     */
+    static LandmarkFile open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        ByteBuffer buffer;
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            // The mapping stays valid after the channel is closed.
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            randomAccessFile.close();
+        }
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a landmark file");
+        }
+        if (buffer.getShort(4) != VERSION || buffer.getShort(6) != RECORD_SIZE) {
+            throw new IOException("Unsupported landmark file version " + buffer.getShort(4));
+        }
+        int count = buffer.getInt(8);
+        int nameCount = buffer.getInt(12);
+        int recordsOffset = buffer.getInt(16);
+        int namesOffset = buffer.getInt(20);
+        if (count < 0 || nameCount < 0 || recordsOffset < HEADER_SIZE
+                || (long) recordsOffset + (long) count * RECORD_SIZE > namesOffset
+                || namesOffset > buffer.capacity()) {
+            throw new IOException(file + " is corrupted");
+        }
+
+        String[] names = new String[nameCount];
+        int position = namesOffset;
+        for (int i = 0; i < nameCount; i++) {
+            if (position + 2 > buffer.capacity()) {
+                throw new IOException(file + " is corrupted");
+            }
+            int length = buffer.getShort(position) & 0xffff;
+            position += 2;
+            if (position + length > buffer.capacity()) {
+                throw new IOException(file + " is corrupted");
+            }
+            byte[] bytes = new byte[length];
+            for (int j = 0; j < length; j++) {
+                bytes[j] = buffer.get(position + j);
+            }
+            names[i] = new String(bytes, UTF_8);
+            position += length;
+        }
+        for (int i = 0; i < count; i++) {
+            int nameIndex = buffer.getInt(recordsOffset + i * RECORD_SIZE + OFFSET_NAME);
+            if (nameIndex < 0 || nameIndex >= nameCount) {
+                throw new IOException(file + " is corrupted");
+            }
+        }
+        return new LandmarkFile(buffer, recordsOffset, count, names);
+    }
+
+    /**
+     * Writes a landmark file.
+     *
+     * @param names        the name of every landmark.
+     * @param translations the translation of every landmark, 3 floats per landmark.
+     * @param rotations    the rotation quaternion of every landmark, x, y, z, w, 4 floats per
+     *                     landmark.
+     * @param timestamps   the timestamp of every landmark.
+     */
+    static void write(File file, List<String> names, float[] translations, float[] rotations,
+                      double[] timestamps) throws IOException {
+        int count = names.size();
+
+        // Intern the names.
+        HashMap<String, Integer> nameIndices = new HashMap<String, Integer>();
+        List<byte[]> nameTable = new ArrayList<byte[]>();
+        int[] recordNames = new int[count];
+        int namesSize = 0;
+        for (int i = 0; i < count; i++) {
+            String name = names.get(i);
+            Integer nameIndex = nameIndices.get(name);
+            if (nameIndex == null) {
+                byte[] bytes = name.getBytes(UTF_8);
+                if (bytes.length > 0xffff) {
+                    throw new IOException("Landmark name too long: " + name);
+                }
+                nameIndex = nameTable.size();
+                nameIndices.put(name, nameIndex);
+                nameTable.add(bytes);
+                namesSize += 2 + bytes.length;
+            }
+            recordNames[i] = nameIndex;
+        }
+
+        int namesOffset = HEADER_SIZE + count * RECORD_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(namesOffset + namesSize);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) RECORD_SIZE);
+        buffer.putInt(count);
+        buffer.putInt(nameTable.size());
+        buffer.putInt(HEADER_SIZE);
+        buffer.putInt(namesOffset);
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(recordNames[i]);
+            buffer.putFloat(translations[3 * i]);
+            buffer.putFloat(translations[3 * i + 1]);
+            buffer.putFloat(translations[3 * i + 2]);
+            buffer.putFloat(rotations[4 * i]);
+            buffer.putFloat(rotations[4 * i + 1]);
+            buffer.putFloat(rotations[4 * i + 2]);
+            buffer.putFloat(rotations[4 * i + 3]);
+            buffer.putDouble(timestamps[i]);
+        }
+        for (byte[] bytes : nameTable) {
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+        }
+        buffer.flip();
+
+        // Write to a temporary file and rename it over the destination: a file that is currently
+        // mapped must never be truncated, and readers must never see a partially written file.
+        File tmpFile = new File(file.getPath() + ".tmp");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(tmpFile, "rw");
+        try {
+            randomAccessFile.setLength(0);
+            FileChannel channel = randomAccessFile.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        } finally {
+            randomAccessFile.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("Unable to rename " + tmpFile + " to " + file);
+        }
+    }
+
+    /**
+     * Returns the number of landmark records.
+     */
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * Returns the index of the latest record with the given name, or -1 if there is none.
+     */
+    int indexOf(String name) {
+        Integer index = mIndex.get(name);
+        return index == null ? -1 : index;
+    }
+
+    String getName(int index) {
+        return mNames[mBuffer.getInt(recordOffset(index) + OFFSET_NAME)];
+    }
+
+    float getX(int index) {
+        return mBuffer.getFloat(recordOffset(index) + OFFSET_TRANSLATION);
+    }
+
+    float getY(int index) {
+        return mBuffer.getFloat(recordOffset(index) + OFFSET_TRANSLATION + 4);
+    }
+
+    float getZ(int index) {
+        return mBuffer.getFloat(recordOffset(index) + OFFSET_TRANSLATION + 8);
+    }
+
+    /**
+     * Copies the translation of a record into {@code out}, x, y, z.
+     */
+    void getTranslation(int index, float[] out) {
+        int offset = recordOffset(index) + OFFSET_TRANSLATION;
+        out[0] = mBuffer.getFloat(offset);
+        out[1] = mBuffer.getFloat(offset + 4);
+        out[2] = mBuffer.getFloat(offset + 8);
+    }
+
+    /**
+     * Copies the rotation quaternion of a record into {@code out}, x, y, z, w.
+     */
+    void getRotation(int index, float[] out) {
+        int offset = recordOffset(index) + OFFSET_ROTATION;
+        out[0] = mBuffer.getFloat(offset);
+        out[1] = mBuffer.getFloat(offset + 4);
+        out[2] = mBuffer.getFloat(offset + 8);
+        out[3] = mBuffer.getFloat(offset + 12);
+    }
+
+    double getTimestamp(int index) {
+        return mBuffer.getDouble(recordOffset(index) + OFFSET_TIMESTAMP);
+    }
+
+    private int recordOffset(int index) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException("Landmark " + index + " of " + mCount);
+        }
+        return mRecordsOffset + index * RECORD_SIZE;
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.helloareadescription;
+
+/**
+ * Static k-d tree over the translations of the landmarks of a {@link LandmarkFile}, answering
+ * nearest-k, radius and heading queries in logarithmic time.
+ * <p/>
+ * The tree is implicit: the landmarks are reordered so that the median of every range is its
+ * splitting node, alternating x, y and z split axes by depth. Queries write their results into
+ * caller provided arrays and don't allocate, so they can run on the Tango callback thread.
+ * Instances are immutable and may be queried from any thread.
+ */
+final class LandmarkIndex {
+    private static final LandmarkIndex EMPTY = new LandmarkIndex(LandmarkFile.empty());
+
+    private final LandmarkFile mLandmarks;
+    // Translations in tree order, 3 floats per node, and the landmark index of every node.
+    private final float[] mPoints;
+    private final int[] mIds;
+
+    /**
+     * Builds the index of all the landmarks of the given file. Where several landmarks share a
+     * name, only the latest one is indexed.
+     */
+    LandmarkIndex(LandmarkFile landmarks) {
+        mLandmarks = landmarks;
+        int count = 0;
+        for (int i = 0; i < landmarks.size(); i++) {
+            if (landmarks.indexOf(landmarks.getName(i)) == i) {
+                count++;
+            }
+        }
+        mPoints = new float[3 * count];
+        mIds = new int[count];
+        int node = 0;
+        for (int i = 0; i < landmarks.size(); i++) {
+            if (landmarks.indexOf(landmarks.getName(i)) == i) {
+                mPoints[3 * node] = landmarks.getX(i);
+                mPoints[3 * node + 1] = landmarks.getY(i);
+                mPoints[3 * node + 2] = landmarks.getZ(i);
+                mIds[node] = i;
+                node++;
+            }
+        }
+        build(0, count, 0);
+    }
+
+    /**
+     * Returns an index without landmarks.
+     */
+    static LandmarkIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns the landmarks this index refers to.
+     */
+    LandmarkFile getLandmarks() {
+        return mLandmarks;
+    }
+
+    /**
+     * Returns the number of indexed landmarks.
+     */
+    int size() {
+        return mIds.length;
+    }
+
+    /**
+     * Finds the {@code outIds.length} nearest landmarks to a point, closest first.
+     *
+     * @param maxDistance only landmarks closer than this are returned.
+     * @param outIds      receives the landmark indices of the results.
+     * @param outDistSq   receives the squared distances of the results, at least as long as
+     *                    {@code outIds}.
+     * @return the number of results.
+     */
+    int nearest(float x, float y, float z, float maxDistance, int[] outIds, float[] outDistSq) {
+        if (outIds.length == 0) {
+            return 0;
+        }
+        return search(0, mIds.length, 0, x, y, z, false, 0, 0, 0, 0,
+                maxDistance * maxDistance, outIds, outDistSq, 0);
+    }
+
+    /**
+     * Finds the {@code outIds.length} nearest landmarks to a point that lie within a cone
+     * around the normalized heading (dx, dy, dz), closest first.
+     *
+     * @param cosHalfAngle  the cosine of the half opening angle of the cone.
+     * @param maxDistance   only landmarks closer than this are returned.
+     * @param outIds        receives the landmark indices of the results.
+     * @param outDistSq     receives the squared distances of the results, at least as long as
+     *                      {@code outIds}.
+     * @return the number of results.
+     */
+    int nearestAlong(float x, float y, float z, float dx, float dy, float dz, float cosHalfAngle,
+                     float maxDistance, int[] outIds, float[] outDistSq) {
+        if (outIds.length == 0) {
+            return 0;
+        }
+        return search(0, mIds.length, 0, x, y, z, true, dx, dy, dz, cosHalfAngle,
+                maxDistance * maxDistance, outIds, outDistSq, 0);
+    }
+
+    /**
+     * Finds the landmarks within a radius of a point, in no particular order.
+     *
+     * @param outIds receives the landmark indices of the results. Results beyond its length are
+     *               counted but not stored.
+     * @return the number of landmarks within the radius.
+     */
+    int withinRadius(float x, float y, float z, float radius, int[] outIds) {
+        return collect(0, mIds.length, 0, x, y, z, radius * radius, outIds, 0);
+    }
+
+    private int search(int lo, int hi, int axis, float x, float y, float z, boolean cone,
+                       float dx, float dy, float dz, float cosHalfAngle, float maxDistSq,
+                       int[] outIds, float[] outDistSq, int count) {
+        if (lo >= hi) {
+            return count;
+        }
+        int mid = (lo + hi) >>> 1;
+        float vx = mPoints[3 * mid] - x;
+        float vy = mPoints[3 * mid + 1] - y;
+        float vz = mPoints[3 * mid + 2] - z;
+        float distSq = vx * vx + vy * vy + vz * vz;
+        int k = outIds.length;
+        if (distSq <= maxDistSq && (count < k || distSq < outDistSq[k - 1])) {
+            float dot = vx * dx + vy * dy + vz * dz;
+            if (!cone || (dot >= 0 && dot * dot >= cosHalfAngle * cosHalfAngle * distSq)) {
+                count = insert(mIds[mid], distSq, outIds, outDistSq, count);
+            }
+        }
+
+        float diff = axis == 0 ? -vx : axis == 1 ? -vy : -vz;
+        int nextAxis = axis == 2 ? 0 : axis + 1;
+        if (diff < 0) {
+            count = search(lo, mid, nextAxis, x, y, z, cone, dx, dy, dz, cosHalfAngle, maxDistSq,
+                    outIds, outDistSq, count);
+        } else {
+            count = search(mid + 1, hi, nextAxis, x, y, z, cone, dx, dy, dz, cosHalfAngle,
+                    maxDistSq, outIds, outDistSq, count);
+        }
+        float worstDistSq = count < k ? maxDistSq : outDistSq[k - 1];
+        if (diff * diff <= worstDistSq) {
+            if (diff < 0) {
+                count = search(mid + 1, hi, nextAxis, x, y, z, cone, dx, dy, dz, cosHalfAngle,
+                        maxDistSq, outIds, outDistSq, count);
+            } else {
+                count = search(lo, mid, nextAxis, x, y, z, cone, dx, dy, dz, cosHalfAngle,
+                        maxDistSq, outIds, outDistSq, count);
+            }
+        }
+        return count;
+    }
+
+    private int collect(int lo, int hi, int axis, float x, float y, float z, float radiusSq,
+                        int[] outIds, int count) {
+        if (lo >= hi) {
+            return count;
+        }
+        int mid = (lo + hi) >>> 1;
+        float vx = mPoints[3 * mid] - x;
+        float vy = mPoints[3 * mid + 1] - y;
+        float vz = mPoints[3 * mid + 2] - z;
+        if (vx * vx + vy * vy + vz * vz <= radiusSq) {
+            if (count < outIds.length) {
+                outIds[count] = mIds[mid];
+            }
+            count++;
+        }
+        float diff = axis == 0 ? -vx : axis == 1 ? -vy : -vz;
+        int nextAxis = axis == 2 ? 0 : axis + 1;
+        if (diff < 0 || diff * diff <= radiusSq) {
+            count = collect(lo, mid, nextAxis, x, y, z, radiusSq, outIds, count);
+        }
+        if (diff >= 0 || diff * diff <= radiusSq) {
+            count = collect(mid + 1, hi, nextAxis, x, y, z, radiusSq, outIds, count);
+        }
+        return count;
+    }
+
+    /**
+     * Inserts a result into the sorted, bounded result arrays.
+     */
+    private static int insert(int id, float distSq, int[] outIds, float[] outDistSq, int count) {
+        int i = count < outIds.length ? count++ : outIds.length - 1;
+        while (i > 0 && outDistSq[i - 1] > distSq) {
+            outIds[i] = outIds[i - 1];
+            outDistSq[i] = outDistSq[i - 1];
+            i--;
+        }
+        outIds[i] = id;
+        outDistSq[i] = distSq;
+        return count;
+    }
+
+    /**
+     * Arranges the nodes in [lo, hi) so that the median on the given axis is in the middle, with
+     * smaller values before it and larger ones after it, and recurses on both halves.
+     */
+    private void build(int lo, int hi, int axis) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, axis);
+        int nextAxis = axis == 2 ? 0 : axis + 1;
+        build(lo, mid, nextAxis);
+        build(mid + 1, hi, nextAxis);
+    }
+
+    /**
+     * Quickselect: moves the k-th smallest node on the given axis within [left, right] to k.
+     */
+    private void select(int left, int right, int k, int axis) {
+        while (left < right) {
+            float pivot = mPoints[3 * ((left + right) >>> 1) + axis];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (mPoints[3 * i + axis] < pivot) {
+                    i++;
+                }
+                while (mPoints[3 * j + axis] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int a, int b) {
+        for (int c = 0; c < 3; c++) {
+            float point = mPoints[3 * a + c];
+            mPoints[3 * a + c] = mPoints[3 * b + c];
+            mPoints[3 * b + c] = point;
+        }
+        int id = mIds[a];
+        mIds[a] = mIds[b];
+        mIds[b] = id;
+    }
+}
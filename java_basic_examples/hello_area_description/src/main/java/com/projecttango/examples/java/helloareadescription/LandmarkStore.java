@@ -0,0 +1,324 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.helloareadescription;
+
+import com.google.atap.tangoservice.TangoPoseData;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the landmarks saved for an ADF in memory. The landmark file of an ADF is mapped once, the
+ * first time the ADF is loaded, so that lookups done from the Tango callback thread never touch
+ * the disk or allocate. Saving new landmarks for an ADF invalidates its cached index.
+ * <p/>
+ * Landmarks are stored in the binary {@link LandmarkFile} format, as {@code <uuid>.landmarks}.
+ * The landmarks of an ADF being saved can be staged before its UUID is known, and committed as
+ * its landmark file with a rename once it is. Staged files left behind by a save that was cut
+ * short are deleted by {@link #deleteStagedFiles()}, which leaves alone the files of the saves
+ * still running in the process, whatever store instance staged them.
+ * Landmark files of the legacy JSON format, stored as {@code <uuid>}, are migrated to the binary
+ * format the first time they are loaded.
+ */
+class LandmarkStore {
+    private static final String TAG = LandmarkStore.class.getSimpleName();
+    private static final String SUFFIX_X = "_x";
+    private static final String SUFFIX_Y = "_y";
+    private static final String SUFFIX_Z = "_z";
+    private static final String STAGED_PREFIX = "landmarks-";
+    private static final String STAGED_EXTENSION = ".staged";
+
+    // The names of the staged files not yet committed nor discarded, shared by the stores of all
+    // the activity instances of the process. Guarded by itself.
+    private static final Set<String> STAGING_FILES = new HashSet<String>();
+
+    private final File mDirectory;
+
+    // Written under the lock of this, read without locking. LandmarkIndex is immutable.
+    private volatile String mLoadedUuid;
+    private volatile LandmarkIndex mIndex = LandmarkIndex.empty();
+    private volatile String mContents = "";
+
+    /**
+     * @param directory the folder holding one landmark file per ADF UUID, usually
+     *                  {@code Context.getFilesDir()}.
+     */
+    LandmarkStore(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Loads the landmarks of the given ADF into memory, unless they are already loaded.
+     * Performs file I/O, so don't call it from the pose callback.
+     */
+    synchronized void load(String adfUuid) {
+        if (adfUuid.equals(mLoadedUuid)) {
+            return;
+        }
+
+        File file = getLandmarkFile(adfUuid);
+        File legacyFile = new File(mDirectory, adfUuid);
+        if (!file.exists() && legacyFile.exists()) {
+            migrate(legacyFile, file);
+        }
+
+        LandmarkFile landmarks = LandmarkFile.empty();
+        if (file.exists()) {
+            try {
+                landmarks = LandmarkFile.open(file);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to read landmarks of ADF " + adfUuid, e);
+            }
+        }
+
+        StringBuilder contents = new StringBuilder();
+        for (int i = 0; i < landmarks.size(); i++) {
+            contents.append(landmarks.getName(i)).append(": ").append(landmarks.getX(i))
+                    .append(", ").append(landmarks.getY(i))
+                    .append(", ").append(landmarks.getZ(i)).append('\n');
+        }
+
+        mIndex = new LandmarkIndex(landmarks);
+        mContents = contents.toString();
+        mLoadedUuid = adfUuid;
+    }
+
+    /**
+     * Copies the translation of the named landmark of the loaded ADF into {@code out}.
+     * Safe to call from the pose callback: no I/O and no allocation.
+     *
+     * @return false if no ADF is loaded or it has no landmark with that name.
+     */
+    boolean getTranslation(String name, float[] out) {
+        LandmarkFile landmarks = mIndex.getLandmarks();
+        int index = landmarks.indexOf(name);
+        if (index < 0) {
+            return false;
+        }
+        landmarks.getTranslation(index, out);
+        return true;
+    }
+
+    /**
+     * Returns the spatial index of the landmarks of the loaded ADF. Landmark indices returned by
+     * its queries refer to {@link LandmarkIndex#getLandmarks()}.
+     */
+    LandmarkIndex getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * Returns a listing of the landmarks of the loaded ADF, for display purposes.
+     */
+    String getContents() {
+        return mContents;
+    }
+
+    /**
+     * Writes the given landmarks to a staged file, to be committed as the landmark file of an
+     * ADF or discarded. Performs file I/O, so don't call it from the UI thread.
+     */
+    File stage(List<String> names, List<TangoPoseData> poses) throws IOException {
+        int count = poses.size();
+        float[] translations = new float[3 * count];
+        float[] rotations = new float[4 * count];
+        double[] timestamps = new double[count];
+        for (int i = 0; i < count; i++) {
+            TangoPoseData pose = poses.get(i);
+            for (int j = 0; j < 3; j++) {
+                translations[3 * i + j] = (float) pose.translation[j];
+            }
+            for (int j = 0; j < 4; j++) {
+                rotations[4 * i + j] = (float) pose.rotation[j];
+            }
+            timestamps[i] = pose.timestamp;
+        }
+
+        File staged = new File(mDirectory,
+                STAGED_PREFIX + System.nanoTime() + STAGED_EXTENSION);
+        synchronized (STAGING_FILES) {
+            STAGING_FILES.add(staged.getName());
+        }
+        try {
+            LandmarkFile.write(staged, names, translations, rotations, timestamps);
+        } catch (IOException e) {
+            release(staged);
+            throw e;
+        }
+        return staged;
+    }
+
+    /**
+     * Renames a staged file to the landmark file of an ADF and invalidates its cached index, if
+     * loaded. The rename replaces the previous landmark file atomically.
+     */
+    synchronized void commit(File staged, String adfUuid) throws IOException {
+        File file = getLandmarkFile(adfUuid);
+        try {
+            if (!staged.renameTo(file)) {
+                staged.delete();
+                throw new IOException("Unable to rename " + staged + " to " + file);
+            }
+        } finally {
+            release(staged);
+        }
+
+        if (adfUuid.equals(mLoadedUuid)) {
+            mLoadedUuid = null;
+            mIndex = LandmarkIndex.empty();
+            mContents = "";
+        }
+    }
+
+    /**
+     * Deletes a staged file, when the ADF it was staged for couldn't be saved.
+     */
+    void discard(File staged) {
+        if (!staged.delete()) {
+            Log.w(TAG, "Unable to delete " + staged);
+        }
+        release(staged);
+    }
+
+    /**
+     * Deletes the staged files of saves that never committed nor discarded them, such as when
+     * the process was killed while saving. Performs file I/O, so don't call it from the UI
+     * thread.
+     */
+    void deleteStagedFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(STAGED_PREFIX) || !name.endsWith(STAGED_EXTENSION)) {
+                continue;
+            }
+            // Checked under the lock, so that a save can't start staging this file in between.
+            synchronized (STAGING_FILES) {
+                if (!STAGING_FILES.contains(name) && !file.delete()) {
+                    Log.w(TAG, "Unable to delete " + file);
+                }
+            }
+        }
+    }
+
+    private static void release(File staged) {
+        synchronized (STAGING_FILES) {
+            STAGING_FILES.remove(staged.getName());
+        }
+    }
+
+    private File getLandmarkFile(String adfUuid) {
+        return new File(mDirectory, adfUuid + LandmarkFile.EXTENSION);
+    }
+
+    /**
+     * Converts a landmark file of the legacy JSON format, which maps {@code <name>_x},
+     * {@code <name>_y} and {@code <name>_z} to stringified floats, to the binary format, and
+     * deletes it once converted.
+     */
+    private static void migrate(File legacyFile, File file) {
+        String contents = readFile(legacyFile);
+        List<String> names = new ArrayList<String>();
+        float[] translations;
+        try {
+            JSONObject landmarks = new JSONObject(contents.isEmpty() ? "{}" : contents);
+            translations = new float[3 * landmarks.length()];
+            Iterator<String> keys = landmarks.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                if (!key.endsWith(SUFFIX_X)) {
+                    continue;
+                }
+                String name = key.substring(0, key.length() - SUFFIX_X.length());
+                int offset = 3 * names.size();
+                translations[offset] = Float.parseFloat(landmarks.getString(key));
+                translations[offset + 1] = Float.parseFloat(landmarks.getString(name + SUFFIX_Y));
+                translations[offset + 2] = Float.parseFloat(landmarks.getString(name + SUFFIX_Z));
+                names.add(name);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Unable to migrate landmarks from " + legacyFile, e);
+            return;
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Unable to migrate landmarks from " + legacyFile, e);
+            return;
+        }
+
+        // The legacy format only stored translations.
+        float[] rotations = new float[4 * names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            rotations[4 * i + 3] = 1;
+        }
+        try {
+            LandmarkFile.write(file, names, translations, rotations, new double[names.size()]);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to migrate landmarks from " + legacyFile, e);
+            return;
+        }
+        if (!legacyFile.delete()) {
+            Log.w(TAG, "Unable to delete migrated " + legacyFile);
+        }
+    }
+
+    private static String readFile(File file) {
+        if (!file.exists()) {
+            return "";
+        }
+        StringBuilder contents = new StringBuilder();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                contents.append(line);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read " + file, e);
+        } finally {
+            closeQuietly(reader);
+        }
+        return contents.toString();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to close stream", e);
+        }
+    }
+}
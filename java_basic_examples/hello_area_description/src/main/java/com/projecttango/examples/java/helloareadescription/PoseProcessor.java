@@ -0,0 +1,318 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.helloareadescription;
+
+import com.google.atap.tangoservice.TangoPoseData;
+import com.projecttango.examples.java.utils.AsyncLogger;
+import com.projecttango.examples.java.utils.PoseFilter;
+
+import java.util.Arrays;
+
+/**
+ * Handles the poses of the area description session of {@link HelloAreaDescriptionActivity}:
+ * tracks relocalization, filters the device pose in the ADF frame, looks the landmarks around
+ * the device up, updates the turn-by-turn navigation, and publishes the result as a
+ * {@link PoseSnapshot} for the UI thread.
+ * <p/>
+ * All the state lives in fields and arrays allocated up front, so that handling a pose never
+ * allocates. The pose passed to {@link #onPoseAvailable} belongs to the Tango service and is
+ * left untouched. Only {@link #setChosenLandmark} and {@link #acquireSnapshot} may be called
+ * from other threads; everything else is meant for the pose callback thread.
+ */
+final class PoseProcessor {
+    private static final int SECS_TO_MILLISECS = 1000;
+    // The UI is updated with the latest snapshot at most this often.
+    static final double UPDATE_INTERVAL_MS = 100.0;
+
+    // The destination is reached within this distance, and left again beyond it plus the
+    // margin, so that jitter around the boundary doesn't make the result flap.
+    private static final float DESTINATION_RADIUS_M = 0.5f;
+    private static final float DESTINATION_MARGIN_M = 0.25f;
+
+    // Landmarks closer than this are announced as nearby.
+    private static final float NEARBY_RADIUS_M = 2.0f;
+    // Landmarks closer than this and within the heading cone are announced as ahead.
+    private static final float AHEAD_DISTANCE_M = 10.0f;
+    private static final float AHEAD_COS_HALF_ANGLE = (float) Math.cos(Math.toRadians(20.0));
+
+    // Device poses in the ADF frame are smoothed, and outliers rejected, before use.
+    private static final int POSE_FILTER_MODE = PoseFilter.MODE_ONE_EURO;
+    private final PoseFilter mPoseFilter = new PoseFilter(POSE_FILTER_MODE);
+
+    private final AsyncLogger mLogger;
+    private final int mRelocalizedEvent;
+    private final int mRelocalizationLostEvent;
+    private final float[] mDestinationTranslation;
+
+    // Hands the state computed from the poses over to the UI thread without locking.
+    private final TripleBuffer<PoseSnapshot> mPoseSnapshots =
+            new TripleBuffer<PoseSnapshot>(new PoseSnapshot(), new PoseSnapshot(),
+                    new PoseSnapshot());
+
+    private double mPreviousPoseTimeStamp;
+    private double mTimeToNextUpdate = UPDATE_INTERVAL_MS;
+    private boolean mIsRelocalized;
+    private boolean mReachedDestination;
+
+    // Latest device translation in the ADF frame, reused for every pose.
+    private final float[] mTranslation = new float[3];
+    // Latest device pose in the ADF frame, filtered.
+    private final double[] mFilteredTranslation = new double[3];
+    private final double[] mFilteredRotation = {0, 0, 0, 1};
+    private double mFilteredTimestamp;
+    // Last known horizontal heading of the device in the ADF frame.
+    private final float[] mHeading = {0, 1, 0};
+
+    // Landmarks of the ADF of the session.
+    private String mLandmarksStored = "";
+    private final float[] mChosenTranslation = new float[3];
+    private final int[] mFoundLandmarks = new int[1];
+    private final float[] mFoundDistancesSq = new float[1];
+    private String mNearbyLandmark;
+    private String mLandmarkAhead;
+
+    // Turn-by-turn navigation to the chosen landmark.
+    private volatile String mChosenLandmark;
+    private RouteNavigator mNavigator =
+            new RouteNavigator(new WaypointGraph(LandmarkIndex.empty()));
+    private String mNavigationDestination;
+    private int mLastNearbyNode = -1;
+    private int mInstruction = RouteNavigator.INSTRUCTION_NONE;
+    private String mNextWaypointName;
+    private float mDistanceToNextWaypoint;
+
+    /**
+     * @param logger logs the relocalization changes, with the given events.
+     * @param destinationTranslation the translation of the destination in the ADF frame.
+     */
+    PoseProcessor(AsyncLogger logger, int relocalizedEvent, int relocalizationLostEvent,
+                  float[] destinationTranslation) {
+        mLogger = logger;
+        mRelocalizedEvent = relocalizedEvent;
+        mRelocalizationLostEvent = relocalizationLostEvent;
+        mDestinationTranslation = destinationTranslation;
+    }
+
+    /**
+     * Starts a session over the given landmarks, forgetting the state of the previous session:
+     * we don't know where the device went while the session was paused. Call it before the poses
+     * of the session start coming.
+     *
+     * @param landmarksStored a listing of the landmarks, for display purposes.
+     */
+    void start(LandmarkIndex landmarks, String landmarksStored) {
+        mNavigator = new RouteNavigator(new WaypointGraph(landmarks));
+        mNavigationDestination = null;
+        mLastNearbyNode = -1;
+        mLandmarksStored = landmarksStored;
+        mIsRelocalized = false;
+        mReachedDestination = false;
+        mPoseFilter.reset();
+    }
+
+    /**
+     * Sets the name of the landmark to navigate to, or null. Can be called from any thread.
+     */
+    void setChosenLandmark(String name) {
+        mChosenLandmark = name;
+    }
+
+    /**
+     * Returns the latest published snapshot, valid until the next call. UI thread only.
+     */
+    PoseSnapshot acquireSnapshot() {
+        return mPoseSnapshots.acquire();
+    }
+
+    /**
+     * Handles a pose of any of the frame pairs of the session, and publishes a new snapshot.
+     *
+     * @return true when the UI should be updated with the latest snapshot, every
+     * {@link #UPDATE_INTERVAL_MS}.
+     */
+    boolean onPoseAvailable(TangoPoseData pose) {
+        // Check for Device wrt ADF pose, Device wrt Start of Service pose, Start of
+        // Service wrt ADF pose (This pose determines if the device is relocalized or
+        // not).
+        if (pose.baseFrame == TangoPoseData.COORDINATE_FRAME_AREA_DESCRIPTION
+                && pose.targetFrame == TangoPoseData.COORDINATE_FRAME_DEVICE) {
+            if (pose.statusCode == TangoPoseData.POSE_VALID) {
+                if (!mIsRelocalized) {
+                    mLogger.log(mRelocalizedEvent);
+                }
+                mIsRelocalized = true;
+
+                // Filtered in a copy, and only published to the UI thread, where it is saved as
+                // a landmark, once the whole pose is filtered.
+                System.arraycopy(pose.translation, 0, mFilteredTranslation, 0, 3);
+                System.arraycopy(pose.rotation, 0, mFilteredRotation, 0, 4);
+                mFilteredTimestamp = pose.timestamp;
+                mPoseFilter.filter(pose.timestamp, mFilteredTranslation, mFilteredRotation);
+
+                // Copy into the reused buffer rather than calling getTranslationAsFloats(),
+                // which allocates a new array every pose.
+                mTranslation[0] = (float) mFilteredTranslation[TangoPoseData.INDEX_TRANSLATION_X];
+                mTranslation[1] = (float) mFilteredTranslation[TangoPoseData.INDEX_TRANSLATION_Y];
+                mTranslation[2] = (float) mFilteredTranslation[TangoPoseData.INDEX_TRANSLATION_Z];
+
+                getHorizontalHeading(mFilteredRotation, mHeading);
+                findLandmarksAround(mTranslation);
+                updateNavigation(mTranslation);
+                updateDestination(mTranslation);
+            } else {
+                if (mIsRelocalized) {
+                    mLogger.log(mRelocalizationLostEvent);
+                }
+                mIsRelocalized = false;
+                mPoseFilter.reset();
+                mReachedDestination = false;
+            }
+        }
+
+        double deltaTime = (pose.timestamp - mPreviousPoseTimeStamp) * SECS_TO_MILLISECS;
+        mPreviousPoseTimeStamp = pose.timestamp;
+        mTimeToNextUpdate -= deltaTime;
+
+        // Published on every pose, so that a landmark is saved at the latest pose, but only
+        // shown every UPDATE_INTERVAL_MS.
+        publishPoseSnapshot();
+        if (mTimeToNextUpdate < 0.0) {
+            mTimeToNextUpdate = UPDATE_INTERVAL_MS;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Copies the latest state into a snapshot and publishes it to the UI thread.
+     */
+    private void publishPoseSnapshot() {
+        PoseSnapshot snapshot = mPoseSnapshots.getBack();
+        snapshot.relocalized = mIsRelocalized;
+        snapshot.x = mTranslation[0];
+        snapshot.y = mTranslation[1];
+        snapshot.z = mTranslation[2];
+        snapshot.timestamp = mFilteredTimestamp;
+        System.arraycopy(mFilteredTranslation, 0, snapshot.translation, 0, 3);
+        System.arraycopy(mFilteredRotation, 0, snapshot.rotation, 0, 4);
+        snapshot.reachedDestination = mReachedDestination;
+        snapshot.landmarkX = mChosenTranslation[0];
+        snapshot.landmarkY = mChosenTranslation[1];
+        snapshot.landmarkZ = mChosenTranslation[2];
+        snapshot.landmarksStored = mLandmarksStored;
+        snapshot.nearbyLandmark = mNearbyLandmark;
+        snapshot.landmarkAhead = mLandmarkAhead;
+        snapshot.instruction = mInstruction;
+        snapshot.nextWaypointName = mNextWaypointName;
+        snapshot.distanceToNextWaypoint = mDistanceToNextWaypoint;
+        mPoseSnapshots.publish();
+    }
+
+    /**
+     * Finds the nearest landmark around the device and the nearest landmark in the direction the
+     * device is pointing at, using the spatial index of the loaded landmarks. Walking from one
+     * nearby landmark to another teaches the navigator that they are connected.
+     *
+     * @param translation the device translation in the ADF frame.
+     */
+    private void findLandmarksAround(float[] translation) {
+        LandmarkIndex landmarkIndex = mNavigator.getGraph().getIndex();
+        LandmarkFile landmarks = landmarkIndex.getLandmarks();
+
+        int found = landmarkIndex.nearest(translation[0], translation[1], translation[2],
+                NEARBY_RADIUS_M, mFoundLandmarks, mFoundDistancesSq);
+        mNearbyLandmark = null;
+        if (found > 0) {
+            int nearbyNode = mFoundLandmarks[0];
+            mNearbyLandmark = landmarks.getName(nearbyNode);
+            if (mLastNearbyNode != -1 && mLastNearbyNode != nearbyNode) {
+                mNavigator.learnEdge(mLastNearbyNode, nearbyNode);
+            }
+            mLastNearbyNode = nearbyNode;
+        }
+
+        found = landmarkIndex.nearestAlong(translation[0], translation[1], translation[2],
+                mHeading[0], mHeading[1], mHeading[2], AHEAD_COS_HALF_ANGLE,
+                AHEAD_DISTANCE_M, mFoundLandmarks, mFoundDistancesSq);
+        mLandmarkAhead = found > 0 ? landmarks.getName(mFoundLandmarks[0]) : null;
+    }
+
+    /**
+     * Updates the turn-by-turn guidance towards the chosen landmark.
+     *
+     * @param translation the device translation in the ADF frame.
+     */
+    private void updateNavigation(float[] translation) {
+        LandmarkFile landmarks = mNavigator.getGraph().getIndex().getLandmarks();
+        String destination = mChosenLandmark;
+        if (destination != mNavigationDestination) {
+            mNavigationDestination = destination;
+            int node = destination == null ? -1 : landmarks.indexOf(destination);
+            mNavigator.setDestination(node);
+            if (node != -1) {
+                landmarks.getTranslation(node, mChosenTranslation);
+            } else {
+                // No destination, or one missing from the ADF: don't keep showing the previous.
+                Arrays.fill(mChosenTranslation, 0);
+            }
+        }
+
+        mInstruction = mNavigator.update(translation[0], translation[1], translation[2],
+                mHeading[0], mHeading[1]);
+        int nextWaypoint = mNavigator.getNextWaypoint();
+        mNextWaypointName = nextWaypoint != -1 ? landmarks.getName(nextWaypoint) : null;
+        mDistanceToNextWaypoint = mNavigator.getDistanceToNext();
+    }
+
+    /**
+     * Updates whether the destination is reached, with hysteresis.
+     *
+     * @param translation the device translation in the ADF frame.
+     */
+    private void updateDestination(float[] translation) {
+        float dx = translation[0] - mDestinationTranslation[0];
+        float dy = translation[1] - mDestinationTranslation[1];
+        float dz = translation[2] - mDestinationTranslation[2];
+        float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        mReachedDestination = distance < (mReachedDestination ?
+                DESTINATION_RADIUS_M + DESTINATION_MARGIN_M : DESTINATION_RADIUS_M);
+    }
+
+    /**
+     * Computes the direction the device camera points at (the device -Z axis) projected on the
+     * horizontal plane of the ADF frame, normalized.
+     *
+     * @return false if the device points straight up or down and there is no heading, in which
+     * case {@code out} is left untouched.
+     */
+    private static boolean getHorizontalHeading(double[] rotation, float[] out) {
+        double x = rotation[TangoPoseData.INDEX_ROTATION_X];
+        double y = rotation[TangoPoseData.INDEX_ROTATION_Y];
+        double z = rotation[TangoPoseData.INDEX_ROTATION_Z];
+        double w = rotation[TangoPoseData.INDEX_ROTATION_W];
+        double headingX = -2 * (x * z + w * y);
+        double headingY = -2 * (y * z - w * x);
+        double norm = Math.sqrt(headingX * headingX + headingY * headingY);
+        if (norm < 1e-3) {
+            return false;
+        }
+        out[0] = (float) (headingX / norm);
+        out[1] = (float) (headingY / norm);
+        out[2] = 0;
+        return true;
+    }
+}
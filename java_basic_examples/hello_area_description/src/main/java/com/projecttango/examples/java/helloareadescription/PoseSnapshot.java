@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.helloareadescription;
+
+/**
+ * State computed by the pose callback and displayed by the UI thread, handed over through a
+ * {@link TripleBuffer} so that the UI always displays a consistent tuple.
+ */
+final class PoseSnapshot {
+    boolean relocalized;
+    // Device translation in the ADF frame.
+    float x;
+    float y;
+    float z;
+    // Filtered device pose in the ADF frame, saved when a landmark is.
+    double timestamp;
+    final double[] translation = new double[3];
+    final double[] rotation = {0, 0, 0, 1};
+    // Translation of the chosen landmark.
+    float landmarkX;
+    float landmarkY;
+    float landmarkZ;
+    String landmarksStored;
+    String nearbyLandmark;
+    String landmarkAhead;
+    int instruction = RouteNavigator.INSTRUCTION_NONE;
+    String nextWaypointName;
+    float distanceToNextWaypoint;
+    boolean reachedDestination;
+}
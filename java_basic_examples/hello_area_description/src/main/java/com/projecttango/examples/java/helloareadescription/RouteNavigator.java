@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.helloareadescription;
+
+/**
+ * Follows a route to a destination landmark, producing turn-by-turn guidance from the device
+ * pose.
+ * <p/>
+ * The route is planned with a {@link RoutePlanner} from the node nearest to the device, and
+ * planned again whenever the device strays further than {@link #DEVIATION_M} from the current
+ * route segment. The planner keeps a shortest path tree towards the destination, so planning
+ * again only walks the new route and fits well within a pose callback. Meant to be updated from
+ * the pose callback: no allocation happens after construction, unless edges are learned. Not
+ * thread safe.
+ */
+final class RouteNavigator {
+    static final int INSTRUCTION_NONE = 0;
+    static final int INSTRUCTION_STRAIGHT = 1;
+    static final int INSTRUCTION_LEFT = 2;
+    static final int INSTRUCTION_RIGHT = 3;
+    static final int INSTRUCTION_ARRIVED = 4;
+    static final int INSTRUCTION_NO_ROUTE = 5;
+
+    // A waypoint is reached when the device is closer than this to it.
+    static final float ARRIVAL_RADIUS_M = 1.0f;
+    // The route is planned again when the device is further than this from the route.
+    static final float DEVIATION_M = 3.0f;
+    // Headings within this angle of the next waypoint direction are considered straight.
+    private static final float COS_STRAIGHT = (float) Math.cos(Math.toRadians(30.0));
+
+    private static final int NO_NODE = -1;
+
+    private final WaypointGraph mGraph;
+    private final RoutePlanner mPlanner;
+    private final int[] mRoute;
+    private final int[] mScratchId = new int[1];
+    private final float[] mScratchDistSq = new float[1];
+
+    private int mDestination = NO_NODE;
+    private int mRouteLength;
+    // Index in mRoute of the waypoint the device is walking to.
+    private int mNextWaypoint;
+    private int mInstruction = INSTRUCTION_NONE;
+    private float mDistanceToNext;
+
+    RouteNavigator(WaypointGraph graph) {
+        mGraph = graph;
+        mPlanner = new RoutePlanner(graph);
+        mRoute = new int[graph.getNodeCount()];
+    }
+
+    WaypointGraph getGraph() {
+        return mGraph;
+    }
+
+    /**
+     * Sets the destination node, or -1 to stop navigating. The route is planned on the next
+     * {@link #update}.
+     */
+    void setDestination(int node) {
+        mDestination = node;
+        mRouteLength = 0;
+        mInstruction = INSTRUCTION_NONE;
+        if (node != NO_NODE) {
+            mPlanner.setGoal(node);
+        }
+    }
+
+    /**
+     * Records that the user walked directly between two nodes, connecting them in the graph and
+     * updating the routes to the destination accordingly.
+     */
+    void learnEdge(int a, int b) {
+        if (a == b || mGraph.isConnected(a, b)
+                || mGraph.distance(a, b) > WaypointGraph.MAX_EDGE_LENGTH_M) {
+            return;
+        }
+        mGraph.addEdge(a, b);
+        mPlanner.onEdgeAdded(a, b, mGraph.distance(a, b));
+    }
+
+    int getDestination() {
+        return mDestination;
+    }
+
+    /**
+     * Updates the guidance for a new device position (x, y, z) and normalized horizontal heading
+     * (headingX, headingY), both in the ADF frame.
+     *
+     * @return the instruction to follow, one of the {@code INSTRUCTION_} constants.
+     */
+    int update(float x, float y, float z, float headingX, float headingY) {
+        if (mDestination == NO_NODE) {
+            mInstruction = INSTRUCTION_NONE;
+            return mInstruction;
+        }
+        if (mRouteLength == 0 || isOffRoute(x, y)) {
+            plan(x, y, z);
+            if (mRouteLength == 0) {
+                mInstruction = INSTRUCTION_NO_ROUTE;
+                return mInstruction;
+            }
+        }
+
+        // Skip the waypoints already reached.
+        while (mNextWaypoint < mRouteLength
+                && horizontalDistance(x, y, mRoute[mNextWaypoint]) < ARRIVAL_RADIUS_M) {
+            mNextWaypoint++;
+        }
+        if (mNextWaypoint == mRouteLength) {
+            mDistanceToNext = 0;
+            mInstruction = INSTRUCTION_ARRIVED;
+            return mInstruction;
+        }
+
+        int next = mRoute[mNextWaypoint];
+        float toNextX = mGraph.getX(next) - x;
+        float toNextY = mGraph.getY(next) - y;
+        mDistanceToNext = (float) Math.sqrt(toNextX * toNextX + toNextY * toNextY);
+        float cos = (headingX * toNextX + headingY * toNextY) / mDistanceToNext;
+        if (cos >= COS_STRAIGHT) {
+            mInstruction = INSTRUCTION_STRAIGHT;
+        } else {
+            // The ADF frame is right handed with Z up, so a positive cross product means the
+            // waypoint is counter-clockwise from the heading, i.e. to the left.
+            float cross = headingX * toNextY - headingY * toNextX;
+            mInstruction = cross > 0 ? INSTRUCTION_LEFT : INSTRUCTION_RIGHT;
+        }
+        return mInstruction;
+    }
+
+    int getInstruction() {
+        return mInstruction;
+    }
+
+    /**
+     * Returns the node the device is walking to, or -1 if there is none.
+     */
+    int getNextWaypoint() {
+        return mRouteLength > 0 && mNextWaypoint < mRouteLength
+                ? mRoute[mNextWaypoint] : NO_NODE;
+    }
+
+    /**
+     * Returns the horizontal distance to the next waypoint, in meters.
+     */
+    float getDistanceToNext() {
+        return mDistanceToNext;
+    }
+
+    private void plan(float x, float y, float z) {
+        mRouteLength = 0;
+        mNextWaypoint = 0;
+        int start = mGraph.nearestNode(x, y, z, mScratchId, mScratchDistSq);
+        if (start == NO_NODE) {
+            return;
+        }
+        int length = mPlanner.routeToGoal(start, mRoute);
+        mRouteLength = length > 0 ? length : 0;
+    }
+
+    /**
+     * Returns whether the device is further than {@link #DEVIATION_M} from the segment between
+     * the previous and next waypoints, or from the first or last waypoint when it hasn't reached
+     * the route yet or has arrived. Walking away after arriving plans the route again.
+     */
+    private boolean isOffRoute(float x, float y) {
+        if (mNextWaypoint == 0) {
+            return horizontalDistance(x, y, mRoute[0]) > DEVIATION_M;
+        }
+        if (mNextWaypoint >= mRouteLength) {
+            return horizontalDistance(x, y, mRoute[mRouteLength - 1]) > DEVIATION_M;
+        }
+        int from = mRoute[mNextWaypoint - 1];
+        int to = mRoute[mNextWaypoint];
+        float ax = mGraph.getX(from);
+        float ay = mGraph.getY(from);
+        float abx = mGraph.getX(to) - ax;
+        float aby = mGraph.getY(to) - ay;
+        float lengthSq = abx * abx + aby * aby;
+        float t = lengthSq > 0 ? ((x - ax) * abx + (y - ay) * aby) / lengthSq : 0;
+        t = Math.max(0, Math.min(1, t));
+        float dx = ax + t * abx - x;
+        float dy = ay + t * aby - y;
+        return dx * dx + dy * dy > DEVIATION_M * DEVIATION_M;
+    }
+
+    private float horizontalDistance(float x, float y, int node) {
+        float dx = mGraph.getX(node) - x;
+        float dy = mGraph.getY(node) - y;
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.Arrays;
+
+/**
+ * Shortest route searches over a {@link WaypointGraph}.
+ * <p/>
+ * Point to point routes are found with A*, using the straight line distance to the goal as
+ * heuristic. For navigation, where the route to the same goal has to be planned again every time
+ * the user strays from it, the planner also keeps a shortest path tree rooted at the goal: it is
+ * computed once per goal, updated incrementally when edges are learned, and routes from any node
+ * are then read off it in time proportional to the route length.
+ * <p/>
+ * All the search state lives in arrays sized for the graph and reused across searches: search
+ * generations are stamped rather than cleared, so a search only touches the nodes it visits and
+ * doesn't allocate unless the graph has grown. Not thread safe.
+ */
+final class RoutePlanner {
+    private static final int NO_NODE = -1;
+
+    private final WaypointGraph mGraph;
+
+    private int mGeneration;
+    private final int[] mSeenGeneration;
+    private final int[] mClosedGeneration;
+    private final float[] mCost;
+    private final int[] mParent;
+
+    // Shortest path tree towards mGoal: cost to the goal and next node on the way, per node.
+    private int mGoal = NO_NODE;
+    private final float[] mGoalCost;
+    private final int[] mNextHop;
+
+    // Binary min-heap of (estimated total cost, node) entries. Nodes are pushed again when their
+    // cost improves, and stale entries are skipped when popped.
+    private float[] mHeapKeys = new float[0];
+    private int[] mHeapNodes = new int[0];
+    private int mHeapSize;
+
+    RoutePlanner(WaypointGraph graph) {
+        mGraph = graph;
+        int nodeCount = graph.getNodeCount();
+        mSeenGeneration = new int[nodeCount];
+        mClosedGeneration = new int[nodeCount];
+        mCost = new float[nodeCount];
+        mParent = new int[nodeCount];
+        mGoalCost = new float[nodeCount];
+        mNextHop = new int[nodeCount];
+    }
+
+    /**
+     * Finds the shortest route between two nodes.
+     *
+     * @param outRoute receives the nodes of the route, {@code from} and {@code to} included.
+     * @return the number of nodes in the route, or -1 if {@code to} can't be reached from
+     * {@code from} or the route doesn't fit in {@code outRoute}.
+     */
+    int findRoute(int from, int to, int[] outRoute) {
+        startSearch();
+
+        mSeenGeneration[from] = mGeneration;
+        mCost[from] = 0;
+        mParent[from] = NO_NODE;
+        push(mGraph.distance(from, to), from);
+
+        while (mHeapSize > 0) {
+            int node = mHeapNodes[0];
+            pop();
+            if (mClosedGeneration[node] == mGeneration) {
+                continue;
+            }
+            if (node == to) {
+                return buildRoute(to, outRoute);
+            }
+            mClosedGeneration[node] = mGeneration;
+
+            for (int edge = mGraph.firstEdge(node); edge != NO_NODE;
+                 edge = mGraph.nextEdge(edge)) {
+                int target = mGraph.edgeTarget(edge);
+                if (mClosedGeneration[target] == mGeneration) {
+                    continue;
+                }
+                float cost = mCost[node] + mGraph.edgeLength(edge);
+                if (mSeenGeneration[target] != mGeneration || cost < mCost[target]) {
+                    mSeenGeneration[target] = mGeneration;
+                    mCost[target] = cost;
+                    mParent[target] = node;
+                    push(cost + mGraph.distance(target, to), target);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Computes the shortest path tree towards a goal, with Dijkstra's algorithm over the whole
+     * graph. Call {@link #onEdgeAdded} afterwards whenever the graph gains an edge.
+     */
+    void setGoal(int goal) {
+        mGoal = goal;
+        Arrays.fill(mGoalCost, Float.POSITIVE_INFINITY);
+        Arrays.fill(mNextHop, NO_NODE);
+        mGoalCost[goal] = 0;
+        startSearch();
+        push(0, goal);
+        relaxTree();
+    }
+
+    int getGoal() {
+        return mGoal;
+    }
+
+    /**
+     * Updates the shortest path tree for a new edge between {@code a} and {@code b}. Only the
+     * nodes whose route to the goal gets shorter through the new edge are visited.
+     */
+    void onEdgeAdded(int a, int b, float length) {
+        if (mGoal == NO_NODE) {
+            return;
+        }
+        startSearch();
+        if (mGoalCost[b] + length < mGoalCost[a]) {
+            mGoalCost[a] = mGoalCost[b] + length;
+            mNextHop[a] = b;
+            push(mGoalCost[a], a);
+        } else if (mGoalCost[a] + length < mGoalCost[b]) {
+            mGoalCost[b] = mGoalCost[a] + length;
+            mNextHop[b] = a;
+            push(mGoalCost[b], b);
+        }
+        relaxTree();
+    }
+
+    /**
+     * Reads the shortest route from a node to the goal off the shortest path tree.
+     *
+     * @param outRoute receives the nodes of the route, {@code from} and the goal included.
+     * @return the number of nodes in the route, or -1 if there is no goal, the goal can't be
+     * reached from {@code from} or the route doesn't fit in {@code outRoute}.
+     */
+    int routeToGoal(int from, int[] outRoute) {
+        if (mGoal == NO_NODE || mGoalCost[from] == Float.POSITIVE_INFINITY) {
+            return -1;
+        }
+        int length = 0;
+        for (int node = from; node != NO_NODE; node = mNextHop[node]) {
+            if (length == outRoute.length) {
+                return -1;
+            }
+            outRoute[length++] = node;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the length in meters of the shortest route from a node to the goal, or infinity if
+     * it can't be reached.
+     */
+    float getCostToGoal(int node) {
+        return mGoal == NO_NODE ? Float.POSITIVE_INFINITY : mGoalCost[node];
+    }
+
+    /**
+     * Dijkstra's algorithm over the shortest path tree, from the nodes currently in the heap.
+     */
+    private void relaxTree() {
+        while (mHeapSize > 0) {
+            float cost = mHeapKeys[0];
+            int node = mHeapNodes[0];
+            pop();
+            if (cost > mGoalCost[node]) {
+                continue;
+            }
+            for (int edge = mGraph.firstEdge(node); edge != NO_NODE;
+                 edge = mGraph.nextEdge(edge)) {
+                int target = mGraph.edgeTarget(edge);
+                float targetCost = cost + mGraph.edgeLength(edge);
+                if (targetCost < mGoalCost[target]) {
+                    mGoalCost[target] = targetCost;
+                    mNextHop[target] = node;
+                    push(targetCost, target);
+                }
+            }
+        }
+    }
+
+    /**
+     * Resets the heap, making sure it is large enough for a search over the current graph, and
+     * starts a new search generation.
+     */
+    private void startSearch() {
+        // Every push follows an edge relaxation, so a search never pushes more than one entry per
+        // edge plus the start nodes.
+        int heapCapacity = mGraph.getEdgeCount() + 2;
+        if (mHeapNodes.length < heapCapacity) {
+            mHeapKeys = new float[heapCapacity];
+            mHeapNodes = new int[heapCapacity];
+        }
+        mHeapSize = 0;
+        if (mGeneration == Integer.MAX_VALUE) {
+            Arrays.fill(mSeenGeneration, 0);
+            Arrays.fill(mClosedGeneration, 0);
+            mGeneration = 0;
+        }
+        mGeneration++;
+    }
+
+    private int buildRoute(int to, int[] outRoute) {
+        int length = 0;
+        for (int node = to; node != NO_NODE; node = mParent[node]) {
+            length++;
+        }
+        if (length > outRoute.length) {
+            return -1;
+        }
+        int i = length;
+        for (int node = to; node != NO_NODE; node = mParent[node]) {
+            outRoute[--i] = node;
+        }
+        return length;
+    }
+
+    private void push(float key, int node) {
+        int i = mHeapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (mHeapKeys[parent] <= key) {
+                break;
+            }
+            mHeapKeys[i] = mHeapKeys[parent];
+            mHeapNodes[i] = mHeapNodes[parent];
+            i = parent;
+        }
+        mHeapKeys[i] = key;
+        mHeapNodes[i] = node;
+    }
+
+    private void pop() {
+        mHeapSize--;
+        if (mHeapSize == 0) {
+            return;
+        }
+        float key = mHeapKeys[mHeapSize];
+        int node = mHeapNodes[mHeapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= mHeapSize) {
+                break;
+            }
+            if (child + 1 < mHeapSize && mHeapKeys[child + 1] < mHeapKeys[child]) {
+                child++;
+            }
+            if (key <= mHeapKeys[child]) {
+                break;
+            }
+            mHeapKeys[i] = mHeapKeys[child];
+            mHeapNodes[i] = mHeapNodes[child];
+            i = child;
+        }
+        mHeapKeys[i] = key;
+        mHeapNodes[i] = node;
+    }
+}
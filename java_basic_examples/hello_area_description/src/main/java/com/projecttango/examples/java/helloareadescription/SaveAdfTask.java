@@ -19,14 +19,32 @@ package com.projecttango.examples.java.helloareadescription;
 import com.google.atap.tangoservice.Tango;
 import com.google.atap.tangoservice.TangoAreaDescriptionMetaData;
 import com.google.atap.tangoservice.TangoErrorException;
+import com.google.atap.tangoservice.TangoEvent;
 import com.google.atap.tangoservice.TangoInvalidException;
+import com.google.atap.tangoservice.TangoPoseData;
 
 import android.content.Context;
 import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * Saves the ADF on a background thread and shows a progress dialog while
  * saving.
+ * <p/>
+ * The landmarks recorded during the session are written to a staged file on another thread,
+ * while the Tango service saves the ADF. Once the ADF is saved and named, the staged file is
+ * renamed to the landmark file of its UUID, or deleted if the ADF couldn't be saved. The
+ * progress dialog follows the save progress reported by the Tango service, forwarded through
+ * {@link #onTangoEvent}, then the fixed stages of the metadata and the landmarks. Nothing is
+ * written from the UI thread.
  */
 public class SaveAdfTask extends AsyncTask<Void, Integer, String> {
 
@@ -38,17 +56,38 @@ public class SaveAdfTask extends AsyncTask<Void, Integer, String> {
         void onSaveAdfSuccess(String adfName, String adfUuid);
     }
 
+    private static final String TAG = SaveAdfTask.class.getSimpleName();
+    // Progress at the end of every stage, out of 100. Saving the ADF takes most of the time, and
+    // reports its own progress.
+    private static final int PROGRESS_ADF_SAVED = 70;
+    private static final int PROGRESS_METADATA_SAVED = 85;
+    private static final int PROGRESS_LANDMARKS_SAVED = 100;
+
     Context mContext;
     SaveAdfListener mCallbackListener;
     SaveAdfDialog mProgressDialog;
     Tango mTango;
     String mAdfName;
+    LandmarkStore mLandmarkStore;
+    List<String> mLandmarkNames;
+    List<TangoPoseData> mLandmarkPoses;
+    // Set once the ADF is saved, after which late save progress events are ignored.
+    volatile boolean mAdfSaved;
 
-    SaveAdfTask(Context context, SaveAdfListener callbackListener, Tango tango, String adfName) {
+    /**
+     * @param landmarkNames the names of the landmarks to save with the ADF, copied.
+     * @param landmarkPoses the poses of the landmarks to save with the ADF, copied.
+     */
+    SaveAdfTask(Context context, SaveAdfListener callbackListener, Tango tango, String adfName,
+                LandmarkStore landmarkStore, List<String> landmarkNames,
+                List<TangoPoseData> landmarkPoses) {
         mContext = context;
         mCallbackListener = callbackListener;
         mTango = tango;
         mAdfName = adfName;
+        mLandmarkStore = landmarkStore;
+        mLandmarkNames = new ArrayList<String>(landmarkNames);
+        mLandmarkPoses = new ArrayList<TangoPoseData>(landmarkPoses);
         mProgressDialog = new SaveAdfDialog(context);
     }
 
@@ -67,24 +106,73 @@ public class SaveAdfTask extends AsyncTask<Void, Integer, String> {
      */
     @Override
     protected String doInBackground(Void... params) {
+        publishProgress(0);
+        // Clean up after saves cut short, off the UI thread and before staging the landmarks.
+        mLandmarkStore.deleteStagedFiles();
+        // Write the landmarks while the ADF is being saved.
+        FutureTask<File> stagedLandmarks = new FutureTask<File>(new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                return mLandmarkStore.stage(mLandmarkNames, mLandmarkPoses);
+            }
+        });
+        THREAD_POOL_EXECUTOR.execute(stagedLandmarks);
+
         String adfUuid = null;
         try {
             // Save the ADF.
             adfUuid = mTango.saveAreaDescription();
+            mAdfSaved = true;
+            publishProgress(PROGRESS_ADF_SAVED);
 
             // Read the ADF Metadata, set the desired name, and save it back.
             TangoAreaDescriptionMetaData metadata = mTango.loadAreaDescriptionMetaData(adfUuid);
             metadata.set(TangoAreaDescriptionMetaData.KEY_NAME, mAdfName.getBytes());
             mTango.saveAreaDescriptionMetadata(adfUuid, metadata);
+            publishProgress(PROGRESS_METADATA_SAVED);
 
         } catch (TangoErrorException e) {
             adfUuid = null; // There's currently no additional information in the exception.
         } catch (TangoInvalidException e) {
             adfUuid = null; // There's currently no additional information in the exception.
         }
+
+        try {
+            File staged = stagedLandmarks.get();
+            if (adfUuid != null) {
+                mLandmarkStore.commit(staged, adfUuid);
+            } else {
+                mLandmarkStore.discard(staged);
+            }
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Unable to write the landmarks", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to save the landmarks of ADF " + adfUuid, e);
+        }
+        publishProgress(PROGRESS_LANDMARKS_SAVED);
         return adfUuid;
     }
 
+    /**
+     * Forwards the save progress of the ADF, reported by the Tango service as a fraction in
+     * {@link TangoEvent#KEY_AREA_DESCRIPTION_SAVE_PROGRESS} events, to the progress dialog.
+     * Other events are ignored. Can be called from any thread, such as the Tango callback
+     * thread.
+     */
+    void onTangoEvent(TangoEvent event) {
+        if (mAdfSaved || !TangoEvent.KEY_AREA_DESCRIPTION_SAVE_PROGRESS.equals(event.eventKey)) {
+            return;
+        }
+        try {
+            double fraction = Double.parseDouble(event.eventValue);
+            publishProgress((int) (Math.max(0, Math.min(1, fraction)) * PROGRESS_ADF_SAVED));
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid ADF save progress: " + event.eventValue);
+        }
+    }
+
     /**
      * Responds to progress updates events by updating the UI.
      */
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free handoff of mutable snapshots from a single writer thread to a single reader thread.
+ * <p/>
+ * Three preallocated buffers rotate between the writer, the reader and a shared middle slot. The
+ * writer fills its back buffer and publishes it by swapping it with the middle one; the reader
+ * swaps the middle buffer with its front buffer whenever a newer snapshot has been published.
+ * Both swaps are a single atomic operation, so neither thread ever blocks on the other, the
+ * reader always sees a complete snapshot and nothing is allocated after construction.
+ * <p/>
+ * The back buffer handed to the writer holds stale data from an older snapshot, so the writer
+ * must set every field of it before publishing.
+ */
+final class TripleBuffer<T> {
+    // The middle slot holds a buffer index, with this bit set while it hasn't been read yet.
+    private static final int DIRTY = 4;
+    private static final int INDEX_MASK = 3;
+
+    private final Object[] mBuffers;
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+    // Only accessed by the writer thread.
+    private int mBack = 0;
+    // Only accessed by the reader thread.
+    private int mFront = 2;
+
+    TripleBuffer(T first, T second, T third) {
+        mBuffers = new Object[] {first, second, third};
+    }
+
+    /**
+     * Returns the buffer the writer should fill before calling {@link #publish()}. Writer thread
+     * only.
+     */
+    T getBack() {
+        return get(mBack);
+    }
+
+    /**
+     * Makes the back buffer visible to the reader, and returns the new back buffer. Writer thread
+     * only.
+     */
+    T publish() {
+        mBack = mMiddle.getAndSet(mBack | DIRTY) & INDEX_MASK;
+        return get(mBack);
+    }
+
+    /**
+     * Returns the latest published snapshot. The snapshot remains valid until the next call.
+     * Reader thread only.
+     */
+    T acquire() {
+        if ((mMiddle.get() & DIRTY) != 0) {
+            mFront = mMiddle.getAndSet(mFront) & INDEX_MASK;
+        }
+        return get(mFront);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T get(int index) {
+        return (T) mBuffers[index];
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.helloareadescription;
+
+/**
+ * Undirected graph of walkable connections between landmarks, used for route planning.
+ * <p/>
+ * Nodes are the landmark indices of a {@link LandmarkFile}. Landmarks are saved while walking,
+ * so every landmark is initially connected to the one saved right before it. More edges are
+ * learned at runtime, with {@link #addEdge(int, int)}, whenever the user is seen walking from one
+ * landmark to another. Edges are stored in primitive adjacency lists; the graph is not thread
+ * safe and is meant to be used from the pose callback thread only.
+ */
+final class WaypointGraph {
+    // Consecutive landmarks further apart than this are not assumed to be connected.
+    static final float MAX_EDGE_LENGTH_M = 15.0f;
+
+    private static final int NO_EDGE = -1;
+
+    private final LandmarkIndex mIndex;
+    private final float[] mPositions;
+    // Adjacency lists: first edge of every node, and the next edge, target node and length of
+    // every edge.
+    private final int[] mFirstEdge;
+    private int[] mNextEdge = new int[16];
+    private int[] mEdgeTarget = new int[16];
+    private float[] mEdgeLength = new float[16];
+    private int mEdgeCount;
+
+    WaypointGraph(LandmarkIndex index) {
+        mIndex = index;
+        LandmarkFile landmarks = index.getLandmarks();
+        int count = landmarks.size();
+        mPositions = new float[3 * count];
+        mFirstEdge = new int[count];
+        for (int i = 0; i < count; i++) {
+            mPositions[3 * i] = landmarks.getX(i);
+            mPositions[3 * i + 1] = landmarks.getY(i);
+            mPositions[3 * i + 2] = landmarks.getZ(i);
+            mFirstEdge[i] = NO_EDGE;
+        }
+
+        // Connect the landmarks in the order they were saved, using the latest landmark of every
+        // name as the node of that name.
+        int previous = NO_EDGE;
+        for (int i = 0; i < count; i++) {
+            int node = landmarks.indexOf(landmarks.getName(i));
+            if (previous != NO_EDGE && distance(previous, node) <= MAX_EDGE_LENGTH_M) {
+                addEdge(previous, node);
+            }
+            previous = node;
+        }
+    }
+
+    /**
+     * Returns the spatial index the graph was built from.
+     */
+    LandmarkIndex getIndex() {
+        return mIndex;
+    }
+
+    int getNodeCount() {
+        return mFirstEdge.length;
+    }
+
+    int getEdgeCount() {
+        return mEdgeCount;
+    }
+
+    float getX(int node) {
+        return mPositions[3 * node];
+    }
+
+    float getY(int node) {
+        return mPositions[3 * node + 1];
+    }
+
+    float getZ(int node) {
+        return mPositions[3 * node + 2];
+    }
+
+    /**
+     * Returns the straight line distance between two nodes.
+     */
+    float distance(int a, int b) {
+        float dx = mPositions[3 * a] - mPositions[3 * b];
+        float dy = mPositions[3 * a + 1] - mPositions[3 * b + 1];
+        float dz = mPositions[3 * a + 2] - mPositions[3 * b + 2];
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * Returns the node nearest to a position, or -1 if the graph is empty.
+     */
+    int nearestNode(float x, float y, float z, int[] scratchId, float[] scratchDistSq) {
+        int found = mIndex.nearest(x, y, z, Float.MAX_VALUE, scratchId, scratchDistSq);
+        return found > 0 ? scratchId[0] : NO_EDGE;
+    }
+
+    /**
+     * Connects two nodes, unless they are the same or already connected. Only allocates when the
+     * edge arrays need to grow.
+     */
+    void addEdge(int a, int b) {
+        if (a == b || isConnected(a, b)) {
+            return;
+        }
+        float length = distance(a, b);
+        appendEdge(a, b, length);
+        appendEdge(b, a, length);
+    }
+
+    boolean isConnected(int a, int b) {
+        for (int edge = mFirstEdge[a]; edge != NO_EDGE; edge = mNextEdge[edge]) {
+            if (mEdgeTarget[edge] == b) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the first edge leaving a node, or -1 if it has none.
+     */
+    int firstEdge(int node) {
+        return mFirstEdge[node];
+    }
+
+    /**
+     * Returns the edge following the given one in its node's adjacency list, or -1.
+     */
+    int nextEdge(int edge) {
+        return mNextEdge[edge];
+    }
+
+    int edgeTarget(int edge) {
+        return mEdgeTarget[edge];
+    }
+
+    float edgeLength(int edge) {
+        return mEdgeLength[edge];
+    }
+
+    private void appendEdge(int from, int to, float length) {
+        if (mEdgeCount == mEdgeTarget.length) {
+            int capacity = 2 * mEdgeCount;
+            int[] nextEdge = new int[capacity];
+            int[] edgeTarget = new int[capacity];
+            float[] edgeLength = new float[capacity];
+            System.arraycopy(mNextEdge, 0, nextEdge, 0, mEdgeCount);
+            System.arraycopy(mEdgeTarget, 0, edgeTarget, 0, mEdgeCount);
+            System.arraycopy(mEdgeLength, 0, edgeLength, 0, mEdgeCount);
+            mNextEdge = nextEdge;
+            mEdgeTarget = edgeTarget;
+            mEdgeLength = edgeLength;
+        }
+        mEdgeTarget[mEdgeCount] = to;
+        mEdgeLength[mEdgeCount] = length;
+        mNextEdge[mEdgeCount] = mFirstEdge[from];
+        mFirstEdge[from] = mEdgeCount;
+        mEdgeCount++;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.hellodepthperception;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Depth statistics of a point cloud: mean, confidence weighted mean, min, max, depth histogram
+ * and percentiles, all computed in a single pass.
+ * <p/>
+ * The points are bulk copied out of the point cloud buffer into a reused array, instead of being
+ * read one float at a time, so that the loop runs over a plain array that the compiler can keep
+ * free of bounds checks. Sums are accumulated in double precision with Kahan compensation, so
+ * the mean stays accurate over clouds of tens of thousands of points. Percentiles are read off
+ * the histogram, to within {@link #BIN_SIZE_M}.
+ * <p/>
+ * Nothing is allocated after the first frames, unless a cloud is larger than any seen before.
+ * Not thread safe.
+ */
+final class DepthStatistics {
+    // Histogram resolution and range, in meters. Deeper points fall into the last bin.
+    static final float BIN_SIZE_M = 0.01f;
+    static final float MAX_DEPTH_M = 10.0f;
+
+    private static final int BIN_COUNT = Math.round(MAX_DEPTH_M / BIN_SIZE_M);
+    private static final int FLOATS_PER_POINT = 4;
+
+    private float[] mPoints = new float[0];
+    private final int[] mHistogram = new int[BIN_COUNT];
+
+    private int mCount;
+    private float mMean;
+    private float mWeightedMean;
+    private float mMin;
+    private float mMax;
+
+    /**
+     * Computes the statistics of the depth (z) of the points in an XYZC point cloud buffer. The
+     * buffer position is left unchanged.
+     */
+    void compute(FloatBuffer points, int numPoints) {
+        int numFloats = FLOATS_PER_POINT * numPoints;
+        if (mPoints.length < numFloats) {
+            mPoints = new float[numFloats];
+        }
+        int position = points.position();
+        points.position(0);
+        points.get(mPoints, 0, numFloats);
+        points.position(position);
+        compute(mPoints, numPoints);
+    }
+
+    /**
+     * Computes the statistics of the depth (z) of the points in an XYZC point array.
+     */
+    void compute(float[] points, int numPoints) {
+        Arrays.fill(mHistogram, 0);
+        mCount = numPoints;
+        if (numPoints == 0) {
+            mMean = 0;
+            mWeightedMean = 0;
+            mMin = 0;
+            mMax = 0;
+            return;
+        }
+
+        // Kahan summation of the depths, the confidence weighted depths and the confidences.
+        double sum = 0;
+        double sumError = 0;
+        double weightedSum = 0;
+        double weightedSumError = 0;
+        double weightSum = 0;
+        double weightSumError = 0;
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        float binScale = 1.0f / BIN_SIZE_M;
+        int lastBin = BIN_COUNT - 1;
+        int numFloats = FLOATS_PER_POINT * numPoints;
+        for (int i = 0; i < numFloats; i += FLOATS_PER_POINT) {
+            float z = points[i + 2];
+            float confidence = points[i + 3];
+
+            double y = z - sumError;
+            double t = sum + y;
+            sumError = (t - sum) - y;
+            sum = t;
+
+            y = z * confidence - weightedSumError;
+            t = weightedSum + y;
+            weightedSumError = (t - weightedSum) - y;
+            weightedSum = t;
+
+            y = confidence - weightSumError;
+            t = weightSum + y;
+            weightSumError = (t - weightSum) - y;
+            weightSum = t;
+
+            min = Math.min(min, z);
+            max = Math.max(max, z);
+            int bin = (int) (z * binScale);
+            mHistogram[bin < 0 ? 0 : bin > lastBin ? lastBin : bin]++;
+        }
+
+        mMean = (float) (sum / numPoints);
+        mWeightedMean = weightSum > 0 ? (float) (weightedSum / weightSum) : mMean;
+        mMin = min;
+        mMax = max;
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    float getMean() {
+        return mMean;
+    }
+
+    /**
+     * Returns the mean depth weighted by point confidence, or the plain mean if all points have
+     * zero confidence.
+     */
+    float getWeightedMean() {
+        return mWeightedMean;
+    }
+
+    float getMin() {
+        return mMin;
+    }
+
+    float getMax() {
+        return mMax;
+    }
+
+    /**
+     * Returns the histogram of the depths: bin i counts the depths in
+     * [i * BIN_SIZE_M, (i + 1) * BIN_SIZE_M). The array is reused across frames.
+     */
+    int[] getHistogram() {
+        return mHistogram;
+    }
+
+    /**
+     * Returns the depth below which the given fraction of the points lie, interpolated within
+     * the histogram bin and clamped to the min and max depths.
+     *
+     * @param fraction the percentile, between 0 and 1.
+     */
+    float getPercentile(float fraction) {
+        if (mCount == 0) {
+            return 0;
+        }
+        float rank = fraction * mCount;
+        int cumulative = 0;
+        for (int bin = 0; bin < BIN_COUNT; bin++) {
+            int count = mHistogram[bin];
+            if (count > 0 && cumulative + count >= rank) {
+                float depth = (bin + (rank - cumulative) / count) * BIN_SIZE_M;
+                return Math.max(mMin, Math.min(mMax, depth));
+            }
+            cumulative += count;
+        }
+        return mMax;
+    }
+}
@@ -27,12 +27,18 @@ import com.google.atap.tangoservice.TangoOutOfDateException;
 import com.google.atap.tangoservice.TangoPointCloudData;
 import com.google.atap.tangoservice.TangoPoseData;
 import com.google.atap.tangoservice.TangoXyzIjData;
+import com.projecttango.examples.java.utils.AsyncLogger;
+import com.projecttango.examples.java.utils.AsyncLoggers;
+import com.projecttango.examples.java.utils.DeviceTangoBackend;
+import com.projecttango.examples.java.utils.MetricsOverlay;
+import com.projecttango.examples.java.utils.MetricsOverlays;
+import com.projecttango.examples.java.utils.SessionRecording;
+import com.projecttango.examples.java.utils.TangoBackend;
 
 import android.app.Activity;
 import android.os.Bundle;
 import android.util.Log;
 
-import java.nio.FloatBuffer;
 import java.util.ArrayList;
 
 /**
@@ -44,12 +50,35 @@ public class HelloDepthPerceptionActivity extends Activity {
     private static final String TAG = HelloDepthPerceptionActivity.class.getSimpleName();
 
     private Tango mTango;
+    // The session is driven through this, so that the callbacks can also be fed synthetic data.
+    private TangoBackend mBackend;
     private TangoConfig mConfig;
 
+    private SessionRecording mSessionRecording;
+
+    private MetricsOverlay mMetricsOverlay;
+
+    // Point clouds are logged asynchronously, at most LOG_RATE_CAP events a second, up to four
+    // per point cloud.
+    private static final int LOG_CAPACITY = 256;
+    private static final int LOG_RATE_CAP = 20;
+    private AsyncLogger mLogger;
+    // Handles the callbacks of the session, on the Tango callback thread.
+    private PointCloudProcessor mPointCloudProcessor;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_depth_perception);
+        mMetricsOverlay = MetricsOverlays.forTextView(this, R.id.metrics_textview);
+        mSessionRecording = new SessionRecording(this);
+        startLogging();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        AsyncLoggers.stop(mLogger);
     }
 
     @Override
@@ -59,28 +88,33 @@ public class HelloDepthPerceptionActivity extends Activity {
         // Initialize Tango Service as a normal Android Service, since we call mTango.disconnect()
         // in onPause, this will unbind Tango Service, so every time when onResume gets called, we
         // should create a new Tango object.
-        mTango = new Tango(HelloDepthPerceptionActivity.this, new Runnable() {
-            // Pass in a Runnable to be called from UI thread when Tango is ready, this Runnable
-            // will be running on a new thread.
-            // When Tango is ready, we can call Tango functions safely here only when there is no UI
-            // thread changes involved.
-            @Override
-            public void run() {
-                synchronized (HelloDepthPerceptionActivity.this) {
-                    try {
-                        mConfig = setupTangoConfig(mTango);
-                        mTango.connect(mConfig);
-                        startupTango();
-                    } catch (TangoOutOfDateException e) {
-                        Log.e(TAG, getString(R.string.exception_out_of_date), e);
-                    } catch (TangoErrorException e) {
-                        Log.e(TAG, getString(R.string.exception_tango_error), e);
-                    } catch (TangoInvalidException e) {
-                        Log.e(TAG, getString(R.string.exception_tango_invalid), e);
+        // The service calls back on another thread, which takes the lock before using mTango and
+        // mBackend: holding it until both are set keeps it from seeing them half replaced.
+        synchronized (this) {
+            mTango = new Tango(HelloDepthPerceptionActivity.this, new Runnable() {
+                // Pass in a Runnable to be called from UI thread when Tango is ready, this
+                // Runnable will be running on a new thread.
+                // When Tango is ready, we can call Tango functions safely here only when there is
+                // no UI thread changes involved.
+                @Override
+                public void run() {
+                    synchronized (HelloDepthPerceptionActivity.this) {
+                        try {
+                            mConfig = setupTangoConfig(mTango);
+                            mBackend.connect(mConfig);
+                            startupTango();
+                        } catch (TangoOutOfDateException e) {
+                            Log.e(TAG, getString(R.string.exception_out_of_date), e);
+                        } catch (TangoErrorException e) {
+                            Log.e(TAG, getString(R.string.exception_tango_error), e);
+                        } catch (TangoInvalidException e) {
+                            Log.e(TAG, getString(R.string.exception_tango_invalid), e);
+                        }
                     }
                 }
-            }
-        });
+            });
+            mBackend = new DeviceTangoBackend(mTango);
+        }
     }
 
     @Override
@@ -88,10 +122,12 @@ public class HelloDepthPerceptionActivity extends Activity {
         super.onPause();
         synchronized (this) {
             try {
-                mTango.disconnect();
+                mBackend.disconnect();
             } catch (TangoErrorException e) {
                 Log.e(TAG, getString(R.string.exception_tango_error), e);
             }
+            mSessionRecording.stop();
+            mMetricsOverlay.stop();
         }
     }
 
@@ -121,11 +157,19 @@ public class HelloDepthPerceptionActivity extends Activity {
                 TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE,
                 TangoPoseData.COORDINATE_FRAME_DEVICE));
 
+        // The depth camera extrinsics don't change, so they are read once, at any timestamp.
+        TangoPoseData depthPose = mBackend.getPoseAtTime(0.0, new TangoCoordinateFramePair(
+                TangoPoseData.COORDINATE_FRAME_DEVICE,
+                TangoPoseData.COORDINATE_FRAME_CAMERA_DEPTH));
+        if (!mPointCloudProcessor.start(depthPose)) {
+            Log.w(TAG, "Depth camera extrinsics unavailable, local map disabled");
+        }
+
         // Listen for new Tango data
-        mTango.connectListener(framePairs, new OnTangoUpdateListener() {
+        OnTangoUpdateListener listener = new OnTangoUpdateListener() {
             @Override
             public void onPoseAvailable(final TangoPoseData pose) {
-                // We are not using TangoPoseData for this application.
+                mPointCloudProcessor.onPoseAvailable(pose);
             }
 
             @Override
@@ -135,7 +179,7 @@ public class HelloDepthPerceptionActivity extends Activity {
 
             @Override
             public void onPointCloudAvailable(final TangoPointCloudData pointCloudData) {
-                logPointCloud(pointCloudData);
+                mPointCloudProcessor.onPointCloudAvailable(pointCloudData);
             }
 
             @Override
@@ -147,34 +191,18 @@ public class HelloDepthPerceptionActivity extends Activity {
             public void onFrameAvailable(int cameraId) {
                 // We are not using onFrameAvailable for this application.
             }
-        });
+        };
+        mBackend.connectListener(framePairs,
+                mSessionRecording.start(mMetricsOverlay.start(listener)));
     }
 
     /**
-     * Log the point count and the average depth of the given PointCloud data
-     * in the Logcat as information.
+     * Starts the logger of the point clouds, writing to the logcat or, when AsyncLoggers.TRACE_LOG
+     * is set, to a trace file.
      */
-    private void logPointCloud(TangoPointCloudData pointCloudData) {
-        StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append("Point count: " + pointCloudData.numPoints);
-        stringBuilder.append(". Average depth (m): " +
-            calculateAveragedDepth(pointCloudData.points, pointCloudData.numPoints));
-        Log.i(TAG, stringBuilder.toString());
-    }
-
-    /**
-     * Calculates the average depth from a point cloud buffer.
-     */
-    private float calculateAveragedDepth(FloatBuffer pointCloudBuffer, int numPoints) {
-        float totalZ = 0;
-        float averageZ = 0;
-        if (numPoints != 0) {
-            int numFloats = 4 * numPoints;
-            for (int i = 2; i < numFloats; i = i + 4) {
-                totalZ = totalZ + pointCloudBuffer.get(i);
-            }
-            averageZ = totalZ / numPoints;
-        }
-        return averageZ;
+    private void startLogging() {
+        mLogger = AsyncLoggers.start(this, LOG_CAPACITY, Log.INFO);
+        mPointCloudProcessor = new PointCloudProcessor(mLogger, TAG);
+        mLogger.setRateCap(TAG, LOG_RATE_CAP);
     }
 }
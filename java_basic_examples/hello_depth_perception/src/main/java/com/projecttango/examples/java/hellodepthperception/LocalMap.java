@@ -0,0 +1,222 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.hellodepthperception;
+
+import java.util.Arrays;
+
+/**
+ * Rolling 3D occupancy map of the surroundings of the user, fusing successive point clouds.
+ * <p/>
+ * Points are transformed into the start of service frame and counted into fixed size voxels,
+ * stored in an open addressing hash table of voxel keys. Voxels expire once they haven't been
+ * seen for {@link #EXPIRY_S}, or once the user is further than {@link #RADIUS_M} away from them,
+ * so the map only holds the recent surroundings: obstacles that just left the field of view of
+ * the depth camera are still known. The table is allocated once with room for
+ * {@link #MAX_VOXELS} voxels, which caps the memory used whatever the session length; points
+ * falling into new voxels are dropped while the map is full. Not thread safe.
+ */
+final class LocalMap {
+    static final float VOXEL_SIZE_M = 0.1f;
+    static final float RADIUS_M = 5.0f;
+    static final double EXPIRY_S = 10.0;
+    static final int MAX_VOXELS = 1 << 15;
+    // Voxels with fewer points than this are considered noise by queries.
+    static final int MIN_HITS = 3;
+
+    private static final int FLOATS_PER_POINT = 4;
+    private static final int CAPACITY = 2 * MAX_VOXELS;
+    private static final int MASK = CAPACITY - 1;
+    private static final int COORDINATE_BITS = 21;
+    private static final int COORDINATE_OFFSET = 1 << (COORDINATE_BITS - 1);
+    private static final int COORDINATE_MASK = (1 << COORDINATE_BITS) - 1;
+    private static final long EMPTY = -1;
+
+    private final long[] mKeys = new long[CAPACITY];
+    private final int[] mHits = new int[CAPACITY];
+    private final double[] mLastSeen = new double[CAPACITY];
+    private int mSize;
+
+    LocalMap() {
+        Arrays.fill(mKeys, EMPTY);
+    }
+
+    /**
+     * Returns the number of voxels in the map.
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Fuses an XYZC point cloud into the map, and expires the voxels that are too old or too far
+     * from the user.
+     *
+     * @param transform the transform from the point cloud frame to the start of service frame.
+     * @param centerX   position of the user in the start of service frame, along with
+     *                  {@code centerY} and {@code centerZ}.
+     */
+    void integrate(float[] points, int numPoints, float[] transform, double timestamp,
+                   float centerX, float centerY, float centerZ) {
+        expire(timestamp, centerX, centerY, centerZ);
+
+        float radiusSq = RADIUS_M * RADIUS_M;
+        float scale = 1.0f / VOXEL_SIZE_M;
+        int numFloats = FLOATS_PER_POINT * numPoints;
+        for (int i = 0; i < numFloats; i += FLOATS_PER_POINT) {
+            float px = points[i];
+            float py = points[i + 1];
+            float pz = points[i + 2];
+            float x = transform[0] * px + transform[1] * py + transform[2] * pz + transform[3];
+            float y = transform[4] * px + transform[5] * py + transform[6] * pz + transform[7];
+            float z = transform[8] * px + transform[9] * py + transform[10] * pz + transform[11];
+            float dx = x - centerX;
+            float dy = y - centerY;
+            float dz = z - centerZ;
+            // Also skips NaN points.
+            if (!(dx * dx + dy * dy + dz * dz <= radiusSq)) {
+                continue;
+            }
+
+            long key = pack((int) Math.floor(x * scale), (int) Math.floor(y * scale),
+                    (int) Math.floor(z * scale));
+            int slot = hash(key) & MASK;
+            while (mKeys[slot] != EMPTY && mKeys[slot] != key) {
+                slot = (slot + 1) & MASK;
+            }
+            if (mKeys[slot] == EMPTY) {
+                if (mSize == MAX_VOXELS) {
+                    continue;
+                }
+                mKeys[slot] = key;
+                mHits[slot] = 0;
+                mSize++;
+            }
+            if (mHits[slot] < Integer.MAX_VALUE) {
+                mHits[slot]++;
+            }
+            mLastSeen[slot] = timestamp;
+        }
+    }
+
+    /**
+     * Finds the voxel horizontally nearest to a position, among the voxels whose center height
+     * lies within [minZ, maxZ] in the start of service frame.
+     *
+     * @param out receives the horizontal distance to the voxel, then its center x and y.
+     * @return whether a voxel was found within {@code maxDistance}.
+     */
+    boolean nearest(float x, float y, float minZ, float maxZ, float maxDistance, float[] out) {
+        float bestDistSq = maxDistance * maxDistance;
+        int best = -1;
+        for (int slot = 0; slot < CAPACITY; slot++) {
+            long key = mKeys[slot];
+            if (key == EMPTY || mHits[slot] < MIN_HITS) {
+                continue;
+            }
+            float cz = center(key);
+            if (cz < minZ || cz > maxZ) {
+                continue;
+            }
+            float dx = center(key >>> (2 * COORDINATE_BITS)) - x;
+            float dy = center(key >>> COORDINATE_BITS) - y;
+            float distSq = dx * dx + dy * dy;
+            if (distSq <= bestDistSq) {
+                bestDistSq = distSq;
+                best = slot;
+            }
+        }
+        if (best < 0) {
+            return false;
+        }
+        out[0] = (float) Math.sqrt(bestDistSq);
+        out[1] = center(mKeys[best] >>> (2 * COORDINATE_BITS));
+        out[2] = center(mKeys[best] >>> COORDINATE_BITS);
+        return true;
+    }
+
+    /**
+     * Removes every voxel from the map.
+     */
+    void clear() {
+        Arrays.fill(mKeys, EMPTY);
+        mSize = 0;
+    }
+
+    private void expire(double timestamp, float centerX, float centerY, float centerZ) {
+        double oldest = timestamp - EXPIRY_S;
+        float radiusSq = RADIUS_M * RADIUS_M;
+        int slot = 0;
+        while (slot < CAPACITY) {
+            long key = mKeys[slot];
+            if (key != EMPTY) {
+                float dx = center(key >>> (2 * COORDINATE_BITS)) - centerX;
+                float dy = center(key >>> COORDINATE_BITS) - centerY;
+                float dz = center(key) - centerZ;
+                if (mLastSeen[slot] < oldest || dx * dx + dy * dy + dz * dz > radiusSq) {
+                    remove(slot);
+                    // Another voxel may have been shifted into this slot.
+                    continue;
+                }
+            }
+            slot++;
+        }
+    }
+
+    /**
+     * Removes the voxel of a slot, shifting the following voxels of its probe sequence back so
+     * that lookups never stop early on the freed slot.
+     */
+    private void remove(int slot) {
+        int hole = slot;
+        int next = (hole + 1) & MASK;
+        while (mKeys[next] != EMPTY) {
+            int home = hash(mKeys[next]) & MASK;
+            // Move the voxel into the hole unless its home slot lies cyclically in (hole, next].
+            boolean homeBetween = hole <= next
+                    ? home > hole && home <= next
+                    : home > hole || home <= next;
+            if (!homeBetween) {
+                mKeys[hole] = mKeys[next];
+                mHits[hole] = mHits[next];
+                mLastSeen[hole] = mLastSeen[next];
+                hole = next;
+            }
+            next = (next + 1) & MASK;
+        }
+        mKeys[hole] = EMPTY;
+        mSize--;
+    }
+
+    /**
+     * Returns the center coordinate of the voxel coordinate packed into the lowest bits.
+     */
+    private static float center(long packed) {
+        int coordinate = (int) (packed & COORDINATE_MASK) - COORDINATE_OFFSET;
+        return (coordinate + 0.5f) * VOXEL_SIZE_M;
+    }
+
+    private static long pack(int x, int y, int z) {
+        return ((long) ((x + COORDINATE_OFFSET) & COORDINATE_MASK) << (2 * COORDINATE_BITS))
+                | ((long) ((y + COORDINATE_OFFSET) & COORDINATE_MASK) << COORDINATE_BITS)
+                | ((z + COORDINATE_OFFSET) & COORDINATE_MASK);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h >>> 32);
+    }
+}
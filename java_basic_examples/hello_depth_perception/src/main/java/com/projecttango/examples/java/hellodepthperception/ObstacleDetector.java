@@ -0,0 +1,402 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.hellodepthperception;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Finds obstacles and drop-offs in front of the user from depth camera point clouds.
+ * <p/>
+ * Every frame, the ground plane is estimated with RANSAC, seeded with the plane of the previous
+ * frame. Points are then bucketed into an occupancy grid lying on the ground plane and facing
+ * forward: cells with enough points standing above the ground are obstacles, and cells with
+ * enough points below it are drop-offs such as stairs going down or curbs. The nearest of each is
+ * reported. When no ground plane is found, every point in front of the camera is treated as an
+ * obstacle.
+ * <p/>
+ * The detector only depends on the XYZC point buffer layout of {@link
+ * com.google.atap.tangoservice.TangoPointCloudData}, so it can be fed recorded point clouds as
+ * well. All buffers are allocated up front and reused: {@link #detect} only allocates when a
+ * cloud is larger than any seen before. Not thread safe.
+ */
+final class ObstacleDetector {
+    // Occupancy grid extent and resolution, in meters.
+    static final float GRID_WIDTH_M = 2.0f;
+    static final float GRID_DEPTH_M = 4.0f;
+    static final float CELL_SIZE_M = 0.1f;
+    // Cells with fewer points than this are considered noise, for raw point clouds.
+    static final int DEFAULT_MIN_POINTS_PER_CELL = 5;
+    // Points this high above the ground are obstacles, unless they are above head height.
+    static final float OBSTACLE_MIN_HEIGHT_M = 0.1f;
+    static final float OBSTACLE_MAX_HEIGHT_M = 2.0f;
+    // Points this far below the ground are drop-offs.
+    static final float DROP_OFF_DEPTH_M = 0.15f;
+
+    // Points closer than this to a candidate plane count as ground.
+    private static final float GROUND_INLIER_M = 0.03f;
+    private static final int RANSAC_ITERATIONS = 40;
+    // Candidate planes are scored on about this many points.
+    private static final int RANSAC_SCORED_POINTS = 512;
+    // A plane is accepted as ground when this fraction of the scored points lies on it.
+    private static final float MIN_GROUND_FRACTION = 0.15f;
+    // The ground normal must be within this angle of the camera up axis.
+    private static final float MIN_GROUND_COS_TILT = (float) Math.cos(Math.toRadians(60.0));
+
+    private static final int COLUMNS = Math.round(GRID_WIDTH_M / CELL_SIZE_M);
+    private static final int ROWS = Math.round(GRID_DEPTH_M / CELL_SIZE_M);
+    private static final int FLOATS_PER_POINT = 4;
+
+    private final int mMinPointsPerCell;
+    private float[] mInput = new float[0];
+    private float[] mPoints;
+
+    // Per cell point counts, and squared distance and right coordinate of the nearest point in
+    // the cell.
+    private final int[] mObstacleCounts = new int[COLUMNS * ROWS];
+    private final float[] mObstacleDistancesSq = new float[COLUMNS * ROWS];
+    private final float[] mObstacleRights = new float[COLUMNS * ROWS];
+    private final int[] mDropOffCounts = new int[COLUMNS * ROWS];
+    private final float[] mDropOffDistancesSq = new float[COLUMNS * ROWS];
+    private final float[] mDropOffRights = new float[COLUMNS * ROWS];
+
+    // Ground plane of the previous frame, used as the first RANSAC candidate.
+    private boolean mHasGround;
+    private final float[] mGroundNormal = new float[3];
+    private float mGroundOffset;
+    private final float[] mCandidateNormal = new float[3];
+    private float mCandidateOffset;
+    // Forward and right axes of the grid, in the depth camera frame.
+    private final float[] mForward = new float[3];
+    private final float[] mRight = new float[3];
+
+    private int mRandomState = 0x2545f491;
+
+    private final ObstacleReport mReport = new ObstacleReport();
+
+    ObstacleDetector() {
+        this(DEFAULT_MIN_POINTS_PER_CELL);
+    }
+
+    /**
+     * @param minPointsPerCell the number of points a grid cell needs to be considered occupied.
+     *                         Should be lowered for downsampled point clouds.
+     */
+    ObstacleDetector(int minPointsPerCell) {
+        mMinPointsPerCell = minPointsPerCell;
+    }
+
+    /**
+     * Detects the hazards in a point cloud.
+     *
+     * @param points    XYZC points in the depth camera frame: x right, y down, z forward. The
+     *                  buffer position is left unchanged.
+     * @param numPoints the number of points in the buffer.
+     * @param timestamp the timestamp of the point cloud, copied into the report.
+     * @return the report for this frame, valid until the next call.
+     */
+    ObstacleReport detect(FloatBuffer points, int numPoints, double timestamp) {
+        int numFloats = FLOATS_PER_POINT * numPoints;
+        if (mInput.length < numFloats) {
+            mInput = new float[numFloats];
+        }
+        int position = points.position();
+        points.position(0);
+        points.get(mInput, 0, numFloats);
+        points.position(position);
+        return detect(mInput, numPoints, timestamp);
+    }
+
+    /**
+     * Detects the hazards in an XYZC point array, in the depth camera frame.
+     *
+     * @return the report for this frame, valid until the next call.
+     */
+    ObstacleReport detect(float[] points, int numPoints, double timestamp) {
+        mPoints = points;
+        ObstacleReport report = mReport;
+        report.timestamp = timestamp;
+        report.pointCount = numPoints;
+
+        mHasGround = findGround(numPoints);
+        report.groundFound = mHasGround;
+        if (mHasGround) {
+            System.arraycopy(mGroundNormal, 0, report.groundNormal, 0, 3);
+            report.groundOffset = mGroundOffset;
+            setGridAxes();
+        } else {
+            // Without ground, the camera axes are the best guess: y points down.
+            report.groundNormal[0] = 0;
+            report.groundNormal[1] = -1;
+            report.groundNormal[2] = 0;
+            report.groundOffset = 0;
+            mForward[0] = 0;
+            mForward[1] = 0;
+            mForward[2] = 1;
+            mRight[0] = 1;
+            mRight[1] = 0;
+            mRight[2] = 0;
+        }
+
+        fillGrid(numPoints);
+
+        int cell = nearestCell(mObstacleCounts, mObstacleDistancesSq);
+        report.obstacleFound = cell >= 0;
+        report.obstacleDistance = cell >= 0 ? (float) Math.sqrt(mObstacleDistancesSq[cell]) : 0;
+        report.obstacleBearing = cell >= 0
+                ? bearing(mObstacleRights[cell], report.obstacleDistance) : 0;
+        cell = nearestCell(mDropOffCounts, mDropOffDistancesSq);
+        report.dropOffFound = cell >= 0;
+        report.dropOffDistance = cell >= 0 ? (float) Math.sqrt(mDropOffDistancesSq[cell]) : 0;
+        report.dropOffBearing = cell >= 0
+                ? bearing(mDropOffRights[cell], report.dropOffDistance) : 0;
+        mPoints = null;
+        return report;
+    }
+
+    /**
+     * Estimates the ground plane with RANSAC into mGroundNormal and mGroundOffset.
+     *
+     * @return whether a ground plane was found.
+     */
+    private boolean findGround(int numPoints) {
+        if (numPoints < 3) {
+            return false;
+        }
+        int stride = Math.max(1, numPoints / RANSAC_SCORED_POINTS);
+        int scored = (numPoints + stride - 1) / stride;
+        int bestInliers = 0;
+        float bestNx = 0;
+        float bestNy = 0;
+        float bestNz = 0;
+        float bestOffset = 0;
+
+        if (mHasGround) {
+            bestInliers = countInliers(mGroundNormal[0], mGroundNormal[1], mGroundNormal[2],
+                    mGroundOffset, numPoints, stride);
+            bestNx = mGroundNormal[0];
+            bestNy = mGroundNormal[1];
+            bestNz = mGroundNormal[2];
+            bestOffset = mGroundOffset;
+        }
+        for (int i = 0; i < RANSAC_ITERATIONS; i++) {
+            if (!candidatePlane(nextRandom(numPoints), nextRandom(numPoints),
+                    nextRandom(numPoints))) {
+                continue;
+            }
+            float nx = mCandidateNormal[0];
+            float ny = mCandidateNormal[1];
+            float nz = mCandidateNormal[2];
+            float offset = mCandidateOffset;
+            int inliers = countInliers(nx, ny, nz, offset, numPoints, stride);
+            if (inliers > bestInliers) {
+                bestInliers = inliers;
+                bestNx = nx;
+                bestNy = ny;
+                bestNz = nz;
+                bestOffset = offset;
+            }
+        }
+        if (bestInliers < MIN_GROUND_FRACTION * scored) {
+            return false;
+        }
+        mGroundNormal[0] = bestNx;
+        mGroundNormal[1] = bestNy;
+        mGroundNormal[2] = bestNz;
+        mGroundOffset = bestOffset;
+        return true;
+    }
+
+    /**
+     * Computes the plane through three points into mCandidateNormal and mCandidateOffset, with
+     * the normal pointing up.
+     *
+     * @return false if the points are degenerate or the plane can't be the ground: too tilted,
+     * or above the camera.
+     */
+    private boolean candidatePlane(int a, int b, int c) {
+        a *= FLOATS_PER_POINT;
+        b *= FLOATS_PER_POINT;
+        c *= FLOATS_PER_POINT;
+        float abx = mPoints[b] - mPoints[a];
+        float aby = mPoints[b + 1] - mPoints[a + 1];
+        float abz = mPoints[b + 2] - mPoints[a + 2];
+        float acx = mPoints[c] - mPoints[a];
+        float acy = mPoints[c + 1] - mPoints[a + 1];
+        float acz = mPoints[c + 2] - mPoints[a + 2];
+        float nx = aby * acz - abz * acy;
+        float ny = abz * acx - abx * acz;
+        float nz = abx * acy - aby * acx;
+        float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length < 1e-6f) {
+            return false;
+        }
+        // The camera y axis points down, so up is -y.
+        if (ny > 0) {
+            length = -length;
+        }
+        nx /= length;
+        ny /= length;
+        nz /= length;
+        if (-ny < MIN_GROUND_COS_TILT) {
+            return false;
+        }
+        float offset = -(nx * mPoints[a] + ny * mPoints[a + 1] + nz * mPoints[a + 2]);
+        if (offset <= 0) {
+            return false;
+        }
+        mCandidateNormal[0] = nx;
+        mCandidateNormal[1] = ny;
+        mCandidateNormal[2] = nz;
+        mCandidateOffset = offset;
+        return true;
+    }
+
+    private int countInliers(float nx, float ny, float nz, float offset, int numPoints,
+                             int stride) {
+        int inliers = 0;
+        int step = FLOATS_PER_POINT * stride;
+        int end = FLOATS_PER_POINT * numPoints;
+        for (int i = 0; i < end; i += step) {
+            float height = nx * mPoints[i] + ny * mPoints[i + 1] + nz * mPoints[i + 2] + offset;
+            if (height < GROUND_INLIER_M && height > -GROUND_INLIER_M) {
+                inliers++;
+            }
+        }
+        return inliers;
+    }
+
+    /**
+     * Sets the forward and right axes of the grid: the camera z axis projected on the ground
+     * plane, and the axis perpendicular to it on the plane.
+     */
+    private void setGridAxes() {
+        float nx = mGroundNormal[0];
+        float ny = mGroundNormal[1];
+        float nz = mGroundNormal[2];
+        // The ground normal is within MIN_GROUND_COS_TILT of -y, so z is never parallel to it.
+        float fx = -nz * nx;
+        float fy = -nz * ny;
+        float fz = 1 - nz * nz;
+        float length = (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx /= length;
+        fy /= length;
+        fz /= length;
+        mForward[0] = fx;
+        mForward[1] = fy;
+        mForward[2] = fz;
+        // right = forward x up.
+        mRight[0] = fy * nz - fz * ny;
+        mRight[1] = fz * nx - fx * nz;
+        mRight[2] = fx * ny - fy * nx;
+    }
+
+    /**
+     * Buckets the points standing above or lying below the ground into the grid cells.
+     */
+    private void fillGrid(int numPoints) {
+        Arrays.fill(mObstacleCounts, 0);
+        Arrays.fill(mObstacleDistancesSq, Float.MAX_VALUE);
+        Arrays.fill(mDropOffCounts, 0);
+        Arrays.fill(mDropOffDistancesSq, Float.MAX_VALUE);
+
+        float nx = mGroundNormal[0];
+        float ny = mGroundNormal[1];
+        float nz = mGroundNormal[2];
+        float offset = mGroundOffset;
+        boolean hasGround = mHasGround;
+        float halfWidth = 0.5f * GRID_WIDTH_M;
+        int end = FLOATS_PER_POINT * numPoints;
+        for (int i = 0; i < end; i += FLOATS_PER_POINT) {
+            float x = mPoints[i];
+            float y = mPoints[i + 1];
+            float z = mPoints[i + 2];
+            float forward = mForward[0] * x + mForward[1] * y + mForward[2] * z;
+            float right = mRight[0] * x + mRight[1] * y + mRight[2] * z;
+            if (forward <= 0 || forward >= GRID_DEPTH_M || right <= -halfWidth
+                    || right >= halfWidth) {
+                continue;
+            }
+
+            int[] counts;
+            float[] distancesSq;
+            float[] rights;
+            if (!hasGround) {
+                counts = mObstacleCounts;
+                distancesSq = mObstacleDistancesSq;
+                rights = mObstacleRights;
+            } else {
+                float height = nx * x + ny * y + nz * z + offset;
+                if (height > OBSTACLE_MIN_HEIGHT_M && height <= OBSTACLE_MAX_HEIGHT_M) {
+                    counts = mObstacleCounts;
+                    distancesSq = mObstacleDistancesSq;
+                    rights = mObstacleRights;
+                } else if (height < -DROP_OFF_DEPTH_M) {
+                    counts = mDropOffCounts;
+                    distancesSq = mDropOffDistancesSq;
+                    rights = mDropOffRights;
+                } else {
+                    continue;
+                }
+            }
+
+            int column = Math.min(COLUMNS - 1, (int) ((right + halfWidth) / CELL_SIZE_M));
+            int row = Math.min(ROWS - 1, (int) (forward / CELL_SIZE_M));
+            int cell = row * COLUMNS + column;
+            counts[cell]++;
+            float distanceSq = forward * forward + right * right;
+            if (distanceSq < distancesSq[cell]) {
+                distancesSq[cell] = distanceSq;
+                rights[cell] = right;
+            }
+        }
+    }
+
+    /**
+     * Returns the occupied cell with the nearest point, or -1 if no cell is occupied.
+     */
+    private int nearestCell(int[] counts, float[] distancesSq) {
+        int nearest = -1;
+        for (int cell = 0; cell < counts.length; cell++) {
+            if (counts[cell] >= mMinPointsPerCell
+                    && (nearest < 0 || distancesSq[cell] < distancesSq[nearest])) {
+                nearest = cell;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Returns the bearing of a point on the grid from its right coordinate and distance.
+     */
+    private static float bearing(float right, float distance) {
+        return distance > 0 ? (float) Math.asin(Math.max(-1, Math.min(1, right / distance))) : 0;
+    }
+
+    /**
+     * Returns a pseudo-random integer in [0, bound), with a xorshift generator so that results
+     * are reproducible on recorded point clouds.
+     */
+    private int nextRandom(int bound) {
+        int x = mRandomState;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        mRandomState = x;
+        return (int) (((x & 0xffffffffL) * bound) >>> 32);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.hellodepthperception;
+
+/**
+ * Hazards found by an {@link ObstacleDetector} in a single point cloud. Instances are reused
+ * from one frame to the next and must not be kept across frames.
+ * <p/>
+ * Distances are horizontal, in meters, from the depth camera. Bearings are in radians from the
+ * forward direction, positive to the right.
+ */
+final class ObstacleReport {
+    double timestamp;
+    int pointCount;
+
+    // Ground plane in the depth camera frame: normal . p + offset is the height of p above it, so
+    // the offset is the height of the camera above the ground.
+    boolean groundFound;
+    final float[] groundNormal = new float[3];
+    float groundOffset;
+
+    boolean obstacleFound;
+    float obstacleDistance;
+    float obstacleBearing;
+
+    boolean dropOffFound;
+    float dropOffDistance;
+    float dropOffBearing;
+}
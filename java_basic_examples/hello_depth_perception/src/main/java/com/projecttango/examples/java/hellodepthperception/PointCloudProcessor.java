@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.hellodepthperception;
+
+import com.google.atap.tangoservice.TangoPointCloudData;
+import com.google.atap.tangoservice.TangoPoseData;
+import com.projecttango.examples.java.utils.AsyncLogger;
+import com.projecttango.examples.java.utils.PoseHistory;
+
+/**
+ * Handles the callbacks of the depth perception session of
+ * {@link HelloDepthPerceptionActivity}: keeps the recent device poses, downsamples every point
+ * cloud, detects the obstacles and drop-offs ahead, fuses the cloud into the local map and logs
+ * the result.
+ * <p/>
+ * Everything is meant for the Tango callback thread, and handling a callback doesn't depend on
+ * the Android framework, so that recorded or synthetic sessions can be played through it
+ * off-device.
+ */
+final class PointCloudProcessor {
+    // Obstacle detection runs on clouds downsampled to this voxel size, in meters.
+    private static final float VOXEL_SIZE_M = 0.05f;
+    // Points per occupied grid cell once downsampled: a 10 cm cell holds a few 5 cm voxels.
+    private static final int MIN_VOXELS_PER_CELL = 2;
+
+    private final VoxelGridFilter mVoxelGridFilter = new VoxelGridFilter(VOXEL_SIZE_M);
+    private final ObstacleDetector mObstacleDetector = new ObstacleDetector(MIN_VOXELS_PER_CELL);
+    private final DepthStatistics mDepthStatistics = new DepthStatistics();
+
+    // Device poses of the last seconds, matched with the point cloud timestamps.
+    private static final int POSE_HISTORY_CAPACITY = 256;
+    private PoseHistory mPoseHistory = new PoseHistory(POSE_HISTORY_CAPACITY);
+    private final double[] mDeviceTranslation = new double[3];
+    private final double[] mDeviceRotation = new double[4];
+
+    // Recent surroundings, fused from the point clouds in the start of service frame.
+    private final LocalMap mLocalMap = new LocalMap();
+    // Depth camera extrinsics, read once connected.
+    private boolean mHasDepthExtrinsics;
+    private final float[] mDeviceFromDepth = new float[Transforms.SIZE];
+    private final float[] mWorldFromDevice = new float[Transforms.SIZE];
+    private final float[] mWorldFromDepth = new float[Transforms.SIZE];
+    // Nearest obstacle in the local map: horizontal distance, then x and y.
+    private boolean mHasMappedObstacle;
+    private final float[] mMappedObstacle = new float[3];
+
+    private final AsyncLogger mLogger;
+    private final int mPointCloudEvent;
+    private final int mObstacleEvent;
+    private final int mDropOffEvent;
+    private final int mMappedObstacleEvent;
+    private final double[] mPointCloudValues = new double[5];
+
+    /**
+     * @param logger logs the result of every point cloud, under the given tag.
+     */
+    PointCloudProcessor(AsyncLogger logger, String tag) {
+        mLogger = logger;
+        mPointCloudEvent = logger.event(tag, "Point count: {}. Downsampled point count: {}. "
+                + "Average depth (m): {}. Median depth (m): {}. Min depth (m): {}");
+        mObstacleEvent = logger.event(tag, "Obstacle at {} m, bearing {} deg");
+        mDropOffEvent = logger.event(tag, "Drop-off at {} m, bearing {} deg");
+        mMappedObstacleEvent = logger.event(tag, "Mapped obstacle at {} m");
+    }
+
+    /**
+     * Starts a session, forgetting the poses and the local map of the previous one. Call it
+     * before the callbacks of the session start coming.
+     *
+     * @param depthPose the pose of the depth camera in the device frame. The local map is only
+     *                  built when it is valid.
+     * @return whether the depth camera extrinsics are valid.
+     */
+    boolean start(TangoPoseData depthPose) {
+        mHasDepthExtrinsics = depthPose.statusCode == TangoPoseData.POSE_VALID;
+        if (mHasDepthExtrinsics) {
+            Transforms.fromPose(depthPose.translation, depthPose.rotation, mDeviceFromDepth);
+        }
+        // The history ignores poses older than the ones it has, such as those of a replay.
+        mPoseHistory = new PoseHistory(POSE_HISTORY_CAPACITY);
+        mLocalMap.clear();
+        return mHasDepthExtrinsics;
+    }
+
+    /**
+     * Handles a start of service to device pose.
+     */
+    void onPoseAvailable(TangoPoseData pose) {
+        if (pose.statusCode == TangoPoseData.POSE_VALID) {
+            mPoseHistory.add(pose.timestamp, pose.translation, pose.rotation);
+        }
+    }
+
+    /**
+     * Handles a point cloud, in the depth camera frame.
+     */
+    void onPointCloudAvailable(TangoPointCloudData pointCloudData) {
+        int voxelCount = mVoxelGridFilter.filter(pointCloudData.points,
+                pointCloudData.numPoints);
+        ObstacleReport report = mObstacleDetector.detect(mVoxelGridFilter.getPoints(),
+                voxelCount, pointCloudData.timestamp);
+        updateLocalMap(pointCloudData.timestamp, voxelCount, report);
+        mDepthStatistics.compute(pointCloudData.points, pointCloudData.numPoints);
+        logPointCloud(pointCloudData, report);
+    }
+
+    /**
+     * Returns the number of voxels in the local map.
+     */
+    int getLocalMapSize() {
+        return mLocalMap.size();
+    }
+
+    /**
+     * Fuses the last downsampled point cloud into the local map, using the device pose
+     * interpolated at the time of the point cloud, and finds the nearest obstacle in the map.
+     */
+    private void updateLocalMap(double timestamp, int voxelCount, ObstacleReport report) {
+        mHasMappedObstacle = false;
+        if (!mHasDepthExtrinsics) {
+            return;
+        }
+        if (!mPoseHistory.getPoseAt(timestamp, mDeviceTranslation, mDeviceRotation)) {
+            return;
+        }
+        Transforms.fromPose(mDeviceTranslation, mDeviceRotation, mWorldFromDevice);
+        Transforms.multiply(mWorldFromDevice, mDeviceFromDepth, mWorldFromDepth);
+        float deviceX = (float) mDeviceTranslation[TangoPoseData.INDEX_TRANSLATION_X];
+        float deviceY = (float) mDeviceTranslation[TangoPoseData.INDEX_TRANSLATION_Y];
+        float deviceZ = (float) mDeviceTranslation[TangoPoseData.INDEX_TRANSLATION_Z];
+        mLocalMap.integrate(mVoxelGridFilter.getPoints(), voxelCount, mWorldFromDepth, timestamp,
+                deviceX, deviceY, deviceZ);
+
+        if (report.groundFound) {
+            // The start of service frame is Z up, and the ground was found the camera height
+            // below the depth camera.
+            float groundZ = mWorldFromDepth[11] - report.groundOffset;
+            mHasMappedObstacle = mLocalMap.nearest(deviceX, deviceY,
+                    groundZ + ObstacleDetector.OBSTACLE_MIN_HEIGHT_M,
+                    groundZ + ObstacleDetector.OBSTACLE_MAX_HEIGHT_M, LocalMap.RADIUS_M,
+                    mMappedObstacle);
+        }
+    }
+
+    /**
+     * Log the point count, the depth statistics and the nearest hazards of the given PointCloud
+     * data, through the logger so that the formatting and the Logcat are kept off the callback
+     * thread.
+     */
+    private void logPointCloud(TangoPointCloudData pointCloudData, ObstacleReport report) {
+        mPointCloudValues[0] = pointCloudData.numPoints;
+        mPointCloudValues[1] = report.pointCount;
+        mPointCloudValues[2] = mDepthStatistics.getMean();
+        mPointCloudValues[3] = mDepthStatistics.getPercentile(0.5f);
+        mPointCloudValues[4] = mDepthStatistics.getMin();
+        mLogger.log(mPointCloudEvent, mPointCloudValues, mPointCloudValues.length);
+        if (report.obstacleFound) {
+            mLogger.log(mObstacleEvent, report.obstacleDistance,
+                    Math.toDegrees(report.obstacleBearing));
+        }
+        if (report.dropOffFound) {
+            mLogger.log(mDropOffEvent, report.dropOffDistance,
+                    Math.toDegrees(report.dropOffBearing));
+        }
+        if (mHasMappedObstacle) {
+            mLogger.log(mMappedObstacleEvent, mMappedObstacle[0]);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.hellodepthperception;
+
+/**
+ * Rigid transforms stored as 3x4 row major float arrays, rotation followed by translation in
+ * the last column. The methods write into caller provided arrays and don't allocate.
+ */
+final class Transforms {
+    static final int SIZE = 12;
+
+    private Transforms() {
+    }
+
+    /**
+     * Sets {@code out} to the transform of a pose.
+     *
+     * @param translation the pose translation, x, y, z.
+     * @param rotation    the pose rotation quaternion, x, y, z, w.
+     */
+    static void fromPose(double[] translation, double[] rotation, float[] out) {
+        float x = (float) rotation[0];
+        float y = (float) rotation[1];
+        float z = (float) rotation[2];
+        float w = (float) rotation[3];
+        out[0] = 1 - 2 * (y * y + z * z);
+        out[1] = 2 * (x * y - z * w);
+        out[2] = 2 * (x * z + y * w);
+        out[3] = (float) translation[0];
+        out[4] = 2 * (x * y + z * w);
+        out[5] = 1 - 2 * (x * x + z * z);
+        out[6] = 2 * (y * z - x * w);
+        out[7] = (float) translation[1];
+        out[8] = 2 * (x * z - y * w);
+        out[9] = 2 * (y * z + x * w);
+        out[10] = 1 - 2 * (x * x + y * y);
+        out[11] = (float) translation[2];
+    }
+
+    /**
+     * Sets {@code out} to the transform applying {@code b}, then {@code a}. {@code out} must not
+     * be {@code a} or {@code b}.
+     */
+    static void multiply(float[] a, float[] b, float[] out) {
+        for (int row = 0; row < 3; row++) {
+            float a0 = a[4 * row];
+            float a1 = a[4 * row + 1];
+            float a2 = a[4 * row + 2];
+            out[4 * row] = a0 * b[0] + a1 * b[4] + a2 * b[8];
+            out[4 * row + 1] = a0 * b[1] + a1 * b[5] + a2 * b[9];
+            out[4 * row + 2] = a0 * b[2] + a1 * b[6] + a2 * b[10];
+            out[4 * row + 3] = a0 * b[3] + a1 * b[7] + a2 * b[11] + a[4 * row + 3];
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.hellodepthperception;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Downsamples point clouds by averaging the points that fall into the same cubic voxel.
+ * <p/>
+ * Every output point is the average position and confidence of the input points of one voxel,
+ * so that downstream stages get far fewer points, evenly spread whatever the distance to the
+ * sensor. Voxels are accumulated in an open addressing hash table keyed by the packed voxel
+ * coordinates, so a cloud is filtered in a single O(n) pass. The table and the output are
+ * reused across frames and only grow when a cloud is larger than any seen before. Not thread
+ * safe.
+ */
+final class VoxelGridFilter {
+    private static final int FLOATS_PER_POINT = 4;
+    // Voxel coordinates are packed into 21 bits each, offset to be non-negative.
+    private static final int COORDINATE_BITS = 21;
+    private static final int COORDINATE_OFFSET = 1 << (COORDINATE_BITS - 1);
+    private static final int COORDINATE_MASK = (1 << COORDINATE_BITS) - 1;
+    private static final long EMPTY = -1;
+
+    private final float mInverseVoxelSize;
+
+    private float[] mInput = new float[0];
+    private float[] mOutput = new float[0];
+
+    // Hash table of voxels: packed key, running sums and point count per slot.
+    private long[] mKeys = new long[0];
+    private float[] mSums = new float[0];
+    private int[] mCounts = new int[0];
+    private int mMask;
+    // Slots in use, in insertion order.
+    private int[] mUsedSlots = new int[0];
+
+    /**
+     * @param voxelSize the edge length of the voxels, in meters.
+     */
+    VoxelGridFilter(float voxelSize) {
+        mInverseVoxelSize = 1.0f / voxelSize;
+    }
+
+    /**
+     * Downsamples an XYZC point cloud buffer, whose position is left unchanged.
+     *
+     * @return the number of points written to {@link #getPoints()}.
+     */
+    int filter(FloatBuffer points, int numPoints) {
+        int numFloats = FLOATS_PER_POINT * numPoints;
+        if (mInput.length < numFloats) {
+            mInput = new float[numFloats];
+        }
+        int position = points.position();
+        points.position(0);
+        points.get(mInput, 0, numFloats);
+        points.position(position);
+        return filter(mInput, numPoints);
+    }
+
+    /**
+     * Downsamples an XYZC point array.
+     *
+     * @return the number of points written to {@link #getPoints()}.
+     */
+    int filter(float[] points, int numPoints) {
+        ensureCapacity(numPoints);
+        long[] keys = mKeys;
+        float[] sums = mSums;
+        int[] counts = mCounts;
+        int mask = mMask;
+        float scale = mInverseVoxelSize;
+        int used = 0;
+
+        int numFloats = FLOATS_PER_POINT * numPoints;
+        for (int i = 0; i < numFloats; i += FLOATS_PER_POINT) {
+            float x = points[i];
+            float y = points[i + 1];
+            float z = points[i + 2];
+            if (x != x || y != y || z != z) {
+                // Skip NaN points.
+                continue;
+            }
+            long key = pack((int) Math.floor(x * scale), (int) Math.floor(y * scale),
+                    (int) Math.floor(z * scale));
+            int slot = hash(key) & mask;
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            int sum = FLOATS_PER_POINT * slot;
+            if (keys[slot] == EMPTY) {
+                keys[slot] = key;
+                sums[sum] = x;
+                sums[sum + 1] = y;
+                sums[sum + 2] = z;
+                sums[sum + 3] = points[i + 3];
+                counts[slot] = 1;
+                mUsedSlots[used++] = slot;
+            } else {
+                sums[sum] += x;
+                sums[sum + 1] += y;
+                sums[sum + 2] += z;
+                sums[sum + 3] += points[i + 3];
+                counts[slot]++;
+            }
+        }
+
+        // Write the averages out, and clear the used slots for the next frame.
+        float[] output = mOutput;
+        for (int i = 0; i < used; i++) {
+            int slot = mUsedSlots[i];
+            int sum = FLOATS_PER_POINT * slot;
+            float inverseCount = 1.0f / counts[slot];
+            int out = FLOATS_PER_POINT * i;
+            output[out] = sums[sum] * inverseCount;
+            output[out + 1] = sums[sum + 1] * inverseCount;
+            output[out + 2] = sums[sum + 2] * inverseCount;
+            output[out + 3] = sums[sum + 3] * inverseCount;
+            keys[slot] = EMPTY;
+        }
+        return used;
+    }
+
+    /**
+     * Returns the XYZC points of the last filtered cloud. The array is reused across frames and
+     * may be longer than the number of points.
+     */
+    float[] getPoints() {
+        return mOutput;
+    }
+
+    private void ensureCapacity(int numPoints) {
+        if (mUsedSlots.length >= numPoints) {
+            return;
+        }
+        // Keep the load factor at or below one half.
+        int capacity = Integer.highestOneBit(Math.max(1, numPoints) * 2 - 1) << 1;
+        mKeys = new long[capacity];
+        Arrays.fill(mKeys, EMPTY);
+        mSums = new float[FLOATS_PER_POINT * capacity];
+        mCounts = new int[capacity];
+        mMask = capacity - 1;
+        mUsedSlots = new int[numPoints];
+        mOutput = new float[FLOATS_PER_POINT * numPoints];
+    }
+
+    private static long pack(int x, int y, int z) {
+        return ((long) ((x + COORDINATE_OFFSET) & COORDINATE_MASK) << (2 * COORDINATE_BITS))
+                | ((long) ((y + COORDINATE_OFFSET) & COORDINATE_MASK) << COORDINATE_BITS)
+                | ((z + COORDINATE_OFFSET) & COORDINATE_MASK);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h >>> 32);
+    }
+}
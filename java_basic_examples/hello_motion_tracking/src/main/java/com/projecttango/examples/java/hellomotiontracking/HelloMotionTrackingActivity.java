@@ -27,6 +27,10 @@ import com.google.atap.tangoservice.TangoOutOfDateException;
 import com.google.atap.tangoservice.TangoPointCloudData;
 import com.google.atap.tangoservice.TangoPoseData;
 import com.google.atap.tangoservice.TangoXyzIjData;
+import com.projecttango.examples.java.utils.AsyncLogger;
+import com.projecttango.examples.java.utils.AsyncLoggers;
+import com.projecttango.examples.java.utils.MetricsOverlay;
+import com.projecttango.examples.java.utils.MetricsOverlays;
 
 import android.app.Activity;
 import android.os.Bundle;
@@ -45,10 +49,28 @@ public class HelloMotionTrackingActivity extends Activity {
     private Tango mTango;
     private TangoConfig mConfig;
 
+    private MetricsOverlay mMetricsOverlay;
+
+    // Poses are logged asynchronously, one out of every POSE_LOG_SAMPLING.
+    private static final int LOG_CAPACITY = 256;
+    private static final int POSE_LOG_SAMPLING = 10;
+    private AsyncLogger mLogger;
+    private int mPoseEvent;
+    // Only used from the pose callback thread.
+    private final double[] mPoseValues = new double[7];
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_motion_tracking);
+        mMetricsOverlay = MetricsOverlays.forTextView(this, R.id.metrics_textview);
+        startLogging();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        AsyncLoggers.stop(mLogger);
     }
 
     @Override
@@ -91,6 +113,7 @@ public class HelloMotionTrackingActivity extends Activity {
             } catch (TangoErrorException e) {
                 Log.e(TAG, getString(R.string.exception_tango_error), e);
             }
+            mMetricsOverlay.stop();
         }
     }
 
@@ -123,7 +146,7 @@ public class HelloMotionTrackingActivity extends Activity {
                 TangoPoseData.COORDINATE_FRAME_DEVICE));
 
         // Listen for new Tango data
-        mTango.connectListener(framePairs, new OnTangoUpdateListener() {
+        mTango.connectListener(framePairs, mMetricsOverlay.start(new OnTangoUpdateListener() {
             @Override
             public void onPoseAvailable(final TangoPoseData pose) {
                 logPose(pose);
@@ -148,26 +171,28 @@ public class HelloMotionTrackingActivity extends Activity {
             public void onFrameAvailable(int cameraId) {
                 // We are not using onFrameAvailable for this application.
             }
-        });
+        }));
     }
 
     /**
-     * Log the Position and Orientation of the given pose in the Logcat as information.
+     * Log the Position and Orientation of the given pose, through the logger so that the
+     * formatting and the Logcat are kept off the callback thread.
      *
      * @param pose the pose to log.
      */
     private void logPose(TangoPoseData pose) {
-        StringBuilder stringBuilder = new StringBuilder();
-
-        float translation[] = pose.getTranslationAsFloats();
-        stringBuilder.append("Position: " +
-                translation[0] + ", " + translation[1] + ", " + translation[2]);
-
-        float orientation[] = pose.getRotationAsFloats();
-        stringBuilder.append(". Orientation: " +
-                orientation[0] + ", " + orientation[1] + ", " +
-                orientation[2] + ", " + orientation[3]);
+        System.arraycopy(pose.translation, 0, mPoseValues, 0, 3);
+        System.arraycopy(pose.rotation, 0, mPoseValues, 3, 4);
+        mLogger.log(mPoseEvent, mPoseValues, mPoseValues.length);
+    }
 
-        Log.i(TAG, stringBuilder.toString());
+    /**
+     * Starts the logger of the poses, writing to the logcat or, when AsyncLoggers.TRACE_LOG is set,
+     * to a trace file.
+     */
+    private void startLogging() {
+        mLogger = AsyncLoggers.start(this, LOG_CAPACITY, Log.INFO);
+        mPoseEvent = mLogger.event(TAG, "Position: {}, {}, {}. Orientation: {}, {}, {}, {}");
+        mLogger.setSampling(TAG, POSE_LOG_SAMPLING);
     }
 }
@@ -28,6 +28,12 @@ import com.google.atap.tangoservice.TangoOutOfDateException;
 import com.google.atap.tangoservice.TangoPointCloudData;
 import com.google.atap.tangoservice.TangoPoseData;
 import com.google.atap.tangoservice.TangoXyzIjData;
+import com.projecttango.examples.java.utils.AsyncLogger;
+import com.projecttango.examples.java.utils.AsyncLoggers;
+import com.projecttango.examples.java.utils.FrameScheduler;
+import com.projecttango.examples.java.utils.MetricsOverlay;
+import com.projecttango.examples.java.utils.MetricsOverlays;
+import com.projecttango.examples.java.utils.SessionRecording;
 
 import android.app.Activity;
 import android.opengl.GLSurfaceView;
@@ -35,8 +41,8 @@ import android.os.Bundle;
 import android.util.Log;
 import android.widget.TextView;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This is a stripped down simple example that shows how to use the Tango APIs to render the Tango
@@ -63,16 +69,52 @@ public class HelloVideoActivity extends Activity {
 
     private Tango mTango;
     private TangoConfig mConfig;
+
+    private SessionRecording mSessionRecording;
+
+    // Set to true to also measure the time the GPU takes to render every frame. This waits for
+    // the GPU at the end of every frame, so the frames take longer.
+    private static final boolean MEASURE_GPU_TIME = false;
+    private MetricsOverlay mMetricsOverlay;
+
+    // Frames are logged asynchronously, at most LOG_RATE_CAP events a second: the three events
+    // of the first two frames of every second.
+    private static final int LOG_CAPACITY = 256;
+    private static final int LOG_RATE_CAP = 6;
+    private AsyncLogger mLogger;
+    private int mFrameAvailableEvent;
+    private int mPreRenderEvent;
+    private int mFrameUpdatedEvent;
+
+    // Set to true to downsample every camera frame to a small luminance image on the GPU, and
+    // analyze it on a worker thread: here, just logging its mean luminance.
+    private static final boolean ANALYZE_LUMINANCE = false;
+    private static final int LUMINANCE_WIDTH = 160;
+    private static final int LUMINANCE_HEIGHT = 90;
+    private static final int LUMINANCE_WORKER_COUNT = 1;
+    private LuminanceReadback mLuminanceReadback;
+    private int mLuminanceEvent;
+
+    // Set to true to draw the depth point cloud over the camera image, colored by depth. This
+    // enables the depth camera and rebinds the camera state every frame.
+    private static final boolean SHOW_POINT_CLOUD = false;
+    private PointCloudOverlay mPointCloudOverlay;
+
     private boolean mIsConnected = false;
 
     // NOTE: Naming indicates which thread is in charge of updating this variable
     private int mConnectedTextureIdGlThread = INVALID_TEXTURE_ID;
-    private AtomicBoolean mIsFrameAvailableTangoThread = new AtomicBoolean(false);
+    // Tracks the frames reported by the Tango thread and rendered by the OpenGL thread, and
+    // chooses the render mode.
+    private final FrameScheduler mFrameScheduler = new FrameScheduler();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        mMetricsOverlay = MetricsOverlays.forTextView(this, R.id.metrics_textview);
+        mSessionRecording = new SessionRecording(this);
+        startLogging();
 
         mTimestampTextView = (TextView) findViewById(R.id.timestamp_textview);
         mSurfaceView = (GLSurfaceView) findViewById(R.id.surfaceview);
@@ -80,6 +122,15 @@ public class HelloVideoActivity extends Activity {
         setupRenderer();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mLuminanceReadback != null) {
+            mLuminanceReadback.shutdown();
+        }
+        AsyncLoggers.stop(mLogger);
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -138,6 +189,8 @@ public class HelloVideoActivity extends Activity {
             } catch (TangoErrorException e) {
                 Log.e(TAG, getString(R.string.exception_tango_error), e);
             }
+            mSessionRecording.stop();
+            mMetricsOverlay.stop();
         }
     }
 
@@ -149,6 +202,11 @@ public class HelloVideoActivity extends Activity {
         // Create a new Tango Configuration and enable the Camera API
         TangoConfig config = tango.getConfig(TangoConfig.CONFIG_TYPE_DEFAULT);
         config.putBoolean(TangoConfig.KEY_BOOLEAN_COLORCAMERA, true);
+        if (SHOW_POINT_CLOUD) {
+            config.putBoolean(TangoConfig.KEY_BOOLEAN_DEPTH, true);
+            config.putInt(TangoConfig.KEY_INT_DEPTH_MODE,
+                    TangoConfig.TANGO_DEPTH_MODE_POINT_CLOUD);
+        }
         return config;
     }
 
@@ -162,8 +220,23 @@ public class HelloVideoActivity extends Activity {
         // Select coordinate frame pair
         ArrayList<TangoCoordinateFramePair> framePairs = new ArrayList<TangoCoordinateFramePair>();
 
+        if (SHOW_POINT_CLOUD) {
+            // The depth camera is fixed relative to the color camera, so its pose is queried
+            // once, at any time.
+            TangoPoseData depthToColor = mTango.getPoseAtTime(0.0, new TangoCoordinateFramePair(
+                    TangoPoseData.COORDINATE_FRAME_CAMERA_COLOR,
+                    TangoPoseData.COORDINATE_FRAME_CAMERA_DEPTH));
+            if (depthToColor.statusCode == TangoPoseData.POSE_VALID) {
+                mPointCloudOverlay.setCameraModel(
+                        mTango.getCameraIntrinsics(TangoCameraIntrinsics.TANGO_CAMERA_COLOR),
+                        depthToColor);
+            } else {
+                Log.w(TAG, "Depth camera extrinsics not available, point cloud not shown");
+            }
+        }
+
         // Listen for new Tango data
-        mTango.connectListener(framePairs, new OnTangoUpdateListener() {
+        OnTangoUpdateListener listener = mMetricsOverlay.start(new OnTangoUpdateListener() {
             @Override
             public void onPoseAvailable(final TangoPoseData pose) {
                 // We are not using TangoPoseData for this application.
@@ -176,7 +249,10 @@ public class HelloVideoActivity extends Activity {
 
             @Override
             public void onPointCloudAvailable(final TangoPointCloudData pointCloudData) {
-                // We are not using onPointCloudAvailable for this app.
+                if (SHOW_POINT_CLOUD) {
+                    // Copied for the OpenGL thread, without waiting for it.
+                    mPointCloudOverlay.updatePointCloud(pointCloudData);
+                }
             }
 
             @Override
@@ -188,35 +264,35 @@ public class HelloVideoActivity extends Activity {
             public void onFrameAvailable(int cameraId) {
                 // This will get called every time a new RGB camera frame is available to be
                 // rendered.
-                Log.d(TAG, "onFrameAvailable");
+                mLogger.log(mFrameAvailableEvent, cameraId);
 
                 if (cameraId == TangoCameraIntrinsics.TANGO_CAMERA_COLOR) {
-                    // Now that we are receiving onFrameAvailable callbacks, we can switch
-                    // to RENDERMODE_WHEN_DIRTY to drive the render loop from this callback.
-                    // This will result on a frame rate of  approximately 30FPS, in synchrony with
-                    // the RGB camera driver.
-                    // If you need to render at a higher rate (i.e.: if you want to render complex
-                    // animations smoothly) you  can use RENDERMODE_CONTINUOUSLY throughout the
-                    // application lifecycle.
-                    if (mSurfaceView.getRenderMode() != GLSurfaceView.RENDERMODE_WHEN_DIRTY) {
-                        mSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
-                    }
-
                     // Note that the RGB data is not passed as a parameter here.
                     // Instead, this callback indicates that you can call
                     // the {@code updateTexture()} method to have the
                     // RGB data copied directly to the OpenGL texture at the native layer.
-                    // Since that call needs to be done from the OpenGL thread, what we do here is
-                    // set-up a flag to tell the OpenGL thread to do that in the next run.
-                    // NOTE: Even if we are using a render by request method, this flag is still
-                    // necessary since the OpenGL thread run requested below is not guaranteed
-                    // to run in synchrony with this requesting call.
-                    mIsFrameAvailableTangoThread.set(true);
-                    // Trigger an OpenGL render to update the OpenGL scene with the new RGB data.
-                    mSurfaceView.requestRender();
+                    // Since that call needs to be done from the OpenGL thread, the frame is
+                    // reported to the scheduler, which the OpenGL thread takes it from in the next
+                    // run.
+                    // The scheduler also chooses between RENDERMODE_WHEN_DIRTY, to drive the
+                    // render loop from this callback at the rate of the RGB camera driver, and
+                    // RENDERMODE_CONTINUOUSLY, whichever displays the frames with the lowest
+                    // latency.
+                    boolean requestRender = mFrameScheduler.onFrameAvailable();
+                    int renderMode = requestRender ? GLSurfaceView.RENDERMODE_WHEN_DIRTY
+                            : GLSurfaceView.RENDERMODE_CONTINUOUSLY;
+                    if (mSurfaceView.getRenderMode() != renderMode) {
+                        mSurfaceView.setRenderMode(renderMode);
+                    }
+                    if (requestRender) {
+                        // Trigger an OpenGL render to update the OpenGL scene with the new RGB
+                        // data.
+                        mSurfaceView.requestRender();
+                    }
                 }
             }
-        });
+        }, mRenderer.getMetrics(), mFrameScheduler);
+        mTango.connectListener(framePairs, mSessionRecording.start(listener));
     }
 
     /**
@@ -229,7 +305,7 @@ public class HelloVideoActivity extends Activity {
         mRenderer = new HelloVideoRenderer(new HelloVideoRenderer.RenderCallback() {
             @Override
             public void preRender() {
-                Log.d(TAG, "preRender");
+                mLogger.log(mPreRenderEvent);
                 // This is the work that you would do on your main OpenGL render thread.
 
                 // We need to be careful to not run any Tango-dependent code in the OpenGL
@@ -255,9 +331,13 @@ public class HelloVideoActivity extends Activity {
 
                         // If there is a new RGB camera frame available, update the texture and
                         // scene camera pose.
-                        if (mIsFrameAvailableTangoThread.compareAndSet(true, false)) {
+                        if (mFrameScheduler.takeFrames()) {
                             double rgbTimestamp =
                                     mTango.updateTexture(TangoCameraIntrinsics.TANGO_CAMERA_COLOR);
+                            mFrameScheduler.onFrameUpdated(rgbTimestamp);
+                            mRenderer.onFrameUpdated(rgbTimestamp);
+                            mSessionRecording.onFrameTimestamp(
+                                    TangoCameraIntrinsics.TANGO_CAMERA_COLOR, rgbTimestamp);
                             // {@code rgbTimestamp} contains the exact timestamp at which the
                             // rendered RGB frame was acquired.
 
@@ -267,7 +347,7 @@ public class HelloVideoActivity extends Activity {
                             // java_augmented_reality_opengl_example projects.
 
                             // Log and display timestamp for informational purposes
-                            Log.d(TAG, "Frame updated. Timestamp: " + rgbTimestamp);
+                            mLogger.log(mFrameUpdatedEvent, rgbTimestamp);
 
                             // Updating the UI needs to be in a separate thread. Do it through a
                             // final local variable to avoid concurrency issues.
@@ -287,7 +367,46 @@ public class HelloVideoActivity extends Activity {
                     Log.e(TAG, "Exception on the OpenGL thread", t);
                 }
             }
+
+            @Override
+            public void postRender() {
+                mFrameScheduler.onFrameRendered();
+            }
         });
+        mRenderer.setGpuTimingEnabled(MEASURE_GPU_TIME);
+        if (ANALYZE_LUMINANCE) {
+            mLuminanceReadback = new LuminanceReadback(LUMINANCE_WIDTH, LUMINANCE_HEIGHT,
+                    LUMINANCE_WORKER_COUNT, new LuminanceReadback.Listener() {
+                @Override
+                public void onLuminanceImage(ByteBuffer luminance, int width, int height,
+                                             double timestamp) {
+                    // This is where you would run vision on the image, e.g. to detect doorways.
+                    long sum = 0;
+                    for (int i = 0; i < width * height; i++) {
+                        sum += luminance.get(i) & 0xff;
+                    }
+                    mLogger.log(mLuminanceEvent, timestamp, (double) sum / (width * height));
+                }
+            });
+            mRenderer.setLuminanceReadback(mLuminanceReadback);
+        }
+        if (SHOW_POINT_CLOUD) {
+            mPointCloudOverlay = new PointCloudOverlay();
+            mRenderer.setPointCloudOverlay(mPointCloudOverlay);
+        }
         mSurfaceView.setRenderer(mRenderer);
     }
+
+    /**
+     * Starts the logger of the frames, writing to the logcat or, when AsyncLoggers.TRACE_LOG is
+     * set, to a trace file.
+     */
+    private void startLogging() {
+        mLogger = AsyncLoggers.start(this, LOG_CAPACITY, Log.DEBUG);
+        mFrameAvailableEvent = mLogger.event(TAG, "onFrameAvailable: camera {}");
+        mPreRenderEvent = mLogger.event(TAG, "preRender");
+        mFrameUpdatedEvent = mLogger.event(TAG, "Frame updated. Timestamp: {}");
+        mLuminanceEvent = mLogger.event(TAG, "Luminance of frame {}: mean {}");
+        mLogger.setRateCap(TAG, LOG_RATE_CAP);
+    }
 }
@@ -15,6 +15,8 @@
  */
 package com.projecttango.examples.java.hellovideo;
 
+import com.projecttango.examples.java.utils.CallbackMetrics;
+
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
@@ -23,13 +25,25 @@ import android.util.Log;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 /**
  * A simple OpenGL renderer that renders the Tango RGB camera texture on a full-screen background.
+ * <p/>
+ * The camera quad only needs one program, one texture and one vertex buffer, so all of that state
+ * is set up once in {@code onSurfaceCreated}: drawing a frame is then a single draw call. Code
+ * running in {@link RenderCallback#preRender()} must leave that state as it found it. The optional
+ * {@link LuminanceReadback} and {@link PointCloudOverlay} passes change it, and it is bound again
+ * before the next camera draw.
+ * <p/>
+ * The time taken by every frame is recorded in {@link #getMetrics()}: the CPU time of
+ * {@code onDrawFrame}, and optionally the time until the GPU has finished the frame, see
+ * {@link #setGpuTimingEnabled(boolean)}.
  */
 public class HelloVideoRenderer implements GLSurfaceView.Renderer {
     private static final String TAG = HelloVideoRenderer.class.getSimpleName();
@@ -58,37 +72,100 @@ public class HelloVideoRenderer implements GLSurfaceView.Renderer {
      */
     public interface RenderCallback {
         void preRender();
+
+        /**
+         * Called once the frame is drawn, before it is swapped to the display.
+         */
+        void postRender();
     }
 
-    private FloatBuffer mVertex;
-    private FloatBuffer mTexCoord;
-    private ShortBuffer mIndices;
+    // Position (x, y) and texture coordinates (s, t) of every vertex.
+    private static final int VERTEX_SIZE = 4 * Float.SIZE / 8;
+
+    private FloatBuffer mVertices;
     private int[] mVbos;
     private int[] mTextures = new int[1];
     private int mProgram;
+    // Locations in mProgram, resolved once it is linked.
+    private int mPositionHandle;
+    private int mTexCoordHandle;
+    private int mTextureHandle;
+    private int mViewportWidth;
+    private int mViewportHeight;
     private RenderCallback mRenderCallback;
 
+    // Whether the camera state is still bound, since the passes change it.
+    private boolean mCameraStateBound;
+
+    private LuminanceReadback mLuminanceReadback;
+    private PointCloudOverlay mPointCloudOverlay;
+    // Set by onFrameUpdated, only accessed from the OpenGL thread.
+    private boolean mFrameUpdated;
+    private double mFrameTimestamp;
+
+    private final CallbackMetrics mCpuMetrics = new CallbackMetrics("onDrawFrame");
+    private final CallbackMetrics mGpuMetrics = new CallbackMetrics("onDrawFrame+glFinish");
+    private final List<CallbackMetrics> mMetrics =
+            Collections.unmodifiableList(Arrays.asList(mCpuMetrics, mGpuMetrics));
+    private volatile boolean mGpuTimingEnabled;
+
     public HelloVideoRenderer(RenderCallback callback) {
         mRenderCallback = callback;
         mTextures[0] = 0;
-        // Vertex positions.
-        float[] vtmp = { 1.0f, -1.0f, -1.0f, -1.0f, 1.0f, 1.0f, -1.0f, 1.0f };
-        // Vertex texture coords.
-        float[] ttmp = { 1.0f, 1.0f, 0.0f, 1.0f, 1.0f, 0.0f, 0.0f, 0.0f };
-        // Indices.
-        short[] itmp = {0, 1, 2, 3};
-        mVertex = ByteBuffer.allocateDirect(vtmp.length * Float.SIZE / 8).order(
-                ByteOrder.nativeOrder()).asFloatBuffer();
-        mVertex.put(vtmp);
-        mVertex.position(0);
-        mTexCoord = ByteBuffer.allocateDirect(ttmp.length * Float.SIZE / 8).order(
+        // Vertices of the triangle strip, interleaved with their texture coords.
+        float[] vtmp = {
+                1.0f, -1.0f, 1.0f, 1.0f,
+                -1.0f, -1.0f, 0.0f, 1.0f,
+                1.0f, 1.0f, 1.0f, 0.0f,
+                -1.0f, 1.0f, 0.0f, 0.0f };
+        mVertices = ByteBuffer.allocateDirect(vtmp.length * Float.SIZE / 8).order(
                 ByteOrder.nativeOrder()).asFloatBuffer();
-        mTexCoord.put(ttmp);
-        mTexCoord.position(0);
-        mIndices = ByteBuffer.allocateDirect(itmp.length * Short.SIZE / 8).order(
-                ByteOrder.nativeOrder()).asShortBuffer();
-        mIndices.put(itmp);
-        mIndices.position(0);
+        mVertices.put(vtmp);
+        mVertices.position(0);
+    }
+
+    /**
+     * Returns the metrics of the frames: how long {@code onDrawFrame} took on the CPU and, when
+     * enabled, until the GPU finished the frame. Both record the rate and jitter of the frames.
+     */
+    public List<CallbackMetrics> getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Sets whether to measure the time until the GPU has finished every frame. OpenGL ES 2.0 has
+     * no timer queries, so this waits for the GPU with {@code glFinish}, which stalls the
+     * pipelining of CPU and GPU work: only enable it to profile the GPU cost of the frames.
+     */
+    public void setGpuTimingEnabled(boolean enabled) {
+        mGpuTimingEnabled = enabled;
+    }
+
+    /**
+     * Sets the pass that downsamples every new camera frame to a luminance image, must be called
+     * before the surface is created.
+     */
+    public void setLuminanceReadback(LuminanceReadback luminanceReadback) {
+        mLuminanceReadback = luminanceReadback;
+    }
+
+    /**
+     * Sets the overlay drawing the point cloud over the camera image, must be called before the
+     * surface is created.
+     */
+    public void setPointCloudOverlay(PointCloudOverlay pointCloudOverlay) {
+        mPointCloudOverlay = pointCloudOverlay;
+    }
+
+    /**
+     * Reports that the camera texture was updated with a new frame, from
+     * {@link RenderCallback#preRender()}.
+     *
+     * @param timestamp the timestamp of the frame, in seconds.
+     */
+    public void onFrameUpdated(double timestamp) {
+        mFrameUpdated = true;
+        mFrameTimestamp = timestamp;
     }
 
     @Override
@@ -97,50 +174,82 @@ public class HelloVideoRenderer implements GLSurfaceView.Renderer {
         createCameraVbos();
         GLES20.glClearColor(1.0f, 1.0f, 0.0f, 1.0f);
         mProgram = getProgram(vss, fss);
+        mPositionHandle = GLES20.glGetAttribLocation(mProgram, "vPosition");
+        mTexCoordHandle = GLES20.glGetAttribLocation(mProgram, "vTexCoord");
+        mTextureHandle = GLES20.glGetUniformLocation(mProgram, "sTexture");
+        if (mLuminanceReadback != null) {
+            mLuminanceReadback.onSurfaceCreated(mVbos[0], VERTEX_SIZE);
+        }
+        if (mPointCloudOverlay != null) {
+            mPointCloudOverlay.onSurfaceCreated();
+        }
+        bindCameraState();
     }
 
     @Override
     public void onSurfaceChanged(GL10 gl10, int width, int height) {
+        mViewportWidth = width;
+        mViewportHeight = height;
         GLES20.glViewport(0, 0, width, height);
     }
 
     @Override
     public void onDrawFrame(GL10 gl10) {
+        long start = System.nanoTime();
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
         // Call application-specific code that needs to run on the OpenGL thread
         mRenderCallback.preRender();
 
-        GLES20.glUseProgram(mProgram);
-
-        // Don't write depth buffer because we want to draw the camera as background
-        GLES20.glDepthMask(false);
+        if (mFrameUpdated && mLuminanceReadback != null) {
+            mLuminanceReadback.draw(mFrameTimestamp);
+            GLES20.glViewport(0, 0, mViewportWidth, mViewportHeight);
+            mCameraStateBound = false;
+        }
+        mFrameUpdated = false;
 
-        int ph = GLES20.glGetAttribLocation(mProgram, "vPosition");
-        int tch = GLES20.glGetAttribLocation(mProgram, "vTexCoord");
-        int th = GLES20.glGetUniformLocation(mProgram, "sTexture");
+        if (!mCameraStateBound) {
+            bindCameraState();
+        }
+        // The depth test is disabled, so the camera background doesn't write the depth buffer.
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextures[0]);
-        GLES20.glUniform1i(th, 0);
+        if (mPointCloudOverlay != null) {
+            // The arrays of the camera quad only have 4 vertices, far fewer than the points.
+            GLES20.glDisableVertexAttribArray(mPositionHandle);
+            GLES20.glDisableVertexAttribArray(mTexCoordHandle);
+            mPointCloudOverlay.draw();
+            mCameraStateBound = false;
+        }
 
-        GLES20.glEnableVertexAttribArray(ph);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVbos[0]);
-        GLES20.glVertexAttribPointer(ph, 2, GLES20.GL_FLOAT, false, 4 * 2, 0);
+        mRenderCallback.postRender();
 
-        GLES20.glEnableVertexAttribArray(tch);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVbos[1]);
-        GLES20.glVertexAttribPointer(tch, 2, GLES20.GL_FLOAT, false, 4 * 2, 0);
+        long end = System.nanoTime();
+        mCpuMetrics.record(start / 1e9, start, end);
+        if (mGpuTimingEnabled) {
+            GLES20.glFinish();
+            mGpuMetrics.record(start / 1e9, start, System.nanoTime());
+        }
+    }
 
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mVbos[2]);
-        GLES20.glDrawElements(GLES20.GL_TRIANGLE_STRIP, 4, GLES20.GL_UNSIGNED_SHORT, 0);
+    /**
+     * Binds the program, texture and vertex buffer of the camera quad, which stay bound until
+     * another pass changes them.
+     */
+    private void bindCameraState() {
+        GLES20.glUseProgram(mProgram);
 
-        // Unbind.
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextures[0]);
+        GLES20.glUniform1i(mTextureHandle, 0);
 
-        // Enable depth write again for any additional rendering on top of the camera surface
-        GLES20.glDepthMask(true);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVbos[0]);
+        GLES20.glEnableVertexAttribArray(mPositionHandle);
+        GLES20.glVertexAttribPointer(mPositionHandle, 2, GLES20.GL_FLOAT, false, VERTEX_SIZE, 0);
+        GLES20.glEnableVertexAttribArray(mTexCoordHandle);
+        GLES20.glVertexAttribPointer(mTexCoordHandle, 2, GLES20.GL_FLOAT, false, VERTEX_SIZE,
+                2 * Float.SIZE / 8);
+        mCameraStateBound = true;
     }
 
     private void createTextures() {
@@ -151,42 +260,31 @@ public class HelloVideoRenderer implements GLSurfaceView.Renderer {
                 GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
         GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES,
                 GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        // The luminance readback samples the camera texture once per pixel of its much smaller
+        // image: bilinear filtering blends the 2x2 texels around every sample, a little less
+        // aliasing than picking the nearest one, though most texels still aren't sampled.
+        int filter = mLuminanceReadback != null ? GLES20.GL_LINEAR : GLES20.GL_NEAREST;
         GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES,
-                GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+                GLES20.GL_TEXTURE_MIN_FILTER, filter);
         GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES,
-                GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+                GLES20.GL_TEXTURE_MAG_FILTER, filter);
     }
 
     /**
-     * Creates and populeates vertex buffer objects for rendering the camera.
+     * Creates and populates the vertex buffer object for rendering the camera.
      */
     private void createCameraVbos() {
-        mVbos = new int[3];
-        // Generate 3 buffers. Vertex buffer, texture buffer and index buffer.
-        GLES20.glGenBuffers(3, mVbos, 0);
+        mVbos = new int[1];
+        // Generate 1 buffer, with the positions and texture coords of the vertices.
+        GLES20.glGenBuffers(1, mVbos, 0);
         // Bind to vertex buffer
         GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVbos[0]);
         // Populate it.
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, mVertex.capacity() * Float.SIZE / 8,
-                mVertex, GLES20.GL_STATIC_DRAW); // 4 2D vertex of floats.
-
-        // Bind to texture buffer
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVbos[1]);
-        // Populate it.
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, mTexCoord.capacity() * Float.SIZE / 8,
-                mTexCoord, GLES20.GL_STATIC_DRAW); // 4 2D texture coords of floats.
-
-        // Bind to indices buffer
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mVbos[2]);
-        // Populate it.
-        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndices.capacity() * Short.SIZE / 8,
-                mIndices, GLES20.GL_STATIC_DRAW); // 4 short indices
-
-        // Unbind buffer.
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, mVertices.capacity() * Float.SIZE / 8,
+                mVertices, GLES20.GL_STATIC_DRAW); // 4 vertices of 4 floats.
     }
 
-    private int getProgram(String vShaderSrc, String fShaderSrc) {
+    static int getProgram(String vShaderSrc, String fShaderSrc) {
         int program = GLES20.glCreateProgram();
         if (program == 0) {
             return 0;
@@ -208,7 +306,7 @@ public class HelloVideoRenderer implements GLSurfaceView.Renderer {
         return program;
     }
 
-    private int loadShader(int type, String shaderSrc) {
+    private static int loadShader(int type, String shaderSrc) {
         int shader = GLES20.glCreateShader(type);
         GLES20.glShaderSource(shader, shaderSrc);
         GLES20.glCompileShader(shader);
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.hellovideo;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downsamples the camera texture to a small luminance image on the GPU, reads it back and hands
+ * it to a pool of workers, for lightweight vision without copying full resolution frames.
+ * <p/>
+ * Luminance isn't a renderable format in OpenGL ES 2.0, so the image is rendered to an RGBA
+ * texture a quarter of its width, every texel packing four consecutive luminance pixels: read
+ * back as bytes, it is the luminance image row after row. OpenGL ES 2.0 has no asynchronous
+ * readback either, so the pass renders to two targets in turn and reads back the one rendered
+ * the frame before, which the GPU has most likely finished by then: {@code glReadPixels} then
+ * copies without waiting for the current frame.
+ * <p/>
+ * Images are read into direct buffers taken from a fixed pool, one more than there are workers.
+ * When all of them are in use, the frame is skipped rather than waited for: the render thread
+ * never blocks on the workers.
+ */
+public final class LuminanceReadback {
+    /**
+     * Receives the luminance images, on a worker thread.
+     */
+    public interface Listener {
+        /**
+         * @param luminance the image, {@code width * height} bytes row after row from the top,
+         *                  only valid during the call.
+         * @param timestamp the timestamp of the camera frame, in seconds.
+         */
+        void onLuminanceImage(ByteBuffer luminance, int width, int height, double timestamp);
+    }
+
+    private static final String TAG = LuminanceReadback.class.getSimpleName();
+    private static final int TARGET_COUNT = 2;
+
+    private static final String VSS =
+            "attribute vec2 vPosition;\n" +
+            "void main() {\n" +
+            "  gl_Position = vec4(vPosition.x, vPosition.y, 0.0, 1.0);\n" +
+            "}";
+
+    // Every fragment samples the four pixels it packs. The top of the camera image, at texture
+    // coord t = 0, goes to the first row of the target, which is the first row read back.
+    private static final String FSS =
+            "#extension GL_OES_EGL_image_external : require\n" +
+            "precision mediump float;\n" +
+            "uniform samplerExternalOES sTexture;\n" +
+            "uniform vec2 uPixelSize;\n" +
+            "const vec3 kLuma = vec3(0.299, 0.587, 0.114);\n" +
+            "float luma(float x, float t) {\n" +
+            "  return dot(texture2D(sTexture, vec2(x * uPixelSize.x, t)).rgb, kLuma);\n" +
+            "}\n" +
+            "void main() {\n" +
+            "  float x = floor(gl_FragCoord.x) * 4.0 + 0.5;\n" +
+            "  float t = gl_FragCoord.y * uPixelSize.y;\n" +
+            "  gl_FragColor = vec4(luma(x, t), luma(x + 1.0, t), luma(x + 2.0, t),\n" +
+            "      luma(x + 3.0, t));\n" +
+            "}";
+
+    private final int mWidth;
+    private final int mHeight;
+    private final Listener mListener;
+    private final ExecutorService mExecutor;
+    private final BlockingQueue<ByteBuffer> mFreeBuffers;
+    private final AtomicLong mSkippedCount = new AtomicLong();
+
+    // Only accessed from the OpenGL thread.
+    private int mProgram;
+    private int mPositionHandle;
+    private int mVertexBuffer;
+    private int mStride;
+    private final int[] mTextures = new int[TARGET_COUNT];
+    private final int[] mFramebuffers = new int[TARGET_COUNT];
+    private final double[] mTimestamps = new double[TARGET_COUNT];
+    private int mNextTarget;
+    private boolean mPending;
+
+    /**
+     * @param width       the width of the luminance images, a multiple of 4.
+     * @param height      the height of the luminance images.
+     * @param workerCount the number of threads running the listener.
+     */
+    public LuminanceReadback(int width, int height, int workerCount, Listener listener) {
+        if (width % 4 != 0) {
+            throw new IllegalArgumentException("Width not a multiple of 4: " + width);
+        }
+        mWidth = width;
+        mHeight = height;
+        mListener = listener;
+        mExecutor = Executors.newFixedThreadPool(workerCount);
+        mFreeBuffers = new ArrayBlockingQueue<ByteBuffer>(workerCount + 1);
+        for (int i = 0; i < workerCount + 1; i++) {
+            mFreeBuffers.add(ByteBuffer.allocateDirect(width * height)
+                    .order(ByteOrder.nativeOrder()));
+        }
+    }
+
+    /**
+     * Returns the number of frames skipped as all the buffers were in use.
+     */
+    public long getSkippedCount() {
+        return mSkippedCount.get();
+    }
+
+    /**
+     * Creates the program and the render targets, on the OpenGL thread.
+     *
+     * @param vertexBuffer a vertex buffer holding a full-screen triangle strip, with the
+     *                     positions of its 4 vertices every {@code stride} bytes.
+     */
+    void onSurfaceCreated(int vertexBuffer, int stride) {
+        mProgram = HelloVideoRenderer.getProgram(VSS, FSS);
+        mPositionHandle = GLES20.glGetAttribLocation(mProgram, "vPosition");
+        GLES20.glUseProgram(mProgram);
+        GLES20.glUniform1i(GLES20.glGetUniformLocation(mProgram, "sTexture"), 0);
+        GLES20.glUniform2f(GLES20.glGetUniformLocation(mProgram, "uPixelSize"),
+                1.0f / mWidth, 1.0f / mHeight);
+        mVertexBuffer = vertexBuffer;
+        mStride = stride;
+
+        GLES20.glGenTextures(TARGET_COUNT, mTextures, 0);
+        GLES20.glGenFramebuffers(TARGET_COUNT, mFramebuffers, 0);
+        for (int i = 0; i < TARGET_COUNT; i++) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[i]);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+                    GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+                    GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, mWidth / 4, mHeight, 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffers[i]);
+            GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                    GLES20.GL_TEXTURE_2D, mTextures[i], 0);
+            if (GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER)
+                    != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+                Log.e(TAG, "Incomplete luminance framebuffer");
+            }
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        mNextTarget = 0;
+        mPending = false;
+    }
+
+    /**
+     * Renders the camera texture, bound to GL_TEXTURE0, to the next target and reads back the
+     * previous one, on the OpenGL thread. Leaves its program and vertex buffer bound, the default
+     * framebuffer bound and the viewport changed: the caller restores its own state.
+     *
+     * @param timestamp the timestamp of the camera frame in the texture.
+     */
+    void draw(double timestamp) {
+        int target = mNextTarget;
+        mNextTarget = (target + 1) % TARGET_COUNT;
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffers[target]);
+        GLES20.glViewport(0, 0, mWidth / 4, mHeight);
+        GLES20.glUseProgram(mProgram);
+        // Other passes, such as the point cloud overlay, bind their own buffers.
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBuffer);
+        GLES20.glEnableVertexAttribArray(mPositionHandle);
+        GLES20.glVertexAttribPointer(mPositionHandle, 2, GLES20.GL_FLOAT, false, mStride, 0);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        mTimestamps[target] = timestamp;
+
+        if (mPending) {
+            readBack(mNextTarget);
+        }
+        mPending = true;
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
+
+    /**
+     * Stops the workers, once they handled the images already read back.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    private void readBack(int target) {
+        final ByteBuffer buffer = mFreeBuffers.poll();
+        if (buffer == null) {
+            mSkippedCount.incrementAndGet();
+            return;
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffers[target]);
+        buffer.clear();
+        GLES20.glReadPixels(0, 0, mWidth / 4, mHeight, GLES20.GL_RGBA,
+                GLES20.GL_UNSIGNED_BYTE, buffer);
+        final double timestamp = mTimestamps[target];
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mListener.onLuminanceImage(buffer, mWidth, mHeight, timestamp);
+                    } finally {
+                        mFreeBuffers.add(buffer);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shut down.
+            mFreeBuffers.add(buffer);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.hellovideo;
+
+import com.google.atap.tangoservice.TangoCameraIntrinsics;
+import com.google.atap.tangoservice.TangoPointCloudData;
+import com.google.atap.tangoservice.TangoPoseData;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Draws the latest point cloud over the color camera image, as points colored by depth: red
+ * up close, green far away.
+ * <p/>
+ * Point clouds are handed over from the Tango callback thread to the OpenGL thread through a
+ * lock-free triple buffer: the callback copies every cloud to its own buffer and swaps it with
+ * the middle one, which the OpenGL thread swaps with its own when there is a newer cloud. The
+ * callback never waits for the OpenGL thread nor the other way around, and a cloud is never
+ * displayed while being written.
+ * <p/>
+ * The vertex buffer is allocated once for {@link #MAX_POINT_COUNT} points, and every new cloud
+ * is uploaded into it with {@code glBufferSubData}. Points are projected in the vertex shader,
+ * with the pinhole model of the color camera: the distortion of its lens is ignored.
+ */
+public final class PointCloudOverlay {
+    /**
+     * Points beyond this in a cloud are not drawn, the depth cameras of Tango devices produce
+     * fewer.
+     */
+    public static final int MAX_POINT_COUNT = 60000;
+
+    // Every point is x, y, z in meters and a confidence.
+    private static final int POINT_SIZE = 4 * Float.SIZE / 8;
+    private static final float POINT_SIZE_PIXELS = 4.0f;
+
+    private static final String VSS =
+            "attribute vec4 aPoint;\n" +
+            "uniform mat4 uDepthToColor;\n" +
+            // Focal lengths and principal point, divided by the size of the image.
+            "uniform vec4 uIntrinsics;\n" +
+            "uniform float uPointSize;\n" +
+            "varying vec4 vColor;\n" +
+            "void main() {\n" +
+            "  vec4 p = uDepthToColor * vec4(aPoint.xyz, 1.0);\n" +
+            "  if (p.z <= 0.0) {\n" +
+            "    gl_Position = vec4(2.0, 2.0, 2.0, 1.0);\n" +
+            "    return;\n" +
+            "  }\n" +
+            "  vec2 uv = uIntrinsics.xy * p.xy / p.z + uIntrinsics.zw;\n" +
+            "  gl_Position = vec4(2.0 * uv.x - 1.0, 1.0 - 2.0 * uv.y, 0.0, 1.0);\n" +
+            "  gl_PointSize = uPointSize;\n" +
+            "  float d = clamp((p.z - 0.5) / 3.5, 0.0, 1.0);\n" +
+            "  vColor = vec4(1.0 - d, d, 0.0, 1.0);\n" +
+            "}";
+
+    private static final String FSS =
+            "precision mediump float;\n" +
+            "varying vec4 vColor;\n" +
+            "void main() {\n" +
+            "  gl_FragColor = vColor;\n" +
+            "}";
+
+    /**
+     * A point cloud, in one of the three buffers.
+     */
+    private static final class Cloud {
+        final FloatBuffer points = ByteBuffer.allocateDirect(MAX_POINT_COUNT * POINT_SIZE)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        int pointCount;
+        // Whether the cloud hasn't been taken by the OpenGL thread yet. Published by the swaps.
+        boolean isNew;
+    }
+
+    // Only accessed from the callback thread.
+    private Cloud mBackCloud = new Cloud();
+    private final AtomicReference<Cloud> mMiddleCloud = new AtomicReference<Cloud>(new Cloud());
+    private final AtomicLong mTruncatedCount = new AtomicLong();
+    // Set once connected, from any thread.
+    private volatile float[] mDepthToColor;
+    private volatile float[] mIntrinsics;
+
+    // Only accessed from the OpenGL thread.
+    private Cloud mFrontCloud = new Cloud();
+    private int mProgram;
+    private int mPointHandle;
+    private int mDepthToColorHandle;
+    private int mIntrinsicsHandle;
+    private final int[] mVbo = new int[1];
+    private int mUploadedCount;
+
+    /**
+     * Sets the model of the color camera the points are projected with.
+     *
+     * @param intrinsics   the intrinsics of the color camera.
+     * @param depthToColor the pose of the depth camera in the frame of the color camera.
+     */
+    public void setCameraModel(TangoCameraIntrinsics intrinsics, TangoPoseData depthToColor) {
+        mIntrinsics = new float[] {
+                (float) (intrinsics.fx / intrinsics.width),
+                (float) (intrinsics.fy / intrinsics.height),
+                (float) (intrinsics.cx / intrinsics.width),
+                (float) (intrinsics.cy / intrinsics.height) };
+        mDepthToColor = toMatrix(depthToColor.translation, depthToColor.rotation);
+    }
+
+    /**
+     * Hands a new point cloud over to the OpenGL thread, from the Tango callback thread.
+     */
+    public void updatePointCloud(TangoPointCloudData pointCloud) {
+        int count = pointCloud.numPoints;
+        if (count > MAX_POINT_COUNT) {
+            mTruncatedCount.incrementAndGet();
+            count = MAX_POINT_COUNT;
+        }
+        FloatBuffer source = pointCloud.points.duplicate();
+        source.position(0);
+        source.limit(4 * count);
+        Cloud cloud = mBackCloud;
+        cloud.points.clear();
+        cloud.points.put(source);
+        cloud.points.flip();
+        cloud.pointCount = count;
+        cloud.isNew = true;
+        mBackCloud = mMiddleCloud.getAndSet(cloud);
+    }
+
+    /**
+     * Returns the number of clouds with more than {@link #MAX_POINT_COUNT} points.
+     */
+    public long getTruncatedCount() {
+        return mTruncatedCount.get();
+    }
+
+    /**
+     * Creates the program and allocates the vertex buffer, on the OpenGL thread.
+     */
+    void onSurfaceCreated() {
+        mProgram = HelloVideoRenderer.getProgram(VSS, FSS);
+        mPointHandle = GLES20.glGetAttribLocation(mProgram, "aPoint");
+        mDepthToColorHandle = GLES20.glGetUniformLocation(mProgram, "uDepthToColor");
+        mIntrinsicsHandle = GLES20.glGetUniformLocation(mProgram, "uIntrinsics");
+        GLES20.glUseProgram(mProgram);
+        GLES20.glUniform1f(GLES20.glGetUniformLocation(mProgram, "uPointSize"),
+                POINT_SIZE_PIXELS);
+
+        GLES20.glGenBuffers(1, mVbo, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVbo[0]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, MAX_POINT_COUNT * POINT_SIZE, null,
+                GLES20.GL_DYNAMIC_DRAW);
+        mUploadedCount = 0;
+        // The new buffer is empty, upload the current cloud again.
+        mFrontCloud.isNew = mFrontCloud.pointCount > 0;
+    }
+
+    /**
+     * Uploads the latest point cloud if it is new, and draws it, on the OpenGL thread. Leaves its
+     * program and vertex buffer bound, and the attribute array of the points enabled: the caller
+     * restores its own state.
+     */
+    void draw() {
+        float[] intrinsics = mIntrinsics;
+        float[] depthToColor = mDepthToColor;
+        if (intrinsics == null || depthToColor == null) {
+            return;
+        }
+        GLES20.glUseProgram(mProgram);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVbo[0]);
+
+        if (mMiddleCloud.get().isNew) {
+            mFrontCloud.isNew = false;
+            mFrontCloud = mMiddleCloud.getAndSet(mFrontCloud);
+        }
+        if (mFrontCloud.isNew) {
+            mFrontCloud.isNew = false;
+            mUploadedCount = mFrontCloud.pointCount;
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, mUploadedCount * POINT_SIZE,
+                    mFrontCloud.points);
+        }
+        if (mUploadedCount == 0) {
+            return;
+        }
+
+        GLES20.glUniformMatrix4fv(mDepthToColorHandle, 1, false, depthToColor, 0);
+        GLES20.glUniform4f(mIntrinsicsHandle, intrinsics[0], intrinsics[1], intrinsics[2],
+                intrinsics[3]);
+        GLES20.glEnableVertexAttribArray(mPointHandle);
+        GLES20.glVertexAttribPointer(mPointHandle, 4, GLES20.GL_FLOAT, false, POINT_SIZE, 0);
+        GLES20.glDrawArrays(GLES20.GL_POINTS, 0, mUploadedCount);
+    }
+
+    /**
+     * Returns the column-major matrix of a rigid transform.
+     *
+     * @param t the translation.
+     * @param q the rotation, as a unit quaternion x, y, z, w.
+     */
+    private static float[] toMatrix(double[] t, double[] q) {
+        double x = q[0], y = q[1], z = q[2], w = q[3];
+        return new float[] {
+                (float) (1 - 2 * (y * y + z * z)), (float) (2 * (x * y + z * w)),
+                (float) (2 * (x * z - y * w)), 0,
+                (float) (2 * (x * y - z * w)), (float) (1 - 2 * (x * x + z * z)),
+                (float) (2 * (y * z + x * w)), 0,
+                (float) (2 * (x * z + y * w)), (float) (2 * (y * z - x * w)),
+                (float) (1 - 2 * (x * x + y * y)), 0,
+                (float) t[0], (float) t[1], (float) t[2], 1 };
+    }
+}
@@ -0,0 +1,548 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Structured logging for the Tango callbacks, which are too frequent to format a message and
+ * write it to the log every time.
+ * <p/>
+ * A log statement is registered once as an event, a tag and a format with one {@code {}}
+ * placeholder per value, and then only its values are logged:
+ * <pre>
+ *   int poseEvent = logger.event(TAG, "Position: {}, {}, {}");
+ *   ...
+ *   logger.log(poseEvent, x, y, z);
+ * </pre>
+ * Logging copies the values into a preallocated ring, without allocating, locking or waking up
+ * any thread. A background thread drains the ring in batches, every 50 ms or continuously while
+ * events keep coming, formats the messages into a reused buffer and hands them to a
+ * {@link TextSink}, or, while a trace is started, writes the raw values to a binary trace file
+ * instead, see {@link LogTraceReader} to turn it back into text.
+ * <p/>
+ * Every tag can be sampled, keeping one event out of a given number, and capped to a number of
+ * events per second. Events beyond that, or logged while the ring is full, are counted and
+ * reported periodically rather than logged.
+ */
+public final class AsyncLogger {
+    public static final String TRACE_EXTENSION = ".logtrace";
+    public static final int MAX_VALUES = 8;
+
+    /**
+     * Destination of the formatted messages, called from the background thread only.
+     */
+    public interface TextSink {
+        void write(String tag, String message);
+    }
+
+    private static final int MAX_EVENTS = 256;
+    private static final int MAX_TAGS = 64;
+    private static final long DRAIN_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long LOSS_REPORT_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int TRACE_BUFFER_SIZE = 1 << 16;
+    private static final String TAG = AsyncLogger.class.getSimpleName();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final TextSink mSink;
+
+    // The ring: a slot is claimed by advancing the head, filled, then published by setting its
+    // sequence to the claimed position plus one. The background thread consumes published slots
+    // in order and advances the tail, which frees them.
+    private final int mCapacity;
+    private final AtomicLong mHead = new AtomicLong();
+    private volatile long mTail;
+    private final AtomicLongArray mSequences;
+    private final int[] mSlotEvents;
+    private final long[] mSlotTimes;
+    private final int[] mSlotCounts;
+    private final double[] mSlotValues;
+
+    // Events and tags, appended to under the lock of this. An event id is only handed out after
+    // its entries are set, so they are visible to whoever logs it.
+    private final String[] mEventFormats = new String[MAX_EVENTS];
+    private final int[] mEventTags = new int[MAX_EVENTS];
+    private final String[] mTagNames = new String[MAX_TAGS];
+    private final Map<String, Integer> mTagIds = new HashMap<String, Integer>();
+    private int mEventCount;
+    private int mTagCount;
+
+    // Sampling and rate caps by tag.
+    private final AtomicIntegerArray mSamplingIntervals = new AtomicIntegerArray(MAX_TAGS);
+    private final AtomicLongArray mSamplingCounters = new AtomicLongArray(MAX_TAGS);
+    private final AtomicIntegerArray mRateCaps = new AtomicIntegerArray(MAX_TAGS);
+    private final AtomicLongArray mRateWindowStarts = new AtomicLongArray(MAX_TAGS);
+    private final AtomicIntegerArray mRateWindowCounts = new AtomicIntegerArray(MAX_TAGS);
+
+    private final AtomicLong mSuppressedCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    private final Thread mThread;
+    private volatile boolean mClosed;
+
+    // Only used by the background thread.
+    private final StringBuilder mBuilder = new StringBuilder(256);
+    private long mReportedSuppressedCount;
+    private long mReportedDroppedCount;
+    private long mLastLossReportNanos = System.nanoTime();
+
+    // The trace, guarded by mTraceLock.
+    private final Object mTraceLock = new Object();
+    private FileOutputStream mTraceOutput;
+    private FileChannel mTraceChannel;
+    private ByteBuffer mTraceBuffer;
+    private boolean[] mTraceDefinedEvents;
+    private long mTraceStartNanos;
+
+    /**
+     * Starts the background thread of a new logger.
+     *
+     * @param capacity the number of events that can be pending, beyond which they are dropped.
+     * @param sink where the messages are written when no trace is started.
+     */
+    public AsyncLogger(int capacity, TextSink sink) {
+        mCapacity = capacity;
+        mSink = sink;
+        mSequences = new AtomicLongArray(capacity);
+        mSlotEvents = new int[capacity];
+        mSlotTimes = new long[capacity];
+        mSlotCounts = new int[capacity];
+        mSlotValues = new double[capacity * MAX_VALUES];
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainUntilClosed();
+            }
+        }, TAG);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Registers an event and returns its id, to log it with.
+     *
+     * @param format the message, with a {@code {}} placeholder for every value.
+     */
+    public synchronized int event(String tag, String format) {
+        if (mEventCount == MAX_EVENTS) {
+            throw new IllegalStateException("Too many events");
+        }
+        if (format.getBytes(UTF_8).length > LogTraceFormat.MAX_STRING_SIZE) {
+            throw new IllegalArgumentException("Format too long: " + format);
+        }
+        mEventFormats[mEventCount] = format;
+        mEventTags[mEventCount] = tagId(tag);
+        return mEventCount++;
+    }
+
+    /**
+     * Only logs one event out of every {@code interval} of the given tag, 1 to log them all.
+     */
+    public synchronized void setSampling(String tag, int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Invalid sampling interval: " + interval);
+        }
+        mSamplingIntervals.set(tagId(tag), interval);
+    }
+
+    /**
+     * Logs at most the given number of events of the tag per second, 0 for no limit.
+     */
+    public synchronized void setRateCap(String tag, int eventsPerSecond) {
+        if (eventsPerSecond < 0) {
+            throw new IllegalArgumentException("Invalid rate cap: " + eventsPerSecond);
+        }
+        mRateCaps.set(tagId(tag), eventsPerSecond);
+    }
+
+    public void log(int event) {
+        long position = claim(event);
+        if (position >= 0) {
+            publish(position, event, 0);
+        }
+    }
+
+    public void log(int event, double value0) {
+        long position = claim(event);
+        if (position >= 0) {
+            int offset = valueOffset(position);
+            mSlotValues[offset] = value0;
+            publish(position, event, 1);
+        }
+    }
+
+    public void log(int event, double value0, double value1) {
+        long position = claim(event);
+        if (position >= 0) {
+            int offset = valueOffset(position);
+            mSlotValues[offset] = value0;
+            mSlotValues[offset + 1] = value1;
+            publish(position, event, 2);
+        }
+    }
+
+    public void log(int event, double value0, double value1, double value2) {
+        long position = claim(event);
+        if (position >= 0) {
+            int offset = valueOffset(position);
+            mSlotValues[offset] = value0;
+            mSlotValues[offset + 1] = value1;
+            mSlotValues[offset + 2] = value2;
+            publish(position, event, 3);
+        }
+    }
+
+    /**
+     * Logs the first {@code count} values of the array, at most {@link #MAX_VALUES}. The array
+     * can be reused as soon as this returns.
+     */
+    public void log(int event, double[] values, int count) {
+        if (count > MAX_VALUES) {
+            throw new IllegalArgumentException("Too many values: " + count);
+        }
+        long position = claim(event);
+        if (position >= 0) {
+            System.arraycopy(values, 0, mSlotValues, valueOffset(position), count);
+            publish(position, event, count);
+        }
+    }
+
+    /**
+     * Returns the number of events left out by sampling and rate caps so far.
+     */
+    public long getSuppressedCount() {
+        return mSuppressedCount.get();
+    }
+
+    /**
+     * Returns the number of events dropped so far because the background thread couldn't keep
+     * up.
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * Writes the events to a new binary trace file from now on, instead of the text sink.
+     */
+    public void startTrace(File file) throws IOException {
+        synchronized (mTraceLock) {
+            stopTrace();
+            mTraceOutput = new FileOutputStream(file);
+            mTraceChannel = mTraceOutput.getChannel();
+            mTraceBuffer = ByteBuffer.allocate(TRACE_BUFFER_SIZE);
+            mTraceDefinedEvents = new boolean[MAX_EVENTS];
+            mTraceStartNanos = System.nanoTime();
+            mTraceBuffer.putInt(LogTraceFormat.MAGIC);
+            mTraceBuffer.putShort(LogTraceFormat.VERSION);
+        }
+    }
+
+    /**
+     * Writes the pending events to the trace, if one is started, closes it and goes back to
+     * writing the events to the text sink.
+     *
+     * @throws IOException if the trace couldn't be written.
+     */
+    public void stopTrace() throws IOException {
+        synchronized (mTraceLock) {
+            if (mTraceChannel == null) {
+                return;
+            }
+            try {
+                drain();
+                // Draining stops the trace if writing it fails, which was then reported.
+                if (mTraceChannel != null) {
+                    flushTrace();
+                }
+            } finally {
+                closeTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes the pending events, stops the background thread and closes the trace, if one is
+     * started. Events logged afterwards are dropped.
+     *
+     * @throws IOException if the trace couldn't be written.
+     */
+    public void close() throws IOException {
+        mClosed = true;
+        LockSupport.unpark(mThread);
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stopTrace();
+    }
+
+    private synchronized int tagId(String tag) {
+        Integer id = mTagIds.get(tag);
+        if (id == null) {
+            if (mTagCount == MAX_TAGS) {
+                throw new IllegalStateException("Too many tags");
+            }
+            if (tag.getBytes(UTF_8).length > LogTraceFormat.MAX_STRING_SIZE) {
+                throw new IllegalArgumentException("Tag too long: " + tag);
+            }
+            id = mTagCount++;
+            mTagNames[id] = tag;
+            mTagIds.put(tag, id);
+        }
+        return id;
+    }
+
+    /**
+     * Applies the sampling and rate cap of the event's tag, then claims a slot of the ring.
+     * Returns its position, or -1 if the event is left out.
+     */
+    private long claim(int event) {
+        if (mClosed) {
+            mDroppedCount.incrementAndGet();
+            return -1;
+        }
+        int tag = mEventTags[event];
+        int interval = mSamplingIntervals.get(tag);
+        if (interval > 1 && mSamplingCounters.getAndIncrement(tag) % interval != 0) {
+            mSuppressedCount.incrementAndGet();
+            return -1;
+        }
+        long now = System.nanoTime();
+        int rateCap = mRateCaps.get(tag);
+        if (rateCap > 0) {
+            long windowStart = mRateWindowStarts.get(tag);
+            if (now - windowStart >= RATE_WINDOW_NANOS
+                    && mRateWindowStarts.compareAndSet(tag, windowStart, now)) {
+                mRateWindowCounts.set(tag, 0);
+            }
+            if (mRateWindowCounts.incrementAndGet(tag) > rateCap) {
+                mSuppressedCount.incrementAndGet();
+                return -1;
+            }
+        }
+        while (true) {
+            long head = mHead.get();
+            if (head - mTail >= mCapacity) {
+                mDroppedCount.incrementAndGet();
+                return -1;
+            }
+            if (mHead.compareAndSet(head, head + 1)) {
+                mSlotTimes[slot(head)] = now;
+                return head;
+            }
+        }
+    }
+
+    private void publish(long position, int event, int count) {
+        int slot = slot(position);
+        mSlotEvents[slot] = event;
+        mSlotCounts[slot] = count;
+        mSequences.lazySet(slot, position + 1);
+    }
+
+    private int slot(long position) {
+        return (int) (position % mCapacity);
+    }
+
+    private int valueOffset(long position) {
+        return slot(position) * MAX_VALUES;
+    }
+
+    private void drainUntilClosed() {
+        while (true) {
+            boolean closed = mClosed;
+            int count;
+            synchronized (mTraceLock) {
+                count = drain();
+                if (mTraceChannel != null) {
+                    try {
+                        flushTrace();
+                    } catch (IOException e) {
+                        traceFailed(e);
+                    }
+                }
+            }
+            reportLosses(closed);
+            if (closed) {
+                return;
+            }
+            if (count == 0) {
+                LockSupport.parkNanos(DRAIN_PERIOD_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Consumes the published events and returns their number. Must be called with the trace lock
+     * held.
+     */
+    private int drain() {
+        long start = mTail;
+        long tail = start;
+        while (true) {
+            int slot = slot(tail);
+            if (mSequences.get(slot) != tail + 1) {
+                break;
+            }
+            int event = mSlotEvents[slot];
+            if (mTraceChannel != null) {
+                try {
+                    traceEvent(event, mSlotTimes[slot], slot * MAX_VALUES, mSlotCounts[slot]);
+                } catch (IOException e) {
+                    traceFailed(e);
+                }
+            } else {
+                mBuilder.setLength(0);
+                format(mBuilder, mEventFormats[event], mSlotValues, slot * MAX_VALUES,
+                        mSlotCounts[slot]);
+                mSink.write(mTagNames[mEventTags[event]], mBuilder.toString());
+            }
+            tail++;
+            mTail = tail;
+        }
+        return (int) (tail - start);
+    }
+
+    private void traceEvent(int event, long time, int offset, int count) throws IOException {
+        if (!mTraceDefinedEvents[event]) {
+            byte[] tag = mTagNames[mEventTags[event]].getBytes(UTF_8);
+            byte[] format = mEventFormats[event].getBytes(UTF_8);
+            reserveTrace(LogTraceFormat.RECORD_HEADER_SIZE + 4 + tag.length + format.length);
+            mTraceBuffer.put(LogTraceFormat.TYPE_DEFINITION);
+            mTraceBuffer.putShort((short) event);
+            mTraceBuffer.putShort((short) tag.length);
+            mTraceBuffer.put(tag);
+            mTraceBuffer.putShort((short) format.length);
+            mTraceBuffer.put(format);
+            mTraceDefinedEvents[event] = true;
+        }
+        reserveTrace(LogTraceFormat.RECORD_HEADER_SIZE + 9 + 8 * count);
+        mTraceBuffer.put(LogTraceFormat.TYPE_ENTRY);
+        mTraceBuffer.putShort((short) event);
+        mTraceBuffer.putLong(time - mTraceStartNanos);
+        mTraceBuffer.put((byte) count);
+        for (int i = 0; i < count; i++) {
+            mTraceBuffer.putDouble(mSlotValues[offset + i]);
+        }
+    }
+
+    private void reserveTrace(int size) throws IOException {
+        if (mTraceBuffer.remaining() < size) {
+            flushTrace();
+        }
+    }
+
+    private void flushTrace() throws IOException {
+        mTraceBuffer.flip();
+        try {
+            while (mTraceBuffer.hasRemaining()) {
+                mTraceChannel.write(mTraceBuffer);
+            }
+        } finally {
+            mTraceBuffer.clear();
+        }
+    }
+
+    /**
+     * Reports a trace error to the text sink and goes back to it. Must be called with the trace
+     * lock held.
+     */
+    private void traceFailed(IOException e) {
+        mSink.write(TAG, "Trace stopped: " + e);
+        closeTrace();
+    }
+
+    /**
+     * Closes the trace, if one is started.
+     */
+    private void closeTrace() {
+        if (mTraceOutput == null) {
+            return;
+        }
+        try {
+            mTraceOutput.close();
+        } catch (IOException e) {
+            // Nothing more to be done with the trace.
+        }
+        mTraceOutput = null;
+        mTraceChannel = null;
+        mTraceBuffer = null;
+        mTraceDefinedEvents = null;
+    }
+
+    /**
+     * Periodically reports the number of events left out since the previous report, if any.
+     */
+    private void reportLosses(boolean force) {
+        long now = System.nanoTime();
+        if (!force && now - mLastLossReportNanos < LOSS_REPORT_PERIOD_NANOS) {
+            return;
+        }
+        mLastLossReportNanos = now;
+        long suppressedCount = mSuppressedCount.get();
+        long droppedCount = mDroppedCount.get();
+        if (suppressedCount == mReportedSuppressedCount
+                && droppedCount == mReportedDroppedCount) {
+            return;
+        }
+        mSink.write(TAG, (suppressedCount - mReportedSuppressedCount) + " events suppressed, "
+                + (droppedCount - mReportedDroppedCount) + " dropped");
+        mReportedSuppressedCount = suppressedCount;
+        mReportedDroppedCount = droppedCount;
+    }
+
+    /**
+     * Appends the format with its placeholders replaced by the values: integral ones without a
+     * fraction, small ones with float precision, which is plenty for distances and angles, and
+     * large ones such as timestamps in full. Placeholders without a value are kept as is.
+     */
+    static void format(StringBuilder builder, String format, double[] values, int offset,
+            int count) {
+        int index = 0;
+        int length = format.length();
+        for (int i = 0; i < length; i++) {
+            char c = format.charAt(i);
+            if (c == '{' && i + 1 < length && format.charAt(i + 1) == '}' && index < count) {
+                double value = values[offset + index++];
+                if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                    builder.append((long) value);
+                } else if (Math.abs(value) < 1e4) {
+                    builder.append((float) value);
+                } else {
+                    builder.append(value);
+                }
+                i++;
+            } else {
+                builder.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Starts and stops the {@link AsyncLogger} of an example activity, which writes to the logcat or,
+ * when {@link #TRACE_LOG} is set, to a binary trace file, see {@link LogTraceReader}.
+ * <p/>
+ * Unlike the rest of this package, this uses the Android framework, so only call it on a device.
+ */
+public final class AsyncLoggers {
+    // Set to true to write the logs of the examples to binary trace files instead of the logcat.
+    public static final boolean TRACE_LOG = false;
+
+    private static final String TAG = AsyncLoggers.class.getSimpleName();
+
+    private AsyncLoggers() {
+    }
+
+    /**
+     * Starts a logger writing to the logcat or, when TRACE_LOG is set, to a new trace file in the
+     * external files directory of the activity. Failing to start the trace is logged, and the
+     * logger then writes to the logcat.
+     *
+     * @param capacity the number of events that can be pending, see {@link AsyncLogger}.
+     * @param priority the logcat priority of the messages, such as {@link Log#INFO}.
+     */
+    public static AsyncLogger start(Context context, int capacity, final int priority) {
+        AsyncLogger logger = new AsyncLogger(capacity, new AsyncLogger.TextSink() {
+            @Override
+            public void write(String tag, String message) {
+                Log.println(priority, tag, message);
+            }
+        });
+        if (TRACE_LOG) {
+            File file = new File(context.getExternalFilesDir(null),
+                    "log-" + System.currentTimeMillis() + AsyncLogger.TRACE_EXTENSION);
+            try {
+                logger.startTrace(file);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to trace the log to " + file, e);
+            }
+        }
+        return logger;
+    }
+
+    /**
+     * Closes a logger, logging a failure to write its trace.
+     */
+    public static void stop(AsyncLogger logger) {
+        try {
+            logger.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write the log trace", e);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.utils;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency, rate and timing regularity of one kind of Tango callback.
+ * <p/>
+ * Every callback records how long the application took to handle it, and the timestamp of the
+ * data it carried. The time between consecutive data timestamps is recorded as well: its spread
+ * is the jitter of the callback, and gaps of more than {@link #MISSED_FACTOR} times the usual
+ * interval are counted as missed callbacks, i.e. data the service dropped or the application
+ * didn't keep up with. Recording doesn't allocate nor lock.
+ * <p/>
+ * The interval tracking assumes a callback is always made from the same thread, as the Tango
+ * service does. Snapshots may be taken from any thread.
+ */
+public final class CallbackMetrics {
+    // Gaps longer than this many usual intervals count as missed callbacks.
+    static final double MISSED_FACTOR = 1.5;
+    // Weight of a new interval in the running mean of the usual interval.
+    private static final double INTERVAL_SMOOTHING = 0.05;
+
+    private final String mName;
+    private final long mCreationNanos = System.nanoTime();
+    private final LatencyHistogram mLatencies = new LatencyHistogram();
+    private final LatencyHistogram mIntervals = new LatencyHistogram();
+    private final AtomicLong mMissedCount = new AtomicLong();
+
+    // Only accessed by the callback thread.
+    private double mLastTimestamp = Double.NEGATIVE_INFINITY;
+    private double mMeanInterval;
+
+    public CallbackMetrics(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Records a callback.
+     *
+     * @param timestamp  the timestamp of the data of the callback, in seconds. Callbacks
+     *                   carrying the same data timestamp as the previous one, such as poses of
+     *                   several frame pairs, don't count as an interval.
+     * @param startNanos the {@link System#nanoTime()} at which the callback started.
+     * @param endNanos   the {@link System#nanoTime()} at which the callback returned.
+     */
+    public void record(double timestamp, long startNanos, long endNanos) {
+        mLatencies.record(endNanos - startNanos);
+        if (!(timestamp > mLastTimestamp)) {
+            return;
+        }
+        if (mLastTimestamp != Double.NEGATIVE_INFINITY) {
+            double interval = timestamp - mLastTimestamp;
+            mIntervals.record((long) (interval * 1e9));
+            if (mMeanInterval > 0 && interval > MISSED_FACTOR * mMeanInterval) {
+                // Gaps are left out of the usual interval.
+                mMissedCount.addAndGet(Math.round(interval / mMeanInterval) - 1);
+            } else if (mMeanInterval == 0) {
+                mMeanInterval = interval;
+            } else {
+                mMeanInterval += INTERVAL_SMOOTHING * (interval - mMeanInterval);
+            }
+        }
+        mLastTimestamp = timestamp;
+    }
+
+    /**
+     * Returns the metrics recorded since this was created.
+     */
+    public Snapshot snapshot() {
+        long missedCount = mMissedCount.get();
+        LatencyHistogram.Snapshot latencies = mLatencies.snapshot();
+        LatencyHistogram.Snapshot intervals = mIntervals.snapshot();
+        return new Snapshot(mName, mCreationNanos, System.nanoTime(), latencies, intervals,
+                missedCount);
+    }
+
+    /**
+     * Immutable metrics of a callback over a period of time.
+     */
+    public static final class Snapshot {
+        private final String mName;
+        private final long mStartNanos;
+        private final long mEndNanos;
+        private final LatencyHistogram.Snapshot mLatencies;
+        private final LatencyHistogram.Snapshot mIntervals;
+        private final long mMissedCount;
+
+        private Snapshot(String name, long startNanos, long endNanos,
+                         LatencyHistogram.Snapshot latencies, LatencyHistogram.Snapshot intervals,
+                         long missedCount) {
+            mName = name;
+            mStartNanos = startNanos;
+            mEndNanos = endNanos;
+            mLatencies = latencies;
+            mIntervals = intervals;
+            mMissedCount = missedCount;
+        }
+
+        /**
+         * Returns the metrics recorded between an earlier snapshot of the same callback and
+         * this one.
+         */
+        public Snapshot since(Snapshot earlier) {
+            return new Snapshot(mName, earlier.mEndNanos, mEndNanos,
+                    mLatencies.since(earlier.mLatencies), mIntervals.since(earlier.mIntervals),
+                    mMissedCount - earlier.mMissedCount);
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * Returns the length of the period covered, in seconds.
+         */
+        public double getDuration() {
+            return (mEndNanos - mStartNanos) / 1e9;
+        }
+
+        public long getCount() {
+            return mLatencies.getTotalCount();
+        }
+
+        /**
+         * Returns the number of callbacks per second over the period.
+         */
+        public double getRate() {
+            double duration = getDuration();
+            return duration > 0 ? getCount() / duration : 0;
+        }
+
+        /**
+         * Returns the durations of the callbacks, in nanoseconds.
+         */
+        public LatencyHistogram.Snapshot getLatencies() {
+            return mLatencies;
+        }
+
+        /**
+         * Returns the intervals between the data timestamps of consecutive callbacks, in
+         * nanoseconds.
+         */
+        public LatencyHistogram.Snapshot getIntervals() {
+            return mIntervals;
+        }
+
+        /**
+         * Returns the standard deviation of the intervals between callbacks, in nanoseconds.
+         */
+        public double getJitter() {
+            return mIntervals.getStandardDeviation();
+        }
+
+        public long getMissedCount() {
+            return mMissedCount;
+        }
+
+        /**
+         * Returns a one line summary, for display.
+         */
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s: %.1f Hz, p50 %.2f ms, p99 %.2f ms, max %.2f ms, jitter %.2f ms, "
+                            + "missed %d",
+                    mName, getRate(), mLatencies.getValueAtPercentile(0.5) / 1e6,
+                    mLatencies.getValueAtPercentile(0.99) / 1e6, mLatencies.getMax() / 1e6,
+                    getJitter() / 1e6, mMissedCount);
+        }
+    }
+}
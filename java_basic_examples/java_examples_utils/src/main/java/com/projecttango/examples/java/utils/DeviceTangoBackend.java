@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.utils;
+
+import com.google.atap.tangoservice.Tango;
+import com.google.atap.tangoservice.Tango.OnTangoUpdateListener;
+import com.google.atap.tangoservice.TangoConfig;
+import com.google.atap.tangoservice.TangoCoordinateFramePair;
+import com.google.atap.tangoservice.TangoPoseData;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link TangoBackend} backed by the Tango service of the device.
+ */
+public final class DeviceTangoBackend implements TangoBackend {
+    private final Tango mTango;
+
+    public DeviceTangoBackend(Tango tango) {
+        mTango = tango;
+    }
+
+    @Override
+    public void connect(TangoConfig config) {
+        mTango.connect(config);
+    }
+
+    @Override
+    public void disconnect() {
+        mTango.disconnect();
+    }
+
+    @Override
+    public void connectListener(List<TangoCoordinateFramePair> framePairs,
+                                OnTangoUpdateListener listener) {
+        mTango.connectListener(framePairs, listener);
+    }
+
+    @Override
+    public ArrayList<String> listAreaDescriptions() {
+        return mTango.listAreaDescriptions();
+    }
+
+    @Override
+    public String saveAreaDescription() {
+        return mTango.saveAreaDescription();
+    }
+
+    @Override
+    public TangoPoseData getPoseAtTime(double timestamp, TangoCoordinateFramePair framePair) {
+        return mTango.getPoseAtTime(timestamp, framePair);
+    }
+}
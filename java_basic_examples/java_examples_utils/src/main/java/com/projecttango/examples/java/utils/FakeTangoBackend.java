@@ -0,0 +1,400 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.utils;
+
+import com.google.atap.tangoservice.Tango.OnTangoUpdateListener;
+import com.google.atap.tangoservice.TangoCameraIntrinsics;
+import com.google.atap.tangoservice.TangoConfig;
+import com.google.atap.tangoservice.TangoCoordinateFramePair;
+import com.google.atap.tangoservice.TangoEvent;
+import com.google.atap.tangoservice.TangoPointCloudData;
+import com.google.atap.tangoservice.TangoPoseData;
+import com.google.atap.tangoservice.TangoXyzIjData;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * {@link TangoBackend} generating synthetic data on a plain JVM, for benchmarks and throughput
+ * tests of the callback logic off-device.
+ * <p/>
+ * The simulated device walks around a circle at walking pace, holding the device upright and
+ * looking ahead. Poses of every connected frame pair, point clouds and color camera frames are
+ * delivered from a single background thread at the configured rates, ordered by their simulated
+ * timestamps. In real time mode the callbacks are paced by the wall clock; otherwise they are
+ * made as fast as the listener consumes them, until the configured duration has been simulated.
+ * <p/>
+ * Point clouds, in the depth camera frame, see a flat floor below the device and a wall patch
+ * ahead that comes closer and moves away periodically. The data only depends on the seed, so
+ * runs are reproducible. The configuration passed to {@link #connect} is ignored: rates are set
+ * on this object before connecting.
+ */
+public final class FakeTangoBackend implements TangoBackend {
+    private static final double WALKING_SPEED_MPS = 1.0;
+    private static final double CIRCLE_RADIUS_M = 5.0;
+    private static final double DEVICE_HEIGHT_M = 1.2;
+    // Horizontal and vertical half field of view of the depth camera.
+    private static final double DEPTH_HALF_FOV_X = Math.toRadians(30.0);
+    private static final double DEPTH_HALF_FOV_Y = Math.toRadians(22.5);
+    private static final double MAX_DEPTH_M = 4.0;
+
+    private double mPoseRate = 100.0;
+    private double mPointCloudRate = 5.0;
+    private double mFrameRate = 30.0;
+    private int mPointCount = 20000;
+    private boolean mRealTime = true;
+    private double mDuration = Double.POSITIVE_INFINITY;
+    private long mSeed = 1;
+
+    private final ArrayList<String> mAreaDescriptions = new ArrayList<String>();
+
+    private boolean mConnected;
+    private Thread mThread;
+    private volatile boolean mStopped;
+
+    /**
+     * Sets the rate of the poses of every frame pair, in Hz. 0 disables them.
+     */
+    public synchronized void setPoseRate(double hz) {
+        mPoseRate = hz;
+    }
+
+    /**
+     * Sets the rate of the point clouds, in Hz. 0 disables them.
+     */
+    public synchronized void setPointCloudRate(double hz) {
+        mPointCloudRate = hz;
+    }
+
+    /**
+     * Sets the rate of the color camera frames, in Hz. 0 disables them.
+     */
+    public synchronized void setFrameRate(double hz) {
+        mFrameRate = hz;
+    }
+
+    public synchronized void setPointCount(int pointCount) {
+        mPointCount = pointCount;
+    }
+
+    /**
+     * Sets whether callbacks are paced by the wall clock, which is the default, or made as fast
+     * as possible.
+     */
+    public synchronized void setRealTime(boolean realTime) {
+        mRealTime = realTime;
+    }
+
+    /**
+     * Sets the simulated duration of the session in seconds, after which callbacks stop.
+     * Unlimited by default.
+     */
+    public synchronized void setDuration(double seconds) {
+        mDuration = seconds;
+    }
+
+    public synchronized void setSeed(long seed) {
+        mSeed = seed;
+    }
+
+    @Override
+    public synchronized void connect(TangoConfig config) {
+        mConnected = true;
+    }
+
+    @Override
+    public void disconnect() {
+        Thread thread;
+        synchronized (this) {
+            mConnected = false;
+            mStopped = true;
+            thread = mThread;
+            mThread = null;
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void connectListener(List<TangoCoordinateFramePair> framePairs,
+                                             OnTangoUpdateListener listener) {
+        if (!mConnected) {
+            throw new IllegalStateException("Not connected");
+        }
+        if (mThread != null) {
+            throw new IllegalStateException("A listener is already connected");
+        }
+        final Session session = new Session(
+                new ArrayList<TangoCoordinateFramePair>(framePairs), listener);
+        mStopped = false;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                session.run();
+            }
+        }, "FakeTangoBackend");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Waits until the configured duration has been simulated, or the backend is disconnected.
+     */
+    public void awaitCompletion() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+        }
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Records a whole session into a file for {@link SessionReplayer}: connects, records the
+     * callbacks of the given frame pairs until the configured duration has been simulated, and
+     * disconnects. The duration must be set.
+     *
+     * @throws IOException if the session couldn't be written, or records were dropped because
+     *                     the disk couldn't keep up.
+     */
+    public void record(File file, List<TangoCoordinateFramePair> framePairs)
+            throws IOException, InterruptedException {
+        synchronized (this) {
+            if (Double.isInfinite(mDuration)) {
+                throw new IllegalStateException("Unlimited session duration");
+            }
+        }
+        SessionRecorder recorder = new SessionRecorder(file, new OnTangoUpdateListener() {
+            @Override
+            public void onPoseAvailable(TangoPoseData pose) {
+            }
+
+            @Override
+            public void onXyzIjAvailable(TangoXyzIjData xyzIj) {
+            }
+
+            @Override
+            public void onFrameAvailable(int cameraId) {
+            }
+
+            @Override
+            public void onTangoEvent(TangoEvent event) {
+            }
+
+            @Override
+            public void onPointCloudAvailable(TangoPointCloudData pointCloud) {
+            }
+        });
+        try {
+            connect(null);
+            connectListener(framePairs, recorder);
+            awaitCompletion();
+        } finally {
+            disconnect();
+            recorder.close();
+        }
+        if (recorder.getDroppedRecordCount() > 0) {
+            throw new IOException(recorder.getDroppedRecordCount() + " records dropped");
+        }
+    }
+
+    @Override
+    public synchronized ArrayList<String> listAreaDescriptions() {
+        return new ArrayList<String>(mAreaDescriptions);
+    }
+
+    @Override
+    public synchronized String saveAreaDescription() {
+        String uuid = UUID.randomUUID().toString();
+        mAreaDescriptions.add(uuid);
+        return uuid;
+    }
+
+    /**
+     * Returns the pose at the given simulated time, taken literally: 0 is the start of the
+     * session rather than the latest pose.
+     */
+    @Override
+    public synchronized TangoPoseData getPoseAtTime(double timestamp,
+                                                    TangoCoordinateFramePair framePair) {
+        if (!mConnected) {
+            throw new IllegalStateException("Not connected");
+        }
+        return pose(timestamp, framePair);
+    }
+
+    /**
+     * Returns the pose of the simulated device at a time. Relative to the device, the frames
+     * are the cameras, looking ahead of the device. Other base frames are all considered to be
+     * the start of service frame.
+     */
+    private static TangoPoseData pose(double time, TangoCoordinateFramePair framePair) {
+        TangoPoseData pose = new TangoPoseData();
+        pose.timestamp = time;
+        pose.baseFrame = framePair.baseFrame;
+        pose.targetFrame = framePair.targetFrame;
+        pose.statusCode = TangoPoseData.POSE_VALID;
+        pose.translation = new double[3];
+        pose.rotation = new double[] {0, 0, 0, 1};
+        if (framePair.baseFrame == TangoPoseData.COORDINATE_FRAME_DEVICE) {
+            // The camera Y and Z axes are flipped: a half turn about X.
+            pose.rotation[TangoPoseData.INDEX_ROTATION_X] = 1;
+            pose.rotation[TangoPoseData.INDEX_ROTATION_W] = 0;
+            return pose;
+        }
+        if (framePair.targetFrame != TangoPoseData.COORDINATE_FRAME_DEVICE) {
+            return pose;
+        }
+
+        double angle = time * WALKING_SPEED_MPS / CIRCLE_RADIUS_M;
+        pose.translation[0] = CIRCLE_RADIUS_M * Math.cos(angle);
+        pose.translation[1] = CIRCLE_RADIUS_M * Math.sin(angle);
+        pose.translation[2] = DEVICE_HEIGHT_M;
+        // Upright device, whose -Z axis looks along the circle: a quarter turn about X
+        // makes it look along +Y, then the yaw by the angle turns it to the tangent.
+        double halfPitch = Math.PI / 4;
+        double halfYaw = angle / 2;
+        double sinPitch = Math.sin(halfPitch);
+        double cosPitch = Math.cos(halfPitch);
+        double sinYaw = Math.sin(halfYaw);
+        double cosYaw = Math.cos(halfYaw);
+        // (0, 0, sinYaw, cosYaw) * (sinPitch, 0, 0, cosPitch)
+        pose.rotation[TangoPoseData.INDEX_ROTATION_X] = cosYaw * sinPitch;
+        pose.rotation[TangoPoseData.INDEX_ROTATION_Y] = sinYaw * sinPitch;
+        pose.rotation[TangoPoseData.INDEX_ROTATION_Z] = sinYaw * cosPitch;
+        pose.rotation[TangoPoseData.INDEX_ROTATION_W] = cosYaw * cosPitch;
+        return pose;
+    }
+
+    /**
+     * Generates the callbacks of one connected listener, with the configuration it was
+     * connected with.
+     */
+    private final class Session {
+        private final List<TangoCoordinateFramePair> mFramePairs;
+        private final OnTangoUpdateListener mListener;
+        private final double mPosePeriod;
+        private final double mPointCloudPeriod;
+        private final double mFramePeriod;
+        private final int mPointCount;
+        private final boolean mRealTime;
+        private final double mDuration;
+        private final Random mRandom;
+
+        Session(List<TangoCoordinateFramePair> framePairs, OnTangoUpdateListener listener) {
+            mFramePairs = framePairs;
+            mListener = listener;
+            synchronized (FakeTangoBackend.this) {
+                mPosePeriod = period(mPoseRate);
+                mPointCloudPeriod = period(mPointCloudRate);
+                mFramePeriod = period(mFrameRate);
+                mPointCount = FakeTangoBackend.this.mPointCount;
+                mRealTime = FakeTangoBackend.this.mRealTime;
+                mDuration = FakeTangoBackend.this.mDuration;
+                mRandom = new Random(mSeed);
+            }
+        }
+
+        void run() {
+            long startNanos = System.nanoTime();
+            double nextPose = 0;
+            double nextPointCloud = mPointCloudPeriod / 2;
+            double nextFrame = mFramePeriod / 3;
+            while (!mStopped) {
+                double time = Math.min(nextPose, Math.min(nextPointCloud, nextFrame));
+                if (time > mDuration || time == Double.POSITIVE_INFINITY) {
+                    break;
+                }
+                if (mRealTime) {
+                    sleepUntil(startNanos + (long) (time * 1e9));
+                }
+                if (time == nextPose) {
+                    for (int i = 0; i < mFramePairs.size(); i++) {
+                        mListener.onPoseAvailable(pose(time, mFramePairs.get(i)));
+                    }
+                    nextPose += mPosePeriod;
+                } else if (time == nextPointCloud) {
+                    mListener.onPointCloudAvailable(pointCloud(time));
+                    nextPointCloud += mPointCloudPeriod;
+                } else {
+                    mListener.onFrameAvailable(TangoCameraIntrinsics.TANGO_CAMERA_COLOR);
+                    nextFrame += mFramePeriod;
+                }
+            }
+        }
+
+        /**
+         * Returns a point cloud in the depth camera frame, x right, y down, z forward, of the
+         * floor and of a wall patch ahead whose distance changes over time.
+         */
+        private TangoPointCloudData pointCloud(double time) {
+            TangoPointCloudData pointCloud = new TangoPointCloudData();
+            pointCloud.timestamp = time;
+            pointCloud.numPoints = mPointCount;
+            FloatBuffer points = FloatBuffer.allocate(4 * mPointCount);
+            double wallDistance = 2.5 + 1.5 * Math.sin(time * 0.5);
+            double tanX = Math.tan(DEPTH_HALF_FOV_X);
+            double tanY = Math.tan(DEPTH_HALF_FOV_Y);
+            for (int i = 0; i < mPointCount; i++) {
+                // Cast a ray through a random pixel, and intersect it with the scene.
+                double rayX = (2 * mRandom.nextDouble() - 1) * tanX;
+                double rayY = (2 * mRandom.nextDouble() - 1) * tanY;
+                double depth = MAX_DEPTH_M;
+                if (rayY > 0) {
+                    depth = Math.min(depth, DEVICE_HEIGHT_M / rayY);
+                }
+                if (Math.abs(rayX * wallDistance) < 0.5) {
+                    depth = Math.min(depth, wallDistance);
+                }
+                depth += 0.005 * mRandom.nextGaussian();
+                points.put((float) (rayX * depth));
+                points.put((float) (rayY * depth));
+                points.put((float) depth);
+                points.put(depth < MAX_DEPTH_M ? 1.0f : 0.5f);
+            }
+            points.rewind();
+            pointCloud.points = points;
+            return pointCloud;
+        }
+
+        private double period(double rate) {
+            return rate > 0 ? 1.0 / rate : Double.POSITIVE_INFINITY;
+        }
+
+        private void sleepUntil(long deadlineNanos) {
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining > 0) {
+                try {
+                    Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+                } catch (InterruptedException e) {
+                    mStopped = true;
+                }
+            }
+        }
+    }
+}
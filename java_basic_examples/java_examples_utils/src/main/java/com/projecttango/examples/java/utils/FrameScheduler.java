@@ -0,0 +1,267 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.utils;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Paces the rendering of the frames of a Tango camera, and accounts for how they are displayed.
+ * <p/>
+ * The camera callback reports every frame with {@link #onFrameAvailable()}, and the render
+ * thread takes them with {@link #takeFrames()} before updating its texture: only the latest
+ * frame is displayed, the others are counted as dropped. A render without a new frame shows the
+ * previous one again, and is counted as duplicated. Two latencies are recorded for every
+ * displayed frame, up to the end of its render: from the capture timestamp returned by
+ * {@code updateTexture}, which is on the clock of {@link System#nanoTime()}, and from the
+ * callback reporting it.
+ * <p/>
+ * Rendering when a frame is available, as {@code RENDERMODE_WHEN_DIRTY} does, waits for the
+ * render thread to wake up; rendering continuously waits for the next vertical sync. Which one
+ * is quicker depends on the device and its load, so the scheduler measures the latency from the
+ * callback to the display over windows of {@link #WINDOW_FRAMES} frames, and uses the mode with
+ * the lowest one: each mode is tried in turn at first, and the one not in use is tried again
+ * every {@link #PROBE_WINDOWS} windows.
+ * <p/>
+ * {@link #onFrameAvailable()} may be called from any thread, the other methods but
+ * {@link #snapshot()} and {@link #isContinuous()} from the render thread only. Nothing
+ * allocates nor locks.
+ */
+public final class FrameScheduler {
+    static final int WINDOW_FRAMES = 30;
+    static final int PROBE_WINDOWS = 10;
+    // A mode is switched to only if its latency is lower by more than this fraction.
+    private static final double HYSTERESIS = 0.1;
+    // Capture latencies beyond this are taken as timestamps on another clock, and not recorded.
+    private static final long MAX_CAPTURE_LATENCY_NANOS = 1000000000L;
+
+    private final AtomicLong mAvailableCount = new AtomicLong();
+    private volatile long mLastArrivalNanos;
+    private volatile boolean mContinuous = true;
+
+    private final AtomicLong mDisplayedCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final AtomicLong mDuplicatedCount = new AtomicLong();
+    private final LatencyHistogram mCaptureLatencies = new LatencyHistogram();
+    private final LatencyHistogram mArrivalLatencies = new LatencyHistogram();
+
+    // Only accessed by the render thread.
+    private long mTakenCount;
+    private long mArrivalNanos;
+    private double mCaptureTimestamp = Double.NaN;
+    private boolean mUpdated;
+    // Mean latency from the callback to the display of the last window in each mode, NaN if
+    // unknown, indexed by whether the mode is continuous.
+    private final double[] mModeLatencies = { Double.NaN, Double.NaN };
+    private long mWindowLatencySum;
+    private int mWindowFrameCount;
+    private int mWindowCount;
+
+    /**
+     * Reports a new frame. Returns whether a render must be requested for it, i.e. whether the
+     * rendering is not continuous.
+     */
+    public boolean onFrameAvailable() {
+        mLastArrivalNanos = System.nanoTime();
+        mAvailableCount.incrementAndGet();
+        return !mContinuous;
+    }
+
+    /**
+     * Returns whether frames should be rendered continuously rather than when available.
+     */
+    public boolean isContinuous() {
+        return mContinuous;
+    }
+
+    /**
+     * Takes the frames reported since the previous call, before updating the texture. Returns
+     * whether there are any.
+     */
+    public boolean takeFrames() {
+        long availableCount = mAvailableCount.get();
+        long count = availableCount - mTakenCount;
+        if (count == 0) {
+            return false;
+        }
+        mArrivalNanos = mLastArrivalNanos;
+        mTakenCount = availableCount;
+        if (count > 1) {
+            mDroppedCount.addAndGet(count - 1);
+        }
+        return true;
+    }
+
+    /**
+     * Reports that the texture was updated with the latest frame taken.
+     *
+     * @param timestamp the capture timestamp of the frame, in seconds.
+     */
+    public void onFrameUpdated(double timestamp) {
+        mCaptureTimestamp = timestamp;
+        mUpdated = true;
+    }
+
+    /**
+     * Reports the end of a render, with or without a new frame.
+     */
+    public void onFrameRendered() {
+        if (!mUpdated) {
+            // Renders before the first frame don't repeat any.
+            if (!Double.isNaN(mCaptureTimestamp)) {
+                mDuplicatedCount.incrementAndGet();
+            }
+            return;
+        }
+        mUpdated = false;
+        long now = System.nanoTime();
+        mDisplayedCount.incrementAndGet();
+        long captureLatency = now - (long) (mCaptureTimestamp * 1e9);
+        if (captureLatency >= 0 && captureLatency < MAX_CAPTURE_LATENCY_NANOS) {
+            mCaptureLatencies.record(captureLatency);
+        }
+        long arrivalLatency = now - mArrivalNanos;
+        mArrivalLatencies.record(arrivalLatency);
+
+        mWindowLatencySum += arrivalLatency;
+        if (++mWindowFrameCount == WINDOW_FRAMES) {
+            endWindow();
+        }
+    }
+
+    /**
+     * Returns the stats since this was created.
+     */
+    public Stats snapshot() {
+        return new Stats(System.nanoTime(), mAvailableCount.get(), mDisplayedCount.get(),
+                mDroppedCount.get(), mDuplicatedCount.get(), mCaptureLatencies.snapshot(),
+                mArrivalLatencies.snapshot(), mContinuous);
+    }
+
+    private void endWindow() {
+        boolean continuous = mContinuous;
+        int mode = continuous ? 1 : 0;
+        int other = 1 - mode;
+        mModeLatencies[mode] = (double) mWindowLatencySum / mWindowFrameCount;
+        mWindowLatencySum = 0;
+        mWindowFrameCount = 0;
+        if (++mWindowCount % PROBE_WINDOWS == 0) {
+            mModeLatencies[other] = Double.NaN;
+        }
+        if (Double.isNaN(mModeLatencies[other])
+                || mModeLatencies[other] < (1 - HYSTERESIS) * mModeLatencies[mode]) {
+            mContinuous = !continuous;
+        }
+    }
+
+    /**
+     * Immutable stats of the frames over a period of time.
+     */
+    public static final class Stats {
+        private final long mTimeNanos;
+        private final long mAvailableCount;
+        private final long mDisplayedCount;
+        private final long mDroppedCount;
+        private final long mDuplicatedCount;
+        private final LatencyHistogram.Snapshot mCaptureLatencies;
+        private final LatencyHistogram.Snapshot mArrivalLatencies;
+        private final boolean mContinuous;
+
+        private Stats(long timeNanos, long availableCount, long displayedCount, long droppedCount,
+                      long duplicatedCount, LatencyHistogram.Snapshot captureLatencies,
+                      LatencyHistogram.Snapshot arrivalLatencies, boolean continuous) {
+            mTimeNanos = timeNanos;
+            mAvailableCount = availableCount;
+            mDisplayedCount = displayedCount;
+            mDroppedCount = droppedCount;
+            mDuplicatedCount = duplicatedCount;
+            mCaptureLatencies = captureLatencies;
+            mArrivalLatencies = arrivalLatencies;
+            mContinuous = continuous;
+        }
+
+        /**
+         * Returns the stats between an earlier snapshot and this one.
+         */
+        public Stats since(Stats earlier) {
+            return new Stats(mTimeNanos, mAvailableCount - earlier.mAvailableCount,
+                    mDisplayedCount - earlier.mDisplayedCount,
+                    mDroppedCount - earlier.mDroppedCount,
+                    mDuplicatedCount - earlier.mDuplicatedCount,
+                    mCaptureLatencies.since(earlier.mCaptureLatencies),
+                    mArrivalLatencies.since(earlier.mArrivalLatencies), mContinuous);
+        }
+
+        public long getAvailableCount() {
+            return mAvailableCount;
+        }
+
+        public long getDisplayedCount() {
+            return mDisplayedCount;
+        }
+
+        /**
+         * Returns the number of frames replaced by a newer one before being displayed.
+         */
+        public long getDroppedCount() {
+            return mDroppedCount;
+        }
+
+        /**
+         * Returns the number of renders that displayed the previous frame again.
+         */
+        public long getDuplicatedCount() {
+            return mDuplicatedCount;
+        }
+
+        /**
+         * Returns the latencies from the capture of the frames to the end of their render, in
+         * nanoseconds.
+         */
+        public LatencyHistogram.Snapshot getCaptureLatencies() {
+            return mCaptureLatencies;
+        }
+
+        /**
+         * Returns the latencies from the report of the frames to the end of their render, in
+         * nanoseconds.
+         */
+        public LatencyHistogram.Snapshot getArrivalLatencies() {
+            return mArrivalLatencies;
+        }
+
+        /**
+         * Returns whether the frames were rendered continuously when the snapshot was taken.
+         */
+        public boolean isContinuous() {
+            return mContinuous;
+        }
+
+        /**
+         * Returns a one line summary, for display.
+         */
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "frames: %s, displayed %d, dropped %d, duplicated %d, "
+                            + "capture p50 %.2f ms, p99 %.2f ms, arrival p50 %.2f ms",
+                    mContinuous ? "continuous" : "when dirty", mDisplayedCount, mDroppedCount,
+                    mDuplicatedCount, mCaptureLatencies.getValueAtPercentile(0.5) / 1e6,
+                    mCaptureLatencies.getValueAtPercentile(0.99) / 1e6,
+                    mArrivalLatencies.getValueAtPercentile(0.5) / 1e6);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds with a bounded relative error, in the manner of
+ * HdrHistogram: every power of two range is split into {@link #SUB_BUCKET_COUNT} linear
+ * buckets, so values are kept within 1 / {@link #SUB_BUCKET_COUNT} of their exact value, from
+ * nanoseconds up to minutes, in a few hundred counters.
+ * <p/>
+ * Recording is a single atomic increment: it never allocates, never locks, and may happen from
+ * any number of threads. Reading is done on {@link Snapshot}s, which copy the counters.
+ */
+public final class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // Values above this, about 69 seconds, are counted as this.
+    static final long MAX_VALUE = (1L << 36) - 1;
+    static final int BUCKET_COUNT = bucketOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * Records a duration in nanoseconds. Negative durations are counted as 0.
+     */
+    public void record(long nanos) {
+        mCounts.getAndIncrement(bucketOf(Math.max(0, Math.min(nanos, MAX_VALUE))));
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return new Snapshot(counts);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    static long lowestValueOf(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKET_COUNT - 1;
+        return (long) (bucket % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT) << shift;
+    }
+
+    static long highestValueOf(int bucket) {
+        return lowestValueOf(bucket + 1) - 1;
+    }
+
+    /**
+     * Immutable copy of the counters of a histogram.
+     */
+    public static final class Snapshot {
+        private final long[] mCounts;
+        private final long mTotalCount;
+
+        private Snapshot(long[] counts) {
+            mCounts = counts;
+            long totalCount = 0;
+            for (long count : counts) {
+                totalCount += count;
+            }
+            mTotalCount = totalCount;
+        }
+
+        /**
+         * Returns the values recorded since an earlier snapshot of the same histogram.
+         */
+        public Snapshot since(Snapshot earlier) {
+            long[] counts = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] = mCounts[i] - earlier.mCounts[i];
+            }
+            return new Snapshot(counts);
+        }
+
+        public long getTotalCount() {
+            return mTotalCount;
+        }
+
+        /**
+         * Returns the value below which the given fraction of the recorded values lie, rounded
+         * up to the highest value of its bucket, or 0 if the histogram is empty.
+         */
+        public long getValueAtPercentile(double fraction) {
+            if (mTotalCount == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * mTotalCount));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    return highestValueOf(i);
+                }
+            }
+            return MAX_VALUE;
+        }
+
+        public long getMax() {
+            return getValueAtPercentile(1.0);
+        }
+
+        /**
+         * Returns the mean of the recorded values, taking every value at the middle of its
+         * bucket, or 0 if the histogram is empty.
+         */
+        public double getMean() {
+            if (mTotalCount == 0) {
+                return 0;
+            }
+            double sum = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                sum += mCounts[i] * middleValueOf(i);
+            }
+            return sum / mTotalCount;
+        }
+
+        /**
+         * Returns the standard deviation of the recorded values, taking every value at the
+         * middle of its bucket, or 0 if the histogram is empty.
+         */
+        public double getStandardDeviation() {
+            if (mTotalCount == 0) {
+                return 0;
+            }
+            double mean = getMean();
+            double sumSq = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                double deviation = middleValueOf(i) - mean;
+                sumSq += mCounts[i] * deviation * deviation;
+            }
+            return Math.sqrt(sumSq / mTotalCount);
+        }
+
+        private static double middleValueOf(int bucket) {
+            return (lowestValueOf(bucket) + highestValueOf(bucket)) / 2.0;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.utils;
+
+/**
+ * Layout of the trace files written by {@link AsyncLogger} and read by {@link LogTraceReader},
+ * big endian:
+ * <pre>
+ *   header   magic (int), version (short)
+ *   records  type (byte), event id (short), payload
+ * </pre>
+ * Payloads by record type:
+ * <pre>
+ *   event definition  tag, format (string)
+ *   entry             nanoseconds since the start of the trace (long), value count (byte),
+ *                     values (double)
+ * </pre>
+ * The definition of an event precedes its first entry. Strings are stored as their UTF-8 byte
+ * length (short) followed by the bytes.
+ */
+final class LogTraceFormat {
+    static final int MAGIC = 0x474f4c54; // "TLOG"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 6;
+
+    static final byte TYPE_DEFINITION = 1;
+    static final byte TYPE_ENTRY = 2;
+
+    // Type and event id of every record.
+    static final int RECORD_HEADER_SIZE = 3;
+    static final int MAX_STRING_SIZE = 1024;
+
+    private LogTraceFormat() {
+    }
+}
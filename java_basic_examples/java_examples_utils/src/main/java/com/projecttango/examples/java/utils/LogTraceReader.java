@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.utils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Turns a binary trace written by {@link AsyncLogger} back into messages, formatted as the
+ * logger would have and prefixed with the time of the event in seconds since the start of the
+ * trace, such as {@code "+12.345678 Position: 0.1, 0.2, 0.3"}.
+ */
+public final class LogTraceReader {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private LogTraceReader() {
+    }
+
+    /**
+     * Writes the messages of the trace to the sink, in order. A truncated last record, left by
+     * a trace that was cut short, ends the reading.
+     *
+     * @return the number of messages written.
+     * @throws IOException if the file can't be read or is not a trace file.
+     */
+    public static int read(File file, AsyncLogger.TextSink sink) throws IOException {
+        DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (input.readInt() != LogTraceFormat.MAGIC) {
+                throw new IOException(file + " is not a trace file");
+            }
+            short version = input.readShort();
+            if (version != LogTraceFormat.VERSION) {
+                throw new IOException("Unsupported trace file version " + version);
+            }
+
+            String[] tags = new String[1 << 16];
+            String[] formats = new String[1 << 16];
+            double[] values = new double[AsyncLogger.MAX_VALUES];
+            StringBuilder builder = new StringBuilder(256);
+            int count = 0;
+            while (true) {
+                int type = input.read();
+                if (type < 0) {
+                    break;
+                }
+                try {
+                    int event = input.readUnsignedShort();
+                    if (type == LogTraceFormat.TYPE_DEFINITION) {
+                        tags[event] = readString(input);
+                        formats[event] = readString(input);
+                    } else if (type == LogTraceFormat.TYPE_ENTRY) {
+                        long offsetNanos = input.readLong();
+                        int valueCount = input.readUnsignedByte();
+                        if (formats[event] == null || valueCount > values.length) {
+                            throw new IOException("Corrupt trace file " + file);
+                        }
+                        for (int i = 0; i < valueCount; i++) {
+                            values[i] = input.readDouble();
+                        }
+                        builder.setLength(0);
+                        builder.append(String.format(Locale.US, "+%.6f ", offsetNanos / 1e9));
+                        AsyncLogger.format(builder, formats[event], values, 0, valueCount);
+                        sink.write(tags[event], builder.toString());
+                        count++;
+                    } else {
+                        throw new IOException("Unknown record type " + type + " in " + file);
+                    }
+                } catch (EOFException e) {
+                    // Truncated last record.
+                    break;
+                }
+            }
+            return count;
+        } finally {
+            input.close();
+        }
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readUnsignedShort()];
+        input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically appends the callback metrics of a {@link MetricsListener} to a CSV file, from a
+ * background thread. Every row covers one callback over the period since the previous dump,
+ * with latencies and jitter in milliseconds:
+ * <pre>
+ *   time_ms,callback,count,rate_hz,p50_ms,p90_ms,p99_ms,max_ms,jitter_ms,missed
+ * </pre>
+ * where {@code time_ms} is the wall clock time of the dump.
+ */
+public final class MetricsDumper {
+    public static final String EXTENSION = ".metrics.csv";
+
+    private static final String HEADER =
+            "time_ms,callback,count,rate_hz,p50_ms,p90_ms,p99_ms,max_ms,jitter_ms,missed\n";
+    private static final String ROW_FORMAT = "%d,%s,%d,%.2f,%.3f,%.3f,%.3f,%.3f,%.3f,%d\n";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Told of the failure of a dump, once the dumper is closed.
+     */
+    public interface CloseListener {
+        /**
+         * Called from the dumping thread, with the first error of the dumps or of closing the
+         * file.
+         */
+        void onCloseFailed(IOException e);
+    }
+
+    private final MetricsReporter mReporter;
+    private final Writer mWriter;
+    private final ScheduledExecutorService mExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    // First error of the dumping thread, reported by close().
+    private volatile IOException mWriteError;
+
+    /**
+     * Starts dumping the metrics to a file, appending to it if it already exists.
+     */
+    public MetricsDumper(MetricsListener listener, File file, long period, TimeUnit unit)
+            throws IOException {
+        this(listener.getMetrics(), file, period, unit);
+    }
+
+    /**
+     * Starts dumping the given metrics to a file, appending to it if it already exists.
+     */
+    public MetricsDumper(List<CallbackMetrics> metrics, File file, long period, TimeUnit unit)
+            throws IOException {
+        mReporter = new MetricsReporter(metrics);
+        boolean isNew = !file.exists() || file.length() == 0;
+        mWriter = new OutputStreamWriter(new FileOutputStream(file, true), UTF_8);
+        if (isNew) {
+            mWriter.write(HEADER);
+            mWriter.flush();
+        }
+        mExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                dump();
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stops dumping, after a last dump of the metrics since the previous one. Returns at once:
+     * the last dump and closing the file are left to the dumping thread, so that the caller,
+     * typically the UI thread, doesn't wait on the disk.
+     *
+     * @param listener told if a dump failed.
+     */
+    public void close(final CloseListener listener) {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    dump();
+                    try {
+                        mWriter.close();
+                    } catch (IOException e) {
+                        if (mWriteError == null) {
+                            mWriteError = e;
+                        }
+                    }
+                    if (mWriteError != null) {
+                        listener.onCloseFailed(mWriteError);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Already closed.
+            return;
+        }
+        // Cancels the periodic dumps, but still runs the last one.
+        mExecutor.shutdown();
+    }
+
+    private synchronized void dump() {
+        if (mWriteError != null) {
+            return;
+        }
+        long time = System.currentTimeMillis();
+        List<CallbackMetrics.Snapshot> snapshots = mReporter.next();
+        try {
+            for (CallbackMetrics.Snapshot snapshot : snapshots) {
+                LatencyHistogram.Snapshot latencies = snapshot.getLatencies();
+                mWriter.write(String.format(Locale.US, ROW_FORMAT, time,
+                        snapshot.getName(), snapshot.getCount(), snapshot.getRate(),
+                        latencies.getValueAtPercentile(0.5) / 1e6,
+                        latencies.getValueAtPercentile(0.9) / 1e6,
+                        latencies.getValueAtPercentile(0.99) / 1e6, latencies.getMax() / 1e6,
+                        snapshot.getJitter() / 1e6, snapshot.getMissedCount()));
+            }
+            mWriter.flush();
+        } catch (IOException e) {
+            mWriteError = e;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.utils;
+
+import com.google.atap.tangoservice.Tango.OnTangoUpdateListener;
+import com.google.atap.tangoservice.TangoEvent;
+import com.google.atap.tangoservice.TangoPointCloudData;
+import com.google.atap.tangoservice.TangoPoseData;
+import com.google.atap.tangoservice.TangoXyzIjData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures the Tango callbacks of the application: wraps its listener, and records the
+ * {@link CallbackMetrics} of every callback it passes on.
+ * <p/>
+ * {@code onFrameAvailable} carries no timestamp, so its intervals are measured on arrival.
+ * Events come at irregular times, so no intervals are recorded for {@code onTangoEvent}.
+ */
+public final class MetricsListener implements OnTangoUpdateListener {
+    private final OnTangoUpdateListener mListener;
+    private final CallbackMetrics mPoseMetrics = new CallbackMetrics("onPoseAvailable");
+    private final CallbackMetrics mXyzIjMetrics = new CallbackMetrics("onXyzIjAvailable");
+    private final CallbackMetrics mPointCloudMetrics =
+            new CallbackMetrics("onPointCloudAvailable");
+    private final CallbackMetrics mFrameMetrics = new CallbackMetrics("onFrameAvailable");
+    private final CallbackMetrics mEventMetrics = new CallbackMetrics("onTangoEvent");
+    private final List<CallbackMetrics> mMetrics = Collections.unmodifiableList(Arrays.asList(
+            mPoseMetrics, mXyzIjMetrics, mPointCloudMetrics, mFrameMetrics, mEventMetrics));
+
+    /**
+     * @param listener the listener the callbacks are passed on to.
+     */
+    public MetricsListener(OnTangoUpdateListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Returns the metrics of every callback.
+     */
+    public List<CallbackMetrics> getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Returns snapshots of the metrics of the callbacks that have been called at least once.
+     */
+    public List<CallbackMetrics.Snapshot> snapshot() {
+        List<CallbackMetrics.Snapshot> snapshots = new ArrayList<CallbackMetrics.Snapshot>();
+        for (CallbackMetrics metrics : mMetrics) {
+            CallbackMetrics.Snapshot snapshot = metrics.snapshot();
+            if (snapshot.getCount() > 0) {
+                snapshots.add(snapshot);
+            }
+        }
+        return snapshots;
+    }
+
+    @Override
+    public void onPoseAvailable(TangoPoseData pose) {
+        long start = System.nanoTime();
+        mListener.onPoseAvailable(pose);
+        mPoseMetrics.record(pose.timestamp, start, System.nanoTime());
+    }
+
+    @Override
+    public void onXyzIjAvailable(TangoXyzIjData xyzIj) {
+        long start = System.nanoTime();
+        mListener.onXyzIjAvailable(xyzIj);
+        mXyzIjMetrics.record(xyzIj.timestamp, start, System.nanoTime());
+    }
+
+    @Override
+    public void onPointCloudAvailable(TangoPointCloudData pointCloud) {
+        long start = System.nanoTime();
+        mListener.onPointCloudAvailable(pointCloud);
+        mPointCloudMetrics.record(pointCloud.timestamp, start, System.nanoTime());
+    }
+
+    @Override
+    public void onFrameAvailable(int cameraId) {
+        long start = System.nanoTime();
+        mListener.onFrameAvailable(cameraId);
+        mFrameMetrics.record(start / 1e9, start, System.nanoTime());
+    }
+
+    @Override
+    public void onTangoEvent(TangoEvent event) {
+        long start = System.nanoTime();
+        mListener.onTangoEvent(event);
+        mEventMetrics.record(Double.NaN, start, System.nanoTime());
+    }
+}
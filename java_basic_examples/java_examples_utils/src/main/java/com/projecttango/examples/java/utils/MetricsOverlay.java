@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.utils;
+
+import com.google.atap.tangoservice.Tango.OnTangoUpdateListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The callback metrics of an example session: wraps the Tango listener of the session into a
+ * {@link MetricsListener}, reports its metrics, along with any metrics of the example itself,
+ * every second when {@link #SHOW_METRICS} is set, and dumps them to a file every few seconds
+ * when {@link #DUMP_METRICS} is set.
+ * <p/>
+ * The reports go to a {@link Display}, typically a text view updated on the UI thread. A session
+ * is started and stopped under the lock of the example that holds it.
+ */
+public final class MetricsOverlay {
+    // Set to true to show the metrics of the Tango callbacks on screen, refreshed every second.
+    public static final boolean SHOW_METRICS = false;
+    // Set to true to dump the metrics of the Tango callbacks to a file every few seconds.
+    public static final boolean DUMP_METRICS = false;
+
+    private static final long REPORT_PERIOD_MS = 1000;
+    private static final long DUMP_PERIOD_S = 5;
+
+    /**
+     * Shows the metrics reports.
+     */
+    public interface Display {
+        /**
+         * Shows the metrics since the previous report, one callback per line. Called from a
+         * background thread.
+         */
+        void show(String report);
+
+        /**
+         * Reports that the metrics couldn't be dumped to the given file. Called from any
+         * thread.
+         */
+        void onDumpFailed(File file, IOException e);
+    }
+
+    private final File mDumpDirectory;
+    private final Display mDisplay;
+
+    // Guarded by this.
+    private ScheduledExecutorService mReportExecutor;
+    private MetricsDumper mDumper;
+    private File mDumpFile;
+
+    /**
+     * @param dumpDirectory where the dumps are written, one file per session.
+     */
+    public MetricsOverlay(File dumpDirectory, Display display) {
+        mDumpDirectory = dumpDirectory;
+        mDisplay = display;
+    }
+
+    /**
+     * Starts reporting the metrics of a session, and returns the listener to connect to the
+     * Tango service in place of the given one.
+     */
+    public OnTangoUpdateListener start(OnTangoUpdateListener listener) {
+        return start(listener, Collections.<CallbackMetrics>emptyList(), null);
+    }
+
+    /**
+     * Starts reporting the metrics of a session, along with metrics recorded by the example and,
+     * if not null, the stats of its frames, and returns the listener to connect to the Tango
+     * service in place of the given one.
+     */
+    public synchronized OnTangoUpdateListener start(OnTangoUpdateListener listener,
+                                                    List<CallbackMetrics> extraMetrics,
+                                                    final FrameScheduler frameScheduler) {
+        stop();
+        MetricsListener metricsListener = new MetricsListener(listener);
+        List<CallbackMetrics> metrics = new ArrayList<CallbackMetrics>(
+                metricsListener.getMetrics());
+        metrics.addAll(extraMetrics);
+        if (SHOW_METRICS) {
+            final MetricsReporter reporter = new MetricsReporter(metrics);
+            mReportExecutor = Executors.newSingleThreadScheduledExecutor();
+            mReportExecutor.scheduleAtFixedRate(new Runnable() {
+                private FrameScheduler.Stats mPreviousFrameStats =
+                        frameScheduler != null ? frameScheduler.snapshot() : null;
+
+                @Override
+                public void run() {
+                    String report = reporter.nextReport();
+                    if (frameScheduler != null) {
+                        FrameScheduler.Stats frameStats = frameScheduler.snapshot();
+                        report += "\n" + frameStats.since(mPreviousFrameStats);
+                        mPreviousFrameStats = frameStats;
+                    }
+                    mDisplay.show(report);
+                }
+            }, REPORT_PERIOD_MS, REPORT_PERIOD_MS, TimeUnit.MILLISECONDS);
+        }
+        if (DUMP_METRICS) {
+            mDumpFile = new File(mDumpDirectory,
+                    "metrics-" + System.currentTimeMillis() + MetricsDumper.EXTENSION);
+            try {
+                mDumper = new MetricsDumper(metrics, mDumpFile, DUMP_PERIOD_S, TimeUnit.SECONDS);
+            } catch (IOException e) {
+                mDisplay.onDumpFailed(mDumpFile, e);
+            }
+        }
+        return metricsListener;
+    }
+
+    /**
+     * Stops reporting the metrics of the session, if one is started.
+     */
+    public synchronized void stop() {
+        if (mReportExecutor != null) {
+            mReportExecutor.shutdownNow();
+            mReportExecutor = null;
+        }
+        if (mDumper != null) {
+            final File dumpFile = mDumpFile;
+            mDumper.close(new MetricsDumper.CloseListener() {
+                @Override
+                public void onCloseFailed(IOException e) {
+                    mDisplay.onDumpFailed(dumpFile, e);
+                }
+            });
+            mDumper = null;
+        }
+    }
+}
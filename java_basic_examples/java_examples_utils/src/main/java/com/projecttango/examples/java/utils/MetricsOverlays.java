@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.utils;
+
+import android.app.Activity;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Creates the {@link MetricsOverlay} of an example activity, shown in one of its text views.
+ * <p/>
+ * Unlike the rest of this package, this uses the Android framework, so only call it on a device.
+ */
+public final class MetricsOverlays {
+    private static final String TAG = MetricsOverlays.class.getSimpleName();
+
+    private MetricsOverlays() {
+    }
+
+    /**
+     * Returns the metrics overlay of an activity, which shows the reports in the given text view,
+     * made visible when {@link MetricsOverlay#SHOW_METRICS} is set, and dumps the metrics to the
+     * external files directory of the activity. Call it from the UI thread.
+     */
+    public static MetricsOverlay forTextView(Activity activity, int textViewId) {
+        final TextView textView = (TextView) activity.findViewById(textViewId);
+        if (MetricsOverlay.SHOW_METRICS) {
+            textView.setVisibility(View.VISIBLE);
+        }
+        return new MetricsOverlay(activity.getExternalFilesDir(null),
+                new MetricsOverlay.Display() {
+                    @Override
+                    public void show(final String report) {
+                        textView.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                textView.setText(report);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onDumpFailed(File file, IOException e) {
+                        Log.e(TAG, "Unable to dump the metrics to " + file, e);
+                    }
+                });
+    }
+}
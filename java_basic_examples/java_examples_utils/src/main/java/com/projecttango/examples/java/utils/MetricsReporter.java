@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reports the callback metrics of a {@link MetricsListener}, or any other metrics, over
+ * consecutive windows of time: every report covers the callbacks made since the previous one, so
+ * that rates and latencies reflect the current behavior rather than the whole session.
+ */
+public final class MetricsReporter {
+    private final List<CallbackMetrics> mMetrics;
+    // Guarded by this.
+    private List<CallbackMetrics.Snapshot> mPrevious;
+
+    public MetricsReporter(MetricsListener listener) {
+        this(listener.getMetrics());
+    }
+
+    /**
+     * Reports the given metrics, for instance those of a listener along with metrics recorded
+     * by the application itself.
+     */
+    public MetricsReporter(List<CallbackMetrics> metrics) {
+        mMetrics = metrics;
+        mPrevious = snapshotAll();
+    }
+
+    /**
+     * Returns the metrics of the callbacks made since the previous call, or since this reporter
+     * was created. Callbacks that have never been called are left out.
+     */
+    public synchronized List<CallbackMetrics.Snapshot> next() {
+        List<CallbackMetrics.Snapshot> current = snapshotAll();
+        List<CallbackMetrics.Snapshot> window = new ArrayList<CallbackMetrics.Snapshot>();
+        for (int i = 0; i < current.size(); i++) {
+            if (current.get(i).getCount() > 0) {
+                window.add(current.get(i).since(mPrevious.get(i)));
+            }
+        }
+        mPrevious = current;
+        return window;
+    }
+
+    /**
+     * Returns the metrics of {@link #next()} as text, one callback per line.
+     */
+    public String nextReport() {
+        StringBuilder report = new StringBuilder();
+        for (CallbackMetrics.Snapshot snapshot : next()) {
+            if (report.length() > 0) {
+                report.append('\n');
+            }
+            report.append(snapshot);
+        }
+        return report.toString();
+    }
+
+    private List<CallbackMetrics.Snapshot> snapshotAll() {
+        List<CallbackMetrics.Snapshot> snapshots = new ArrayList<CallbackMetrics.Snapshot>();
+        for (CallbackMetrics metrics : mMetrics) {
+            snapshots.add(metrics.snapshot());
+        }
+        return snapshots;
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.utils;
+
+/**
+ * Smooths a stream of poses and rejects outliers, so that jitter doesn't make decisions taken
+ * on the poses flap, such as whether a destination is reached.
+ * <p/>
+ * The translation and rotation quaternion components are filtered as seven independent
+ * channels, with either:
+ * <ul>
+ *   <li>{@link #MODE_KALMAN}: a constant velocity Kalman filter per channel, which tracks the
+ *   velocity and so doesn't lag behind steady motion,</li>
+ *   <li>{@link #MODE_ONE_EURO}: a One-Euro filter per channel, a low pass filter whose cutoff
+ *   frequency rises with the speed: strong smoothing when still, little lag when moving,</li>
+ *   <li>{@link #MODE_NONE}: poses are passed through, only rejecting outliers.</li>
+ * </ul>
+ * Quaternions are kept in the hemisphere of the filtered rotation, and renormalized once
+ * filtered.
+ * <p/>
+ * A pose whose translation is further from the predicted one than the device could have moved
+ * is rejected as an outlier and replaced by the prediction. After too many consecutive
+ * rejections, the jump is taken as real, such as a relocalization correction, and the filter
+ * restarts from the new pose. It also restarts after a gap in the stream, or when the
+ * timestamps go back by more than the gap, such as when the time base is reset.
+ * <p/>
+ * Poses are filtered in place, on state held in primitive arrays: filtering never allocates.
+ * Not thread safe, poses are expected from a single callback thread.
+ */
+public final class PoseFilter {
+    public static final int MODE_NONE = 0;
+    public static final int MODE_KALMAN = 1;
+    public static final int MODE_ONE_EURO = 2;
+
+    private static final int CHANNELS = 7;
+    private static final int ROTATION = 3;
+    // Cutoff frequency of the One-Euro speed estimates, in Hz.
+    private static final double DERIVATIVE_CUTOFF_HZ = 1.0;
+
+    private final int mMode;
+
+    // Kalman filter noise, for the translation then the rotation channels: spectral density of
+    // the acceleration, and variance of the measurements.
+    private double mTranslationProcessNoise = 1.0;
+    private double mTranslationMeasurementNoise = 1e-4;
+    private double mRotationProcessNoise = 1.0;
+    private double mRotationMeasurementNoise = 2.5e-5;
+
+    // One-Euro filter parameters, for the translation then the rotation channels: minimum
+    // cutoff frequency in Hz, and its increase per unit of speed.
+    private double mTranslationMinCutoff = 1.0;
+    private double mTranslationBeta = 2.0;
+    private double mRotationMinCutoff = 1.0;
+    private double mRotationBeta = 5.0;
+
+    // Outlier gate: a translation is rejected when further than mMinJump + mMaxSpeed * dt from
+    // the prediction, and the filter restarts after more than mMaxRejected rejections in a row.
+    private double mMaxSpeed = 3.0;
+    private double mMinJump = 0.1;
+    private int mMaxRejected = 10;
+    // The filter restarts after this many seconds without poses.
+    private double mMaxGap = 1.0;
+
+    // State of every channel: the filtered value and its velocity, and for the Kalman filter
+    // the covariance of the two.
+    private final double[] mValues = new double[CHANNELS];
+    private final double[] mVelocities = new double[CHANNELS];
+    private final double[] mVarValues = new double[CHANNELS];
+    private final double[] mCovariances = new double[CHANNELS];
+    private final double[] mVarVelocities = new double[CHANNELS];
+    private boolean mInitialized;
+    private double mTimestamp;
+    private int mRejectedInARow;
+    private long mRejectedCount;
+
+    /**
+     * @param mode one of {@link #MODE_NONE}, {@link #MODE_KALMAN} and {@link #MODE_ONE_EURO}.
+     */
+    public PoseFilter(int mode) {
+        if (mode != MODE_NONE && mode != MODE_KALMAN && mode != MODE_ONE_EURO) {
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+        mMode = mode;
+    }
+
+    /**
+     * Sets the noise of the Kalman filter. The defaults suit a hand held device at walking
+     * pace.
+     *
+     * @param translationProcessNoise     spectral density of the acceleration, in m^2/s^3.
+     * @param translationMeasurementNoise variance of the translations, in m^2.
+     * @param rotationProcessNoise        spectral density of the quaternion accelerations, in
+     *                                    1/s^3.
+     * @param rotationMeasurementNoise    variance of the quaternion components.
+     */
+    public void setKalmanNoise(double translationProcessNoise, double translationMeasurementNoise,
+            double rotationProcessNoise, double rotationMeasurementNoise) {
+        mTranslationProcessNoise = translationProcessNoise;
+        mTranslationMeasurementNoise = translationMeasurementNoise;
+        mRotationProcessNoise = rotationProcessNoise;
+        mRotationMeasurementNoise = rotationMeasurementNoise;
+    }
+
+    /**
+     * Sets the parameters of the One-Euro filter. Lowering the minimum cutoff smooths more when
+     * still, raising beta lags less when moving. The defaults reduce a 1 cm jitter to 3 mm when
+     * still, with a lag of about 2 cm at walking pace.
+     *
+     * @param translationMinCutoff minimum cutoff frequency of the translations, in Hz.
+     * @param translationBeta      increase of the cutoff frequency per m/s.
+     * @param rotationMinCutoff    minimum cutoff frequency of the rotations, in Hz.
+     * @param rotationBeta         increase of the cutoff frequency per unit of quaternion
+     *                             component speed, about half the angular speed in rad/s.
+     */
+    public void setOneEuro(double translationMinCutoff, double translationBeta,
+            double rotationMinCutoff, double rotationBeta) {
+        mTranslationMinCutoff = translationMinCutoff;
+        mTranslationBeta = translationBeta;
+        mRotationMinCutoff = rotationMinCutoff;
+        mRotationBeta = rotationBeta;
+    }
+
+    /**
+     * Sets the outlier gate.
+     *
+     * @param maxSpeed    the speed the device can't exceed, in m/s.
+     * @param minJump     the distance from the prediction always accepted, in meters, which
+     *                    covers the measurement noise.
+     * @param maxRejected the number of consecutive rejections after which the filter restarts
+     *                    from the new pose, 0 to disable the gate.
+     */
+    public void setOutlierGate(double maxSpeed, double minJump, int maxRejected) {
+        mMaxSpeed = maxSpeed;
+        mMinJump = minJump;
+        mMaxRejected = maxRejected;
+    }
+
+    /**
+     * Sets the number of seconds without poses, or back in time, after which the filter
+     * restarts.
+     */
+    public void setMaxGap(double maxGap) {
+        mMaxGap = maxGap;
+    }
+
+    /**
+     * Forgets the poses filtered so far, for instance when tracking is lost.
+     */
+    public void reset() {
+        mInitialized = false;
+        mRejectedInARow = 0;
+    }
+
+    /**
+     * Returns the number of poses rejected as outliers so far.
+     */
+    public long getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    /**
+     * Filters a pose in place.
+     *
+     * @param timestamp   the timestamp of the pose, in seconds.
+     * @param translation the translation, x, y, z, replaced by the filtered one.
+     * @param rotation    the rotation quaternion, x, y, z, w, replaced by the filtered one.
+     * @return false if the pose was rejected as an outlier, or older than the previous one, and
+     *         replaced by the prediction of the filter.
+     */
+    public boolean filter(double timestamp, double[] translation, double[] rotation) {
+        double dt = timestamp - mTimestamp;
+        if (!mInitialized || dt > mMaxGap || dt < -mMaxGap) {
+            initialize(timestamp, translation, rotation);
+            return true;
+        }
+        if (!(dt > 0)) {
+            predict(0, translation, rotation);
+            return false;
+        }
+
+        if (mMaxRejected > 0 && isOutlier(dt, translation)) {
+            mRejectedCount++;
+            if (++mRejectedInARow > mMaxRejected) {
+                initialize(timestamp, translation, rotation);
+                return true;
+            }
+            predict(dt, translation, rotation);
+            return false;
+        }
+        mRejectedInARow = 0;
+        mTimestamp = timestamp;
+
+        alignHemisphere(rotation);
+        for (int i = 0; i < CHANNELS; i++) {
+            boolean isRotation = i >= ROTATION;
+            double value = isRotation ? rotation[i - ROTATION] : translation[i];
+            switch (mMode) {
+                case MODE_KALMAN:
+                    updateKalman(i, dt, value,
+                            isRotation ? mRotationProcessNoise : mTranslationProcessNoise,
+                            isRotation ? mRotationMeasurementNoise : mTranslationMeasurementNoise);
+                    break;
+                case MODE_ONE_EURO:
+                    updateOneEuro(i, dt, value,
+                            isRotation ? mRotationMinCutoff : mTranslationMinCutoff,
+                            isRotation ? mRotationBeta : mTranslationBeta);
+                    break;
+                default:
+                    mVelocities[i] = (value - mValues[i]) / dt;
+                    mValues[i] = value;
+                    break;
+            }
+        }
+        predict(0, translation, rotation);
+        return true;
+    }
+
+    private void initialize(double timestamp, double[] translation, double[] rotation) {
+        for (int i = 0; i < CHANNELS; i++) {
+            boolean isRotation = i >= ROTATION;
+            mValues[i] = isRotation ? rotation[i - ROTATION] : translation[i];
+            mVelocities[i] = 0;
+            mVarValues[i] = isRotation ? mRotationMeasurementNoise : mTranslationMeasurementNoise;
+            mCovariances[i] = 0;
+            // Unknown velocity: a walking pace, for the translation.
+            mVarVelocities[i] = 1.0;
+        }
+        mTimestamp = timestamp;
+        mInitialized = true;
+        mRejectedInARow = 0;
+    }
+
+    private boolean isOutlier(double dt, double[] translation) {
+        double distanceSq = 0;
+        for (int i = 0; i < ROTATION; i++) {
+            double delta = translation[i] - predicted(i, dt);
+            distanceSq += delta * delta;
+        }
+        double maxDistance = mMinJump + mMaxSpeed * dt;
+        return distanceSq > maxDistance * maxDistance;
+    }
+
+    /**
+     * Returns the value of a channel predicted dt seconds after the last accepted pose. The
+     * One-Euro filter, a low pass, predicts no change.
+     */
+    private double predicted(int channel, double dt) {
+        return mMode == MODE_KALMAN ? mValues[channel] + mVelocities[channel] * dt
+                : mValues[channel];
+    }
+
+    /**
+     * Writes the pose predicted dt seconds after the last accepted one, with a unit quaternion.
+     */
+    private void predict(double dt, double[] translation, double[] rotation) {
+        for (int i = 0; i < ROTATION; i++) {
+            translation[i] = predicted(i, dt);
+        }
+        double normSq = 0;
+        for (int i = ROTATION; i < CHANNELS; i++) {
+            double value = predicted(i, dt);
+            rotation[i - ROTATION] = value;
+            normSq += value * value;
+        }
+        if (normSq > 0) {
+            double scale = 1 / Math.sqrt(normSq);
+            for (int i = 0; i < CHANNELS - ROTATION; i++) {
+                rotation[i] *= scale;
+            }
+        }
+    }
+
+    /**
+     * Negates the quaternion if needed to keep it in the hemisphere of the filtered rotation,
+     * since q and -q are the same rotation but would be averaged towards zero.
+     */
+    private void alignHemisphere(double[] rotation) {
+        double dot = 0;
+        for (int i = ROTATION; i < CHANNELS; i++) {
+            dot += mValues[i] * rotation[i - ROTATION];
+        }
+        if (dot < 0) {
+            for (int i = 0; i < CHANNELS - ROTATION; i++) {
+                rotation[i] = -rotation[i];
+            }
+        }
+    }
+
+    /**
+     * Predicts the channel dt seconds ahead, under a constant velocity model driven by white
+     * noise acceleration, then corrects it with the measured value.
+     */
+    private void updateKalman(int i, double dt, double value, double processNoise,
+            double measurementNoise) {
+        double dt2 = dt * dt;
+        double predictedValue = mValues[i] + mVelocities[i] * dt;
+        double varValue = mVarValues[i] + 2 * dt * mCovariances[i] + dt2 * mVarVelocities[i]
+                + processNoise * dt2 * dt / 3;
+        double covariance = mCovariances[i] + dt * mVarVelocities[i]
+                + processNoise * dt2 / 2;
+        double varVelocity = mVarVelocities[i] + processNoise * dt;
+
+        double innovation = value - predictedValue;
+        double innovationVar = varValue + measurementNoise;
+        double valueGain = varValue / innovationVar;
+        double velocityGain = covariance / innovationVar;
+        mValues[i] = predictedValue + valueGain * innovation;
+        mVelocities[i] += velocityGain * innovation;
+        mVarValues[i] = (1 - valueGain) * varValue;
+        mCovariances[i] = (1 - valueGain) * covariance;
+        mVarVelocities[i] = varVelocity - velocityGain * covariance;
+    }
+
+    /**
+     * Low pass filters the channel with a cutoff frequency rising with its filtered speed.
+     */
+    private void updateOneEuro(int i, double dt, double value, double minCutoff, double beta) {
+        double speed = (value - mValues[i]) / dt;
+        mVelocities[i] += smoothingFactor(DERIVATIVE_CUTOFF_HZ, dt) * (speed - mVelocities[i]);
+        double cutoff = minCutoff + beta * Math.abs(mVelocities[i]);
+        mValues[i] += smoothingFactor(cutoff, dt) * (value - mValues[i]);
+    }
+
+    private static double smoothingFactor(double cutoff, double dt) {
+        double tau = 1 / (2 * Math.PI * cutoff);
+        return 1 / (1 + tau / dt);
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed capacity history of poses, answering "where was the device at time t" so that data from
+ * other callbacks, such as point clouds and camera frames, can be matched with the pose at their
+ * exact capture time.
+ * <p/>
+ * Poses are appended by a single writer thread, typically from {@code onPoseAvailable}, into a
+ * ring buffer of primitives: adding never allocates and overwrites the oldest pose once the
+ * buffer is full. Lookups binary search the timestamps, then interpolate linearly between the
+ * surrounding translations and spherically between the surrounding rotations.
+ * <p/>
+ * Readers never lock nor block the writer: a lookup reads the write count, reads the entries it
+ * needs, then checks the write count again and retries if the writer may have overwritten them
+ * in the meantime. Any number of threads may look poses up concurrently.
+ */
+public final class PoseHistory {
+    // Every entry is stored as the raw bits of its timestamp, translation x, y, z and rotation
+    // x, y, z, w.
+    private static final int ENTRY_SIZE = 8;
+    private static final int TIMESTAMP = 0;
+    private static final int TRANSLATION = 1;
+    private static final int ROTATION = 4;
+    // Below this quaternion angle cosine, rotations are interpolated linearly.
+    private static final double SLERP_THRESHOLD = 0.9995;
+
+    private final int mCapacity;
+    // Element accesses have volatile semantics, which orders the entry reads of a lookup before
+    // its second read of mCount.
+    private final AtomicLongArray mEntries;
+    // Number of poses ever added. Entry i lives in slot i % mCapacity.
+    private volatile long mCount;
+    // Only accessed by the writer thread.
+    private double mLastTimestamp = Double.NEGATIVE_INFINITY;
+
+    /**
+     * @param capacity the number of poses kept. At the 100 Hz rate of motion tracking poses, a
+     *                 capacity of 256 covers more than two seconds.
+     */
+    public PoseHistory(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2: " + capacity);
+        }
+        mCapacity = capacity;
+        mEntries = new AtomicLongArray(capacity * ENTRY_SIZE);
+    }
+
+    /**
+     * Appends a pose. Poses must be added in increasing timestamp order: older or duplicate
+     * poses are ignored. Must only be called from a single thread.
+     *
+     * @param translation the translation, x, y, z.
+     * @param rotation    the rotation quaternion, x, y, z, w.
+     */
+    public void add(double timestamp, double[] translation, double[] rotation) {
+        if (!(timestamp > mLastTimestamp)) {
+            return;
+        }
+        mLastTimestamp = timestamp;
+        long count = mCount;
+        int base = (int) (count % mCapacity) * ENTRY_SIZE;
+        mEntries.lazySet(base + TIMESTAMP, Double.doubleToRawLongBits(timestamp));
+        for (int i = 0; i < 3; i++) {
+            mEntries.lazySet(base + TRANSLATION + i, Double.doubleToRawLongBits(translation[i]));
+        }
+        for (int i = 0; i < 4; i++) {
+            mEntries.lazySet(base + ROTATION + i, Double.doubleToRawLongBits(rotation[i]));
+        }
+        mCount = count + 1;
+    }
+
+    /**
+     * Returns the number of poses currently held.
+     */
+    public int size() {
+        return (int) Math.min(mCount, mCapacity);
+    }
+
+    /**
+     * Interpolates the pose at a given time.
+     *
+     * @param outTranslation receives the translation, x, y, z.
+     * @param outRotation    receives the rotation quaternion, x, y, z, w.
+     * @return false if the time is outside of the history, in which case the outputs are left
+     * unchanged.
+     */
+    public boolean getPoseAt(double timestamp, double[] outTranslation, double[] outRotation) {
+        while (true) {
+            long count = mCount;
+            // The entry of index count - mCapacity may be being overwritten by the next add.
+            long oldest = Math.max(0, count - mCapacity + 1);
+            if (count - oldest < 1) {
+                return false;
+            }
+            long newest = count - 1;
+            if (timestamp < timestampOf(oldest) || timestamp > timestampOf(newest)) {
+                if (isOverwritten(oldest)) {
+                    continue;
+                }
+                return false;
+            }
+
+            // Find the last entry at or before the timestamp.
+            long low = oldest;
+            long high = newest;
+            while (low < high) {
+                long mid = (low + high + 1) >>> 1;
+                if (timestampOf(mid) <= timestamp) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            long next = low < newest ? low + 1 : low;
+            double t0 = timestampOf(low);
+            double t1 = timestampOf(next);
+            double fraction = t1 > t0 ? (timestamp - t0) / (t1 - t0) : 0;
+
+            int base0 = slot(low);
+            int base1 = slot(next);
+            double x0 = get(base0 + ROTATION);
+            double y0 = get(base0 + ROTATION + 1);
+            double z0 = get(base0 + ROTATION + 2);
+            double w0 = get(base0 + ROTATION + 3);
+            double x1 = get(base1 + ROTATION);
+            double y1 = get(base1 + ROTATION + 1);
+            double z1 = get(base1 + ROTATION + 2);
+            double w1 = get(base1 + ROTATION + 3);
+            double tx0 = get(base0 + TRANSLATION);
+            double ty0 = get(base0 + TRANSLATION + 1);
+            double tz0 = get(base0 + TRANSLATION + 2);
+            double tx1 = get(base1 + TRANSLATION);
+            double ty1 = get(base1 + TRANSLATION + 1);
+            double tz1 = get(base1 + TRANSLATION + 2);
+            // The search read entries down to the oldest one.
+            if (isOverwritten(oldest)) {
+                continue;
+            }
+
+            outTranslation[0] = tx0 + fraction * (tx1 - tx0);
+            outTranslation[1] = ty0 + fraction * (ty1 - ty0);
+            outTranslation[2] = tz0 + fraction * (tz1 - tz0);
+            slerp(x0, y0, z0, w0, x1, y1, z1, w1, fraction, outRotation);
+            return true;
+        }
+    }
+
+    /**
+     * Spherical linear interpolation between two unit quaternions, along the shortest path.
+     */
+    static void slerp(double x0, double y0, double z0, double w0, double x1, double y1,
+                      double z1, double w1, double fraction, double[] out) {
+        double cos = x0 * x1 + y0 * y1 + z0 * z1 + w0 * w1;
+        if (cos < 0) {
+            cos = -cos;
+            x1 = -x1;
+            y1 = -y1;
+            z1 = -z1;
+            w1 = -w1;
+        }
+        double scale0;
+        double scale1;
+        if (cos < SLERP_THRESHOLD) {
+            double angle = Math.acos(cos);
+            double sin = Math.sin(angle);
+            scale0 = Math.sin((1 - fraction) * angle) / sin;
+            scale1 = Math.sin(fraction * angle) / sin;
+        } else {
+            scale0 = 1 - fraction;
+            scale1 = fraction;
+        }
+        double x = scale0 * x0 + scale1 * x1;
+        double y = scale0 * y0 + scale1 * y1;
+        double z = scale0 * z0 + scale1 * z1;
+        double w = scale0 * w0 + scale1 * w1;
+        double norm = Math.sqrt(x * x + y * y + z * z + w * w);
+        out[0] = x / norm;
+        out[1] = y / norm;
+        out[2] = z / norm;
+        out[3] = w / norm;
+    }
+
+    /**
+     * Returns whether the entry of the given index may have been overwritten since the lookup
+     * started.
+     */
+    private boolean isOverwritten(long index) {
+        return index <= mCount - mCapacity;
+    }
+
+    private double timestampOf(long index) {
+        return get(slot(index) + TIMESTAMP);
+    }
+
+    private int slot(long index) {
+        return (int) (index % mCapacity) * ENTRY_SIZE;
+    }
+
+    private double get(int position) {
+        return Double.longBitsToDouble(mEntries.get(position));
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.utils;
+
+/**
+ * Layout of the session files written by {@link SessionRecorder} and read by
+ * {@link SessionReplayer}, big endian:
+ * <pre>
+ *   header   magic (int), version (short)
+ *   records  type (byte), nanoseconds since the start of the recording (long), payload
+ * </pre>
+ * Payloads by record type:
+ * <pre>
+ *   pose             timestamp (double), base frame, target frame, status code,
+ *                    confidence (int), translation x, y, z, rotation x, y, z, w (double)
+ *   point cloud      timestamp (double), point count (int), x, y, z, c per point (float)
+ *   event            timestamp (double), type (int), key, value (string)
+ *   frame            camera id (int)
+ *   frame timestamp  camera id (int), timestamp (double)
+ * </pre>
+ * Strings are stored as their UTF-8 byte length (short, -1 for null) followed by the bytes. The
+ * file is append only: a recording cut short ends with at most one truncated record.
+ */
+final class SessionFormat {
+    static final int MAGIC = 0x54534553; // "TSES"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 6;
+
+    static final byte TYPE_POSE = 1;
+    static final byte TYPE_POINT_CLOUD = 2;
+    static final byte TYPE_EVENT = 3;
+    static final byte TYPE_FRAME = 4;
+    static final byte TYPE_FRAME_TIMESTAMP = 5;
+
+    // Type and time of every record.
+    static final int RECORD_HEADER_SIZE = 9;
+    static final int POSE_SIZE = 8 + 4 * 4 + 7 * 8;
+
+    private SessionFormat() {
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.utils;
+
+import com.google.atap.tangoservice.Tango.OnTangoUpdateListener;
+import com.google.atap.tangoservice.TangoEvent;
+import com.google.atap.tangoservice.TangoPointCloudData;
+import com.google.atap.tangoservice.TangoPoseData;
+import com.google.atap.tangoservice.TangoXyzIjData;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the Tango callbacks of a session into an append only binary log, see
+ * {@link SessionFormat}, for {@link SessionReplayer} to play them back off-device.
+ * <p/>
+ * The recorder wraps the listener of the application: every callback is recorded, then passed
+ * on. Records are encoded into memory chunks on the callback thread, and full chunks are written
+ * to disk by a background thread, so callbacks never wait for the disk. A small pool of chunks
+ * bounds the memory used: when the disk can't keep up and no chunk is free, records are dropped
+ * and counted rather than blocking the callbacks.
+ * <p/>
+ * {@code onXyzIjAvailable} is passed on but not recorded, point clouds are.
+ */
+public final class SessionRecorder implements OnTangoUpdateListener {
+    public static final String EXTENSION = ".tangosession";
+
+    private static final int CHUNK_SIZE = 1 << 18;
+    private static final int CHUNK_COUNT = 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final OnTangoUpdateListener mListener;
+    private final FileOutputStream mOutput;
+    private final FileChannel mChannel;
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+    private final BlockingQueue<ByteBuffer> mFreeChunks =
+            new ArrayBlockingQueue<ByteBuffer>(CHUNK_COUNT);
+    private final long mStartNanos = System.nanoTime();
+
+    // Guarded by this.
+    private ByteBuffer mChunk;
+    private boolean mClosed;
+    private int mDroppedRecordCount;
+
+    // First error of the writer thread, reported by close().
+    private volatile IOException mWriteError;
+
+    /**
+     * Starts recording into a new file.
+     *
+     * @param listener the listener the callbacks are passed on to.
+     */
+    public SessionRecorder(File file, OnTangoUpdateListener listener) throws IOException {
+        mListener = listener;
+        mOutput = new FileOutputStream(file);
+        mChannel = mOutput.getChannel();
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            mFreeChunks.add(ByteBuffer.allocate(CHUNK_SIZE));
+        }
+        synchronized (this) {
+            ByteBuffer chunk = reserve(SessionFormat.HEADER_SIZE);
+            chunk.putInt(SessionFormat.MAGIC);
+            chunk.putShort(SessionFormat.VERSION);
+        }
+    }
+
+    @Override
+    public void onPoseAvailable(TangoPoseData pose) {
+        synchronized (this) {
+            ByteBuffer chunk = beginRecord(SessionFormat.TYPE_POSE, SessionFormat.POSE_SIZE);
+            if (chunk != null) {
+                chunk.putDouble(pose.timestamp);
+                chunk.putInt(pose.baseFrame);
+                chunk.putInt(pose.targetFrame);
+                chunk.putInt(pose.statusCode);
+                chunk.putInt(pose.confidence);
+                for (int i = 0; i < 3; i++) {
+                    chunk.putDouble(pose.translation[i]);
+                }
+                for (int i = 0; i < 4; i++) {
+                    chunk.putDouble(pose.rotation[i]);
+                }
+            }
+        }
+        mListener.onPoseAvailable(pose);
+    }
+
+    @Override
+    public void onXyzIjAvailable(TangoXyzIjData xyzIj) {
+        mListener.onXyzIjAvailable(xyzIj);
+    }
+
+    @Override
+    public void onPointCloudAvailable(TangoPointCloudData pointCloud) {
+        int numFloats = 4 * pointCloud.numPoints;
+        synchronized (this) {
+            ByteBuffer chunk = beginRecord(SessionFormat.TYPE_POINT_CLOUD, 12 + 4 * numFloats);
+            if (chunk != null) {
+                chunk.putDouble(pointCloud.timestamp);
+                chunk.putInt(pointCloud.numPoints);
+                FloatBuffer points = pointCloud.points;
+                int position = points.position();
+                int limit = points.limit();
+                points.limit(numFloats);
+                points.position(0);
+                chunk.asFloatBuffer().put(points);
+                points.limit(limit);
+                points.position(position);
+                chunk.position(chunk.position() + 4 * numFloats);
+            }
+        }
+        mListener.onPointCloudAvailable(pointCloud);
+    }
+
+    @Override
+    public void onTangoEvent(TangoEvent event) {
+        byte[] key = event.eventKey != null ? event.eventKey.getBytes(UTF_8) : null;
+        byte[] value = event.eventValue != null ? event.eventValue.getBytes(UTF_8) : null;
+        synchronized (this) {
+            ByteBuffer chunk = beginRecord(SessionFormat.TYPE_EVENT,
+                    12 + stringSize(key) + stringSize(value));
+            if (chunk != null) {
+                chunk.putDouble(event.timestamp);
+                chunk.putInt(event.eventType);
+                putString(chunk, key);
+                putString(chunk, value);
+            }
+        }
+        mListener.onTangoEvent(event);
+    }
+
+    @Override
+    public void onFrameAvailable(int cameraId) {
+        synchronized (this) {
+            ByteBuffer chunk = beginRecord(SessionFormat.TYPE_FRAME, 4);
+            if (chunk != null) {
+                chunk.putInt(cameraId);
+            }
+        }
+        mListener.onFrameAvailable(cameraId);
+    }
+
+    /**
+     * Records the timestamp of a camera frame, as returned by {@code Tango.updateTexture}, which
+     * {@code onFrameAvailable} doesn't carry.
+     */
+    public void onFrameTimestamp(int cameraId, double timestamp) {
+        synchronized (this) {
+            ByteBuffer chunk = beginRecord(SessionFormat.TYPE_FRAME_TIMESTAMP, 12);
+            if (chunk != null) {
+                chunk.putInt(cameraId);
+                chunk.putDouble(timestamp);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of records dropped so far because the disk couldn't keep up.
+     */
+    public synchronized int getDroppedRecordCount() {
+        return mDroppedRecordCount;
+    }
+
+    /**
+     * Writes the pending records and closes the file. Callbacks received afterwards are only
+     * passed on.
+     *
+     * @throws IOException if any record couldn't be written.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            if (mChunk != null && mChunk.position() > 0) {
+                submit(mChunk);
+            }
+            mChunk = null;
+        }
+        mWriter.shutdown();
+        try {
+            mWriter.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            mChannel.force(false);
+        } finally {
+            mOutput.close();
+        }
+        if (mWriteError != null) {
+            throw mWriteError;
+        }
+    }
+
+    /**
+     * Writes the header of a record and returns the chunk to write its payload to, or null if
+     * the record has to be dropped. Must be called with the lock held.
+     */
+    private ByteBuffer beginRecord(byte type, int payloadSize) {
+        ByteBuffer chunk = reserve(SessionFormat.RECORD_HEADER_SIZE + payloadSize);
+        if (chunk != null) {
+            chunk.put(type);
+            chunk.putLong(System.nanoTime() - mStartNanos);
+        }
+        return chunk;
+    }
+
+    /**
+     * Returns a chunk with room for the given number of bytes, handing the current chunk over to
+     * the writer thread if it is too full, or null if the recorder is closed or no chunk is
+     * free. Must be called with the lock held.
+     */
+    private ByteBuffer reserve(int size) {
+        if (mClosed) {
+            return null;
+        }
+        if (mChunk != null && mChunk.remaining() < size && mChunk.position() > 0) {
+            submit(mChunk);
+            mChunk = null;
+        }
+        if (mChunk == null) {
+            mChunk = mFreeChunks.poll();
+            if (mChunk == null) {
+                mDroppedRecordCount++;
+                return null;
+            }
+        }
+        if (mChunk.capacity() < size) {
+            // Records larger than a chunk, such as dense point clouds, get a chunk of their own
+            // which then replaces the smaller one in the pool.
+            mChunk = ByteBuffer.allocate(size);
+        }
+        return mChunk;
+    }
+
+    private void submit(final ByteBuffer chunk) {
+        chunk.flip();
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mWriteError == null) {
+                        while (chunk.hasRemaining()) {
+                            mChannel.write(chunk);
+                        }
+                    }
+                } catch (IOException e) {
+                    mWriteError = e;
+                } finally {
+                    chunk.clear();
+                    mFreeChunks.offer(chunk);
+                }
+            }
+        });
+    }
+
+    private static int stringSize(byte[] bytes) {
+        return 2 + (bytes != null ? bytes.length : 0);
+    }
+
+    private static void putString(ByteBuffer chunk, byte[] bytes) {
+        if (bytes == null) {
+            chunk.putShort((short) -1);
+        } else {
+            chunk.putShort((short) bytes.length);
+            chunk.put(bytes);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.utils;
+
+import com.google.atap.tangoservice.Tango.OnTangoUpdateListener;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Records the Tango sessions of an example activity with a {@link SessionRecorder}, into its
+ * external files directory, when {@link #RECORD_SESSION} is set.
+ * <p/>
+ * Unlike the rest of this package, this uses the Android framework, so only use it on a device.
+ */
+public final class SessionRecording {
+    // Set to true to record the Tango callbacks of every session, along with the timestamp of
+    // every rendered frame, for replay off-device.
+    public static final boolean RECORD_SESSION = false;
+
+    private static final String TAG = SessionRecording.class.getSimpleName();
+
+    private final Context mContext;
+
+    // Written under the lock of this, read from the render thread.
+    private volatile SessionRecorder mRecorder;
+
+    public SessionRecording(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Starts recording a session, when RECORD_SESSION is set, and returns the listener to connect
+     * to the Tango service in place of the given one.
+     */
+    public synchronized OnTangoUpdateListener start(OnTangoUpdateListener listener) {
+        stop();
+        if (!RECORD_SESSION) {
+            return listener;
+        }
+        File file = new File(mContext.getExternalFilesDir(null),
+                "session-" + System.currentTimeMillis() + SessionRecorder.EXTENSION);
+        try {
+            mRecorder = new SessionRecorder(file, listener);
+            return mRecorder;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to record the session to " + file, e);
+            return listener;
+        }
+    }
+
+    /**
+     * Records the timestamp of a rendered frame, if a session is being recorded.
+     */
+    public void onFrameTimestamp(int cameraId, double timestamp) {
+        SessionRecorder recorder = mRecorder;
+        if (recorder != null) {
+            recorder.onFrameTimestamp(cameraId, timestamp);
+        }
+    }
+
+    /**
+     * Stops recording the session, if one is being recorded.
+     */
+    public synchronized void stop() {
+        if (mRecorder != null) {
+            try {
+                mRecorder.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to write the session recording", e);
+            }
+            mRecorder = null;
+        }
+    }
+}
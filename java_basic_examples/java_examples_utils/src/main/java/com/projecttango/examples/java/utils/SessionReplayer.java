@@ -0,0 +1,191 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.utils;
+
+import com.google.atap.tangoservice.Tango.OnTangoUpdateListener;
+import com.google.atap.tangoservice.TangoEvent;
+import com.google.atap.tangoservice.TangoPointCloudData;
+import com.google.atap.tangoservice.TangoPoseData;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Plays a session recorded by {@link SessionRecorder} back into a Tango listener, either at the
+ * pace it was recorded at or as fast as the listener consumes it.
+ * <p/>
+ * All the callbacks are made in recording order from the thread calling {@link #replay}, which
+ * makes replays deterministic. Like the Tango service, the replayer passes new data objects to
+ * every callback, so listeners may keep references to them.
+ */
+public final class SessionReplayer {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private volatile boolean mStopped;
+
+    public SessionReplayer(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Plays the session back. A truncated last record, left by a recording that was cut short,
+     * ends the replay.
+     *
+     * @param realTime whether to wait between callbacks as long as they were apart when
+     *                 recorded, rather than replaying as fast as possible.
+     * @return the number of callbacks made.
+     * @throws IOException if the file can't be read or is not a session file.
+     */
+    public int replay(OnTangoUpdateListener listener, boolean realTime) throws IOException {
+        mStopped = false;
+        DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mFile), 1 << 16));
+        try {
+            if (input.readInt() != SessionFormat.MAGIC) {
+                throw new IOException(mFile + " is not a session file");
+            }
+            short version = input.readShort();
+            if (version != SessionFormat.VERSION) {
+                throw new IOException("Unsupported session file version " + version);
+            }
+
+            long startNanos = System.nanoTime();
+            int count = 0;
+            while (!mStopped) {
+                int type = input.read();
+                if (type < 0) {
+                    break;
+                }
+                try {
+                    long offsetNanos = input.readLong();
+                    if (realTime) {
+                        waitUntil(startNanos + offsetNanos);
+                    }
+                    dispatch(type, input, listener);
+                    count++;
+                } catch (EOFException e) {
+                    // Truncated last record.
+                    break;
+                }
+            }
+            return count;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Makes a replay in progress return after its current callback. May be called from any
+     * thread.
+     */
+    public void stop() {
+        mStopped = true;
+    }
+
+    private void dispatch(int type, DataInputStream input, OnTangoUpdateListener listener)
+            throws IOException {
+        switch (type) {
+            case SessionFormat.TYPE_POSE:
+                listener.onPoseAvailable(readPose(input));
+                break;
+            case SessionFormat.TYPE_POINT_CLOUD:
+                listener.onPointCloudAvailable(readPointCloud(input));
+                break;
+            case SessionFormat.TYPE_EVENT:
+                listener.onTangoEvent(readEvent(input));
+                break;
+            case SessionFormat.TYPE_FRAME:
+                listener.onFrameAvailable(input.readInt());
+                break;
+            case SessionFormat.TYPE_FRAME_TIMESTAMP:
+                // Not a callback: only useful to consumers reading the file themselves.
+                input.readInt();
+                input.readDouble();
+                break;
+            default:
+                throw new IOException("Unknown record type " + type + " in " + mFile);
+        }
+    }
+
+    private static TangoPoseData readPose(DataInputStream input) throws IOException {
+        TangoPoseData pose = new TangoPoseData();
+        pose.timestamp = input.readDouble();
+        pose.baseFrame = input.readInt();
+        pose.targetFrame = input.readInt();
+        pose.statusCode = input.readInt();
+        pose.confidence = input.readInt();
+        pose.translation = new double[3];
+        for (int i = 0; i < 3; i++) {
+            pose.translation[i] = input.readDouble();
+        }
+        pose.rotation = new double[4];
+        for (int i = 0; i < 4; i++) {
+            pose.rotation[i] = input.readDouble();
+        }
+        return pose;
+    }
+
+    private static TangoPointCloudData readPointCloud(DataInputStream input) throws IOException {
+        TangoPointCloudData pointCloud = new TangoPointCloudData();
+        pointCloud.timestamp = input.readDouble();
+        pointCloud.numPoints = input.readInt();
+        if (pointCloud.numPoints < 0) {
+            throw new IOException("Corrupted point cloud record");
+        }
+        byte[] bytes = new byte[16 * pointCloud.numPoints];
+        input.readFully(bytes);
+        pointCloud.points = ByteBuffer.wrap(bytes).asFloatBuffer();
+        return pointCloud;
+    }
+
+    private static TangoEvent readEvent(DataInputStream input) throws IOException {
+        TangoEvent event = new TangoEvent();
+        event.timestamp = input.readDouble();
+        event.eventType = input.readInt();
+        event.eventKey = readString(input);
+        event.eventValue = readString(input);
+        return event;
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        short length = input.readShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void waitUntil(long deadlineNanos) {
+        long remaining = deadlineNanos - System.nanoTime();
+        if (remaining > 0) {
+            try {
+                Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
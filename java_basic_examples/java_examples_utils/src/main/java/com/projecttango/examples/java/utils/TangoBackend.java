@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.examples.java.utils;
+
+import com.google.atap.tangoservice.Tango.OnTangoUpdateListener;
+import com.google.atap.tangoservice.TangoConfig;
+import com.google.atap.tangoservice.TangoCoordinateFramePair;
+import com.google.atap.tangoservice.TangoPoseData;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The part of the {@link com.google.atap.tangoservice.Tango} service the examples drive their
+ * sessions with, so that the callback logic can run against the device, see
+ * {@link DeviceTangoBackend}, or against synthetic data on a plain JVM, see
+ * {@link FakeTangoBackend}.
+ */
+public interface TangoBackend {
+    /**
+     * Connects to the service with the given configuration.
+     */
+    void connect(TangoConfig config);
+
+    /**
+     * Disconnects from the service. No callbacks are made once this returns.
+     */
+    void disconnect();
+
+    /**
+     * Starts delivering the poses of the given frame pairs, and the other data enabled in the
+     * configuration, to the listener.
+     */
+    void connectListener(List<TangoCoordinateFramePair> framePairs,
+                         OnTangoUpdateListener listener);
+
+    /**
+     * Returns the UUIDs of the saved area descriptions.
+     */
+    ArrayList<String> listAreaDescriptions();
+
+    /**
+     * Saves the area description learned in the current session, and returns its UUID.
+     */
+    String saveAreaDescription();
+
+    /**
+     * Returns the pose of a frame pair at a timestamp, 0 for the latest pose. Once connected.
+     */
+    TangoPoseData getPoseAtTime(double timestamp, TangoCoordinateFramePair framePair);
+}